@@ -0,0 +1,130 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Verify.verify;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Optional;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Collects the text and geometry of each page from the area tree that FOP’s XML renderer emits.
+ * <p>
+ * Only the characters of {@code word} and {@code space} areas are kept, which excludes the content
+ * of foreign objects such as SVG; each line area ends with a new line. Dimensions in the area tree
+ * are in millipoints, and are converted to points.
+ * </p>
+ * <p>
+ * Instances are not thread-safe, and can be used for a single document.
+ * </p>
+ */
+class AreaTreeText extends DefaultHandler {
+  private static final double MILLIPOINTS_PER_POINT = 1000d;
+
+  private final ImmutableList.Builder<LaidOutText.Page> pages;
+  private int pageCount;
+  private Optional<PageBuilder> current;
+  private int textDepth;
+  private boolean ended;
+
+  private static class PageBuilder {
+    private final int number;
+    private final String label;
+    private final double width;
+    private final double height;
+    private final StringBuilder text;
+    private final StringBuilder line;
+
+    PageBuilder(int number, String label, double width, double height) {
+      this.number = number;
+      this.label = label;
+      this.width = width;
+      this.height = height;
+      text = new StringBuilder();
+      line = new StringBuilder();
+    }
+
+    void endLine() {
+      final String stripped = line.toString().strip();
+      if (!stripped.isEmpty()) {
+        if (text.length() > 0) {
+          text.append('\n');
+        }
+        text.append(stripped);
+      }
+      line.setLength(0);
+    }
+
+    LaidOutText.Page build() {
+      endLine();
+      return new LaidOutText.Page(number, label, width, height, text.toString());
+    }
+  }
+
+  AreaTreeText() {
+    pages = ImmutableList.builder();
+    pageCount = 0;
+    current = Optional.empty();
+    textDepth = 0;
+    ended = false;
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) {
+    final String name = localName.isEmpty() ? qName : localName;
+    switch (name) {
+      case "pageViewport" -> {
+        verify(current.isEmpty());
+        ++pageCount;
+        final String[] bounds = attributes.getValue("bounds").strip().split("\\s+");
+        final String label = Optional.ofNullable(attributes.getValue("formatted-nr"))
+            .orElse(String.valueOf(pageCount));
+        current = Optional.of(new PageBuilder(pageCount, label,
+            Double.parseDouble(bounds[2]) / MILLIPOINTS_PER_POINT,
+            Double.parseDouble(bounds[3]) / MILLIPOINTS_PER_POINT));
+      }
+      case "word", "space" -> ++textDepth;
+      default -> {
+        /* Other areas bear no text of their own. */
+      }
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    final String name = localName.isEmpty() ? qName : localName;
+    switch (name) {
+      case "pageViewport" -> {
+        pages.add(current.orElseThrow().build());
+        current = Optional.empty();
+      }
+      case "lineArea" -> current.ifPresent(PageBuilder::endLine);
+      case "word", "space" -> --textDepth;
+      default -> {
+        /* Nothing to close. */
+      }
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    if (textDepth > 0 && current.isPresent()) {
+      current.get().line.append(ch, start, length);
+    }
+  }
+
+  @Override
+  public void endDocument() {
+    ended = true;
+  }
+
+  /**
+   * @return the pages, in document order
+   * @throws IllegalStateException iff the document has not been entirely received
+   */
+  ImmutableList<LaidOutText.Page> pages() {
+    checkState(ended);
+    return pages.build();
+  }
+}
@@ -0,0 +1,171 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.oliviercailloux.jaris.xml.ConformityChecker;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import io.github.oliviercailloux.jaris.xml.XmlTransformer;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.Options;
+import org.asciidoctor.SafeMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * The whole publishing pipeline, from AsciiDoc to PDF through DocBook (validated) and FO.
+ * <p>
+ * An instance keeps the costly parts of the pipeline warm: the Asciidoctor runtime, the DocBook
+ * schema, the compiled FO stylesheet and one FOP factory per base directory. It should thus be
+ * created once and used for many documents, then closed.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class AsciidocToPdf implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsciidocToPdf.class);
+
+  /**
+   * Creates a pipeline that transforms DocBook to FO using the given factory and stylesheet.
+   *
+   * @param factory the factory, with the URI resolver able to resolve the stylesheet and its
+   *        imports
+   * @param stylesheet the DocBook to FO stylesheet
+   * @return a pipeline, to be closed after use
+   * @throws XmlException iff the stylesheet could not be compiled
+   */
+  public static AsciidocToPdf using(TransformerFactory factory, URI stylesheet)
+      throws XmlException {
+    final XmlTransformer toFo =
+        XmlTransformerFactory.usingFactory(factory).usingStylesheet(stylesheet);
+    final ConformityChecker checker = DocBookConformityChecker.usingEmbeddedSchema();
+    LOGGER.debug("Creating Asciidoctor.");
+    final Asciidoctor asciidoctor = Asciidoctor.Factory.create();
+    final FoStage stage = (docBook, size, fo) -> toFo.sourceToResult(docBook, fo);
+    return new AsciidocToPdf(asciidoctor, checker, stage, FoToPdfTransformer.usingFactory(factory));
+  }
+
+  /**
+   * Creates a pipeline that transforms DocBook to FO using the given adaptive transformer, thus
+   * letting its selector choose the engine for each document.
+   *
+   * @param toFo the transformer applying the DocBook to FO stylesheet
+   * @return a pipeline, to be closed after use
+   */
+  public static AsciidocToPdf adaptive(EngineSelector.AdaptiveTransformer toFo) {
+    final ConformityChecker checker = DocBookConformityChecker.usingEmbeddedSchema();
+    LOGGER.debug("Creating Asciidoctor.");
+    final Asciidoctor asciidoctor = Asciidoctor.Factory.create();
+    /* The FO identity stage of this transformer is unused: FO is pushed from the stylesheet. */
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    return new AsciidocToPdf(asciidoctor, checker, toFo::transform, toPdf);
+  }
+
+  /**
+   * Transforms DocBook to FO.
+   */
+  @FunctionalInterface
+  private static interface FoStage {
+    void toFo(Source docBook, long size, Result fo) throws XmlException, IOException;
+  }
+
+  private final Asciidoctor asciidoctor;
+  private final ConformityChecker checker;
+  private final FoStage toFo;
+  private final FoToPdfTransformer toPdf;
+  private final Map<Path, FoToPdfTransformer> toPdfByBaseDir;
+
+  private AsciidocToPdf(Asciidoctor asciidoctor, ConformityChecker checker, FoStage toFo,
+      FoToPdfTransformer toPdf) {
+    this.asciidoctor = checkNotNull(asciidoctor);
+    this.checker = checkNotNull(checker);
+    this.toFo = checkNotNull(toFo);
+    this.toPdf = checkNotNull(toPdf);
+    toPdfByBaseDir = new HashMap<>();
+    DocBookSaxConverter.register(asciidoctor);
+  }
+
+  /**
+   * Converts the given AsciiDoc document to a standalone DocBook document.
+   *
+   * @param adoc the AsciiDoc content
+   * @param baseDir the directory against which to resolve includes
+   * @return the DocBook document
+   */
+  public String toDocBook(String adoc, Path baseDir) {
+    LOGGER.debug("Converting to DocBook.");
+    return asciidoctor.convert(adoc, Options.builder().standalone(true).backend("docbook")
+        .baseDir(baseDir.toAbsolutePath().toFile()).safe(SafeMode.UNSAFE).build());
+  }
+
+  /**
+   * Converts the given AsciiDoc document to PDF.
+   *
+   * @param adoc the AsciiDoc content
+   * @param baseDir the directory against which to resolve includes and resources such as images
+   * @param pdf where to write the PDF, not closed by this method
+   * @throws com.google.common.base.VerifyException iff the DocBook document is invalid
+   * @throws XmlException iff transforming the DocBook document fails
+   * @throws IOException iff writing to the stream fails
+   */
+  public void render(String adoc, Path baseDir, OutputStream pdf)
+      throws XmlException, IOException {
+    final String docBook = toDocBook(adoc, baseDir);
+    LOGGER.debug("Validating DocBook.");
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      checker.verifyValid(lease.source(new InputSource(new StringReader(docBook))));
+    }
+    LOGGER.debug("Transforming to PDF.");
+    toPdf(baseDir).render(fo -> {
+      try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+        toFo.toFo(lease.source(new InputSource(new StringReader(docBook))), docBook.length(), fo);
+      }
+    }, pdf);
+  }
+
+  /**
+   * Converts the given AsciiDoc document to PDF without going through DocBook text: the parsed
+   * AsciiDoc document is sent as DocBook events (see {@link DocBookSaxConverter}) directly to the
+   * FO stage. This spares the serialization of DocBook by Asciidoctor and its parsing, but also
+   * skips the validation of the DocBook document.
+   *
+   * @param adoc the AsciiDoc content
+   * @param baseDir the directory against which to resolve includes and resources such as images
+   * @param pdf where to write the PDF, not closed by this method
+   * @throws XmlException iff transforming fails
+   * @throws IOException iff writing to the stream fails
+   */
+  public void renderDirect(String adoc, Path baseDir, OutputStream pdf)
+      throws XmlException, IOException {
+    LOGGER.debug("Converting to PDF through DocBook events.");
+    /* DocBook text is typically about twice as long as its AsciiDoc source. */
+    toPdf(baseDir).render(
+        fo -> toFo.toFo(DocBookSaxConverter.asSource(asciidoctor, adoc, baseDir),
+            2L * adoc.length(), fo),
+        pdf);
+  }
+
+  private FoToPdfTransformer toPdf(Path baseDir) {
+    return toPdfByBaseDir.computeIfAbsent(baseDir.toAbsolutePath(),
+        d -> toPdf.withDefaultConfig(d.toUri()));
+  }
+
+  @Override
+  public void close() {
+    asciidoctor.close();
+  }
+}
@@ -1,10 +1,16 @@
 package io.github.oliviercailloux.publish;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Streams;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -12,7 +18,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Writes an AsciiDoc document, line by line, to an {@link Appendable}.
+ * <p>
  * TODO should sanitize input.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
  */
 public class AsciidocWriter {
   @SuppressWarnings("unused")
@@ -29,18 +41,37 @@ public class AsciidocWriter {
     return quoted;
   }
 
-  private final StringBuilder content;
+  private final Appendable content;
 
   public AsciidocWriter() {
-    content = new StringBuilder();
+    this(new StringBuilder());
+  }
+
+  /**
+   * Creates a writer that writes to the given destination as it goes, for example a buffered file
+   * writer, so that large documents need not be held in memory.
+   *
+   * @param destination where to write; an {@link IOException} that it throws is rethrown by the
+   *        writing methods wrapped into an {@link UncheckedIOException}
+   */
+  public AsciidocWriter(Appendable destination) {
+    content = checkNotNull(destination);
+  }
+
+  private void write(CharSequence text) {
+    try {
+      content.append(text);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   public void title(int level, String title) {
-    content.append("=".repeat(level) + " " + title + '\n');
+    write("=".repeat(level) + " " + title + '\n');
   }
 
   public void addAttribute(String attribute, String value) {
-    content.append(":" + attribute + ":" + " " + value + "\n");
+    write(":" + attribute + ":" + " " + value + "\n");
   }
 
   public void h1(String title) {
@@ -66,7 +97,7 @@ public class AsciidocWriter {
   public void append(String text) {
     final String replaced = text.replace("\r\n", "\n");
     checkArgument(!replaced.contains("\r"));
-    content.append(replaced);
+    write(replaced);
     if (!replaced.endsWith("\n")) {
       eol();
     }
@@ -75,7 +106,7 @@ public class AsciidocWriter {
   public void paragraph(String text) {
     final String replaced = text.replace("\r\n", "\n");
     checkArgument(!replaced.contains("\r"));
-    content.append(replaced);
+    write(replaced);
     if (!replaced.endsWith("\n")) {
       eol();
     }
@@ -90,66 +121,143 @@ public class AsciidocWriter {
 
   public void list(List<String> items) {
     for (String item : items) {
-      content.append("* " + item + '\n');
+      write("* " + item + '\n');
     }
   }
 
   public void table(String cols, List<String> headers, List<? extends List<String>> rows) {
-    checkArgument(!cols.contains("\""));
     final int longestLength = Streams.concat(Stream.of(headers), rows.stream()).map(r -> r.size())
         .max(Comparator.naturalOrder()).orElseThrow();
+    table(cols, longestLength, headers, rows.iterator());
+  }
+
+  /**
+   * Writes a table whose rows are written as they are obtained from the given stream, which is
+   * consumed once.
+   *
+   * @param cols the column specification
+   * @param columns the number of columns, at least the size of the headers and of every row;
+   *        shorter rows are completed with empty cells
+   * @param headers the header cells, possibly empty
+   * @param rows the rows
+   * @throws IllegalArgumentException iff a row or cell is incorrect, in which case the table is
+   *         left incomplete
+   */
+  public void table(String cols, int columns, List<String> headers,
+      Stream<? extends List<String>> rows) {
+    table(cols, columns, headers, rows.iterator());
+  }
+
+  /**
+   * Writes a table whose rows are written as they are obtained from the given iterator, which is
+   * consumed until exhausted.
+   *
+   * @param cols the column specification
+   * @param columns the number of columns, at least the size of the headers and of every row;
+   *        shorter rows are completed with empty cells
+   * @param headers the header cells, possibly empty
+   * @param rows the rows
+   * @throws IllegalArgumentException iff a row or cell is incorrect, in which case the table is
+   *         left incomplete
+   */
+  public void table(String cols, int columns, List<String> headers,
+      Iterator<? extends List<String>> rows) {
+    checkArgument(!cols.contains("\""));
+    checkArgument(columns >= 0);
+    checkArgument(headers.size() <= columns);
 
     append("[cols = \"" + cols + "\"]");
     append("|===");
-    {
-      final StringBuilder headerLineBuilder = new StringBuilder();
-      for (int i = 0; i < longestLength; ++i) {
-        final String header;
-        if (i < headers.size()) {
-          header = headers.get(i);
-          checkArgument(!header.contains("\r"));
-          checkArgument(!header.contains("\n"));
-          checkArgument(!header.contains("|"));
-        } else {
-          header = "";
-        }
-        headerLineBuilder.append("|" + header);
-      }
-      final String headerLine = headerLineBuilder.toString();
-      if (!headers.isEmpty()) {
-        append(headerLine);
-        eol();
+    if (!headers.isEmpty()) {
+      row(headers, columns, true);
+      eol();
+    }
+    while (rows.hasNext()) {
+      final List<String> row = rows.next();
+      checkArgument(row.size() <= columns, "Too many cells in row: %s.", row);
+      row(row, columns, false);
+    }
+    append("|===");
+  }
+
+  /**
+   * Writes a table whose rows are read from the given CSV data, as they are read.
+   * <p>
+   * Fields are separated by commas and records by line breaks; fields may be enclosed in double
+   * quotes, in which case they may contain commas and doubled double quotes, but no line breaks.
+   * </p>
+   *
+   * @param cols the column specification
+   * @param columns the number of columns, at least the number of fields of every record
+   * @param csv the CSV data, not closed by this method
+   * @param header whether the first record contains the headers
+   * @throws IOException iff reading fails
+   * @throws IllegalArgumentException iff the data is incorrect, in which case the table is
+   *         left incomplete
+   */
+  public void table(String cols, int columns, Reader csv, boolean header) throws IOException {
+    final CsvRecords records = new CsvRecords(csv);
+    try {
+      /* Reading the header record may fail as well. */
+      final List<String> headers;
+      if (header) {
+        checkArgument(records.hasNext(), "No header record.");
+        headers = records.next();
+      } else {
+        headers = List.of();
       }
+      table(cols, columns, headers, records);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
+  }
 
-    for (List<String> row : rows) {
-      for (int i = 0; i < longestLength; ++i) {
-        final String cell;
-        if (i < row.size()) {
-          cell = row.get(i);
-          checkArgument(!cell.contains("\r"));
-          checkArgument(!cell.contains("\n"));
-          checkArgument(!cell.contains("|"));
-        } else {
-          cell = "";
-        }
+  /**
+   * Writes the cells of a row, padded to the given number of columns, on a single line, as for
+   * headers, or on a line each.
+   */
+  private void row(List<String> cells, int columns, boolean singleLine) {
+    final StringBuilder line = new StringBuilder();
+    for (int i = 0; i < columns; ++i) {
+      final String cell;
+      if (i < cells.size()) {
+        cell = cells.get(i);
+        checkArgument(!cell.contains("\r"));
+        checkArgument(!cell.contains("\n"));
+        checkArgument(!cell.contains("|"));
+      } else {
+        cell = "";
+      }
+      if (singleLine) {
+        line.append("|" + cell);
+      } else {
         append("|" + cell);
       }
     }
-    append("|===");
+    if (singleLine) {
+      append(line.toString());
+    }
   }
 
   public void eol() {
-    content.append('\n');
+    write("\n");
   }
 
   public void verbatim(String text) {
     final String quoted = quote(text);
-    content.append(quoted);
+    write(quoted);
     eol();
   }
 
+  /**
+   * Returns the content written so far.
+   *
+   * @return the content
+   * @throws IllegalStateException iff this writer writes to a destination that is not a character
+   *         sequence
+   */
   public String getContent() {
+    checkState(content instanceof CharSequence);
     return content.toString();
   }
 
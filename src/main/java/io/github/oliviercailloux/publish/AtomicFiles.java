@@ -0,0 +1,57 @@
+package io.github.oliviercailloux.publish;
+
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes files atomically: readers of the target see either its previous content or its new
+ * complete content, never a partially written file.
+ */
+class AtomicFiles {
+  /**
+   * Writes into the given stream.
+   */
+  @FunctionalInterface
+  interface StreamWriter {
+    void writeTo(OutputStream out) throws XmlException, IOException;
+  }
+
+  static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Writes to a temporary file in the directory of the given target, then renames that file to the
+   * target, replacing it if it exists. If writing fails, the temporary file is deleted and the
+   * target is left untouched.
+   *
+   * @param target the file to write
+   * @param writer writes the content, into a buffered stream that it need not close
+   * @throws XmlException iff the writer throws it
+   * @throws IOException iff the writer throws it, or creating, writing or renaming the temporary
+   *         file fails (including if the file system does not support atomic moves)
+   */
+  static void publish(Path target, StreamWriter writer) throws XmlException, IOException {
+    final Path absolute = target.toAbsolutePath();
+    final Path temp = Files.createTempFile(absolute.getParent(),
+        "." + absolute.getFileName().toString(), ".tmp");
+    boolean moved = false;
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)) {
+        writer.writeTo(out);
+      }
+      Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      moved = true;
+    } finally {
+      if (!moved) {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+
+  private AtomicFiles() {}
+}
@@ -0,0 +1,147 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.oliviercailloux.publish.RenderBudgetExceededException.Limit;
+import java.awt.Dimension;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Optional;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.util.IFDocumentHandlerProxy;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Measures one rendering against a {@link RenderBudget}, through the filter, stream and document
+ * handler that it provides and that the rendering must use.
+ * <p>
+ * The first breach is remembered: as FOP and the XSLT engines wrap the exceptions that they get
+ * from their collaborators in various ways, the caller, when the rendering fails, should check
+ * {@link #breach()} and throw the breach rather than the exception it got.
+ * </p>
+ */
+class BudgetMeter {
+  private final RenderBudget budget;
+  private final long deadline;
+  private int pages;
+  private long bytes;
+  private Optional<RenderBudgetExceededException> breach;
+
+  BudgetMeter(RenderBudget budget) {
+    this.budget = checkNotNull(budget);
+    final long start = System.nanoTime();
+    deadline = budget.timeout().map(t -> start + t.toNanos()).orElse(Long.MAX_VALUE);
+    pages = 0;
+    bytes = 0;
+    breach = Optional.empty();
+  }
+
+  Optional<RenderBudgetExceededException> breach() {
+    return breach;
+  }
+
+  private RenderBudgetExceededException breached(Limit limit, String message) {
+    if (breach.isEmpty()) {
+      breach = Optional.of(new RenderBudgetExceededException(limit, message));
+    }
+    return breach.get();
+  }
+
+  /**
+   * Returns the time left before the deadline, or an empty optional iff the budget has no timeout.
+   */
+  Optional<Duration> remaining() {
+    if (budget.timeout().isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+  }
+
+  void checkTime() throws RenderBudgetExceededException {
+    if (breach.isPresent()) {
+      throw breach.get();
+    }
+    if (System.nanoTime() - deadline > 0) {
+      throw breached(Limit.TIMEOUT, "Timeout of " + budget.timeout().get() + " exceeded.");
+    }
+  }
+
+  void addPage() throws RenderBudgetExceededException {
+    checkTime();
+    ++pages;
+    if (budget.maxPages().isPresent() && pages > budget.maxPages().get()) {
+      throw breached(Limit.PAGES, "More than " + budget.maxPages().get() + " pages.");
+    }
+  }
+
+  void addBytes(long count) throws RenderBudgetExceededException {
+    checkTime();
+    bytes += count;
+    if (budget.maxOutputBytes().isPresent() && bytes > budget.maxOutputBytes().get()) {
+      throw breached(Limit.OUTPUT_BYTES,
+          "More than " + budget.maxOutputBytes().get() + " bytes of output.");
+    }
+  }
+
+  /**
+   * Returns a filter that checks the time at each element and text chunk.
+   */
+  XMLFilterImpl filter() {
+    return new XMLFilterImpl() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes atts)
+          throws SAXException {
+        checkTime();
+        super.startElement(uri, localName, qName, atts);
+      }
+
+      @Override
+      public void characters(char[] ch, int start, int length) throws SAXException {
+        checkTime();
+        super.characters(ch, start, length);
+      }
+    };
+  }
+
+  /**
+   * Returns a stream that counts the bytes written to the given one, which it closes when closed.
+   */
+  OutputStream outputStream(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        addBytes(1);
+        out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        addBytes(len);
+        out.write(b, off, len);
+      }
+    };
+  }
+
+  /**
+   * Returns a document handler that counts the pages that the given one renders.
+   */
+  IFDocumentHandler documentHandler(IFDocumentHandler delegate) {
+    return new IFDocumentHandlerProxy(delegate) {
+      @Override
+      public void startPage(int index, String name, String pageMasterName, Dimension size)
+          throws IFException {
+        try {
+          addPage();
+        } catch (RenderBudgetExceededException e) {
+          throw new IFException(e.getMessage(), e);
+        }
+        super.startPage(index, name, pageMasterName, size);
+      }
+    };
+  }
+}
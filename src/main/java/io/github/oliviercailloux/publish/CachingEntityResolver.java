@@ -0,0 +1,98 @@
+package io.github.oliviercailloux.publish;
+
+import com.google.common.io.Resources;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * Resolves external entities (including external DTD subsets) by reading them once, then serving
+ * them from memory.
+ * <p>
+ * Only entities designated by an absolute {@code jar:} system id are cached, as those are the
+ * grammars and entity sets that come with the application, that do not change, and that documents
+ * refer to again and again; other entities (which may be edited while the application runs) are
+ * left for the parser to resolve as usual.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ */
+public class CachingEntityResolver implements EntityResolver2 {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingEntityResolver.class);
+
+  private static final CachingEntityResolver SHARED = new CachingEntityResolver();
+
+  /**
+   * Returns the resolver shared by the readers of {@link XmlReaders}.
+   *
+   * @return the shared instance
+   */
+  public static CachingEntityResolver shared() {
+    return SHARED;
+  }
+
+  private final ConcurrentMap<URI, byte[]> entities;
+
+  public CachingEntityResolver() {
+    entities = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public InputSource getExternalSubset(String name, String baseUri) {
+    return null;
+  }
+
+  @Override
+  public InputSource resolveEntity(String publicId, String systemId)
+      throws SAXException, IOException {
+    return resolveEntity(null, publicId, null, systemId);
+  }
+
+  @Override
+  public InputSource resolveEntity(String name, String publicId, String baseUri, String systemId)
+      throws SAXException, IOException {
+    if (systemId == null) {
+      return null;
+    }
+    final Optional<URI> absolute = absolute(baseUri, systemId);
+    if (absolute.isEmpty()) {
+      return null;
+    }
+    final URI uri = absolute.get();
+    byte[] content = entities.get(uri);
+    if (content == null) {
+      LOGGER.debug("Caching entity {}.", uri);
+      content = Resources.toByteArray(uri.toURL());
+      entities.putIfAbsent(uri, content);
+    }
+    final InputSource input = new InputSource(new ByteArrayInputStream(content));
+    input.setPublicId(publicId);
+    input.setSystemId(uri.toString());
+    return input;
+  }
+
+  private static Optional<URI> absolute(String baseUri, String systemId) {
+    final URI uri;
+    try {
+      /* URL rather than URI resolution, as the latter does not resolve against jar: URIs. */
+      final URL url = baseUri == null ? new URL(systemId) : new URL(new URL(baseUri), systemId);
+      uri = url.toURI();
+    } catch (MalformedURLException | URISyntaxException e) {
+      return Optional.empty();
+    }
+    return uri.getScheme().equals("jar") ? Optional.of(uri) : Optional.empty();
+  }
+}
@@ -0,0 +1,203 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.xmlgraphics.io.Resource;
+import org.apache.xmlgraphics.io.ResourceResolver;
+import org.apache.xmlgraphics.io.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A FOP resource resolver that keeps in memory the content of the resources (images, fonts,
+ * included files…) that a delegate resolver provides, so that documents that reference the same
+ * assets do not read them again and again. To be given to
+ * {@link FoToPdfTransformer#withResourceResolver(ResourceResolver)}, which shares it among all the
+ * renderings done with the resulting transformer (and those derived from it).
+ * <p>
+ * Entries are keyed by URI and, for resources that designate a path (in any file system provider,
+ * including in-memory ones), by modification time, so that a changed file is read again; the
+ * obsolete entry is evicted in due time. Resources in {@code jar:} URIs are cached by URI only, as
+ * they do not change while the application runs. Other resources (such as {@code http:} ones) are
+ * not cached. The cache holds at most the given number of bytes, evicting the least recently used
+ * entries first.
+ * </p>
+ * <p>
+ * {@link #virtual(URI, Map, ResourceResolver)} provides a resolver that serves a tree of resources
+ * held in memory, which may be used as a delegate.
+ * </p>
+ * <p>
+ * Instances are thread-safe if the delegate is.
+ * </p>
+ */
+public class CachingResourceResolver implements ResourceResolver {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingResourceResolver.class);
+
+  /**
+   * Returns a resolver that caches, up to the given size, what the given delegate resolves.
+   *
+   * @param delegate the resolver that reads the resources
+   * @param maxBytes the maximal total size of the cached resources
+   * @return a caching resolver
+   */
+  public static CachingResourceResolver caching(ResourceResolver delegate, long maxBytes) {
+    checkArgument(maxBytes >= 0);
+    return new CachingResourceResolver(delegate, maxBytes);
+  }
+
+  /**
+   * Returns a resolver that caches, up to the given size, what the FOP default resolver (which
+   * reads from URLs and file systems) resolves.
+   *
+   * @param maxBytes the maximal total size of the cached resources
+   * @return a caching resolver
+   */
+  public static CachingResourceResolver cachingDefault(long maxBytes) {
+    return caching(ResourceResolverFactory.createDefaultResourceResolver(), maxBytes);
+  }
+
+  /**
+   * Returns a resolver that serves the given resources, held in memory, and delegates the URIs that
+   * do not designate one of them to the given fallback.
+   *
+   * @param root the URI against which the keys of the given map are resolved, typically the base
+   *        URI of the FOP configuration, such as {@code mem:/}
+   * @param resources the resources, keyed by relative URI, such as {@code images/logo.png}
+   * @param fallback the resolver of the other URIs
+   * @return a resolver
+   */
+  public static ResourceResolver virtual(URI root, Map<String, ByteSource> resources,
+      ResourceResolver fallback) {
+    checkArgument(root.isAbsolute());
+    final ImmutableMap<URI, ByteSource> byUri = resources.entrySet().stream()
+        .collect(ImmutableMap.toImmutableMap(e -> root.resolve(e.getKey()).normalize(),
+            Map.Entry::getValue));
+    checkNotNull(fallback);
+    return new ResourceResolver() {
+      @Override
+      public Resource getResource(URI uri) throws IOException {
+        final ByteSource source = byUri.get(uri.normalize());
+        if (source == null) {
+          return fallback.getResource(uri);
+        }
+        return new Resource(source.openStream());
+      }
+
+      @Override
+      public OutputStream getOutputStream(URI uri) throws IOException {
+        return fallback.getOutputStream(uri);
+      }
+    };
+  }
+
+  private static record Key(URI uri, long modified) {
+  }
+
+  private final ResourceResolver delegate;
+  private final Cache<Key, byte[]> cache;
+
+  private CachingResourceResolver(ResourceResolver delegate, long maxBytes) {
+    this.delegate = checkNotNull(delegate);
+    cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+        .weigher((Key k, byte[] v) -> v.length).recordStats().build();
+  }
+
+  /**
+   * Returns the key of the given URI, if it may be cached.
+   *
+   * @throws NoSuchFileException iff the URI designates a path that does not exist
+   */
+  private static Optional<Key> key(URI uri) throws IOException {
+    if ("jar".equals(uri.getScheme())) {
+      return Optional.of(new Key(uri, 0));
+    }
+    final Path path;
+    try {
+      path = Path.of(uri);
+    } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+      return Optional.empty();
+    }
+    return Optional.of(new Key(uri, Files.getLastModifiedTime(path).toMillis()));
+  }
+
+  @Override
+  public Resource getResource(URI uri) throws IOException {
+    final Optional<Key> key;
+    try {
+      key = key(uri);
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(uri.toString());
+    }
+    if (key.isEmpty()) {
+      return delegate.getResource(uri);
+    }
+    return new Resource(new ByteArrayInputStream(content(key.get())));
+  }
+
+  private byte[] content(Key key) throws IOException {
+    final byte[] cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+    final byte[] read;
+    try (InputStream in = delegate.getResource(key.uri())) {
+      read = ByteStreams.toByteArray(in);
+    }
+    LOGGER.debug("Caching {} ({} bytes).", key.uri(), read.length);
+    cache.put(key, read);
+    return read;
+  }
+
+  /**
+   * Reads the given resource into the cache, if it may be cached and is not cached yet; otherwise,
+   * checks that it exists by opening it.
+   *
+   * @param uri the resource
+   * @throws FileNotFoundException iff the resource does not exist
+   * @throws IOException iff reading fails otherwise
+   */
+  void prefetch(URI uri) throws IOException {
+    try (InputStream in = getResource(uri)) {
+      /* Opening it suffices. */
+    }
+  }
+
+  @Override
+  public OutputStream getOutputStream(URI uri) throws IOException {
+    return delegate.getOutputStream(uri);
+  }
+
+  /**
+   * @return the statistics of the cache, counting the resources that may be cached only
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("delegate", delegate).add("size", cache.size())
+        .toString();
+  }
+}
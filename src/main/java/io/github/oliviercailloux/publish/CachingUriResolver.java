@@ -0,0 +1,114 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves stylesheet modules (and other resources that stylesheets import, include or read) using
+ * a delegate resolver, and keeps the content of those that come from the class path in memory, so
+ * that compiling a stylesheet again (with another factory, or in another pipeline) does not read
+ * and inflate its many modules again.
+ * <p>
+ * Only modules whose resolved system id is a {@code jar:} URI are cached, as those do not change
+ * while the application runs; other sources are returned as the delegate provides them.
+ * </p>
+ * <p>
+ * Instances are thread-safe if the delegate is.
+ * </p>
+ */
+public class CachingUriResolver implements URIResolver {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingUriResolver.class);
+
+  private static final CachingUriResolver DOCBOOK = caching(DocBookResources.RESOLVER);
+
+  /**
+   * Returns the resolver that caches what {@link DocBookResources#RESOLVER} resolves, shared in
+   * this JVM so that all factories compiling the DocBook stylesheets benefit from it.
+   *
+   * @return the shared instance
+   */
+  public static CachingUriResolver docBook() {
+    return DOCBOOK;
+  }
+
+  /**
+   * Returns a resolver that caches what the given delegate resolves.
+   *
+   * @param delegate the resolver to use first
+   * @return a caching resolver
+   */
+  public static CachingUriResolver caching(URIResolver delegate) {
+    return new CachingUriResolver(delegate);
+  }
+
+  private final URIResolver delegate;
+  private final ConcurrentMap<String, byte[]> modules;
+
+  private CachingUriResolver(URIResolver delegate) {
+    this.delegate = checkNotNull(delegate);
+    modules = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public Source resolve(String href, String base) throws TransformerException {
+    final Source resolved = delegate.resolve(href, base);
+    final String systemId;
+    if (resolved == null) {
+      try {
+        systemId =
+            (base == null ? new URL(href) : new URL(new URL(base), href)).toExternalForm();
+      } catch (MalformedURLException e) {
+        return null;
+      }
+    } else {
+      systemId = resolved.getSystemId();
+    }
+    if (systemId == null || !systemId.startsWith("jar:")) {
+      return resolved;
+    }
+    if (resolved != null && (!(resolved instanceof StreamSource stream)
+        || stream.getReader() != null)) {
+      return resolved;
+    }
+
+    byte[] content = modules.get(systemId);
+    if (content == null) {
+      try {
+        content = read(resolved, systemId);
+      } catch (IOException e) {
+        throw new TransformerException(e);
+      }
+      LOGGER.debug("Caching module {}.", systemId);
+      modules.putIfAbsent(systemId, content);
+    }
+    return new StreamSource(new ByteArrayInputStream(content), systemId);
+  }
+
+  private static byte[] read(Source resolved, String systemId) throws IOException {
+    final InputStream given =
+        resolved == null ? null : ((StreamSource) resolved).getInputStream();
+    if (given == null) {
+      return Resources.toByteArray(new URL(systemId));
+    }
+    try (InputStream in = given) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
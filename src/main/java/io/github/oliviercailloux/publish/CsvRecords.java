@@ -0,0 +1,92 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Reads CSV records one by one from a reader, so that only the current record is held in memory.
+ * <p>
+ * Fields are separated by commas and records by {@code \n} or {@code \r\n}; a field may be enclosed
+ * in double quotes, in which case it may contain commas and doubled double quotes, but no line
+ * breaks. A final line break is optional. Read errors are thrown as {@link UncheckedIOException}
+ * and malformed data as {@link IllegalArgumentException}.
+ * </p>
+ */
+class CsvRecords extends AbstractIterator<List<String>> {
+  private final Reader reader;
+  /**
+   * The character read ahead, or -2 if none.
+   */
+  private int next;
+
+  CsvRecords(Reader reader) {
+    this.reader = checkNotNull(reader);
+    next = -2;
+  }
+
+  private int peek() {
+    if (next == -2) {
+      try {
+        next = reader.read();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return next;
+  }
+
+  private int read() {
+    final int c = peek();
+    next = -2;
+    return c;
+  }
+
+  @Override
+  protected List<String> computeNext() {
+    if (peek() == -1) {
+      return endOfData();
+    }
+    final ImmutableList.Builder<String> fields = ImmutableList.builder();
+    final StringBuilder field = new StringBuilder();
+    boolean fieldStart = true;
+    while (true) {
+      if (fieldStart && peek() == '"') {
+        read();
+        while (true) {
+          final int c = read();
+          checkArgument(c != -1, "Unterminated quoted field: %s.", field);
+          checkArgument(c != '\r' && c != '\n', "Line break in quoted field: %s.", field);
+          if (c == '"') {
+            if (peek() != '"') {
+              break;
+            }
+            read();
+          }
+          field.append((char) c);
+        }
+      }
+      fieldStart = false;
+      final int c = read();
+      if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+        fieldStart = true;
+      } else if (c == -1 || c == '\n' || (c == '\r' && peek() == '\n')) {
+        if (c == '\r') {
+          read();
+        }
+        fields.add(field.toString());
+        return fields.build();
+      } else {
+        field.append((char) c);
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package io.github.oliviercailloux.publish;
 
+import com.google.common.base.Suppliers;
 import com.google.common.base.VerifyException;
 import com.thaiopensource.relaxng.jaxp.XMLSyntaxSchemaFactory;
 import io.github.oliviercailloux.docbook.DocBookResources;
@@ -8,29 +9,42 @@ import io.github.oliviercailloux.jaris.xml.SchemaHelper;
 import io.github.oliviercailloux.jaris.xml.XmlException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.function.Supplier;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Provides conformity checkers for DocBook documents.
+ * <p>
+ * A checker holds a compiled schema, which is immutable, and validates each document with a new
+ * validator; checkers can thus be shared across threads, which avoids compiling the schema again.
+ * </p>
+ */
 public class DocBookConformityChecker {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = LoggerFactory.getLogger(DocBookConformityChecker.class);
 
+  private static final Supplier<ConformityChecker> EMBEDDED = Suppliers.memoize(() -> {
+    try {
+      return cc(new XMLSyntaxSchemaFactory(), DocBookResources.RNG_5_1_URI);
+    } catch (XmlException e) {
+      throw new VerifyException(e);
+    }
+  });
+
   /**
    * Provides a DocBook conformity checker that uses the default factory and the embedded RNG 5.1
-   * DocBook schema.
+   * DocBook schema. The schema is compiled on the first call, and the same checker is returned by
+   * every call.
    *
    * @return a conformity checker
    * @see SchemaHelper
    * @see XMLSyntaxSchemaFactory
    */
   public static ConformityChecker usingEmbeddedSchema() {
-    try {
-      return cc(new XMLSyntaxSchemaFactory(), DocBookResources.RNG_5_1_URI);
-    } catch (XmlException e) {
-      throw new VerifyException(e);
-    }
+    return EMBEDDED.get();
   }
 
   static ConformityChecker cc(SchemaFactory schemaFactory, URI schemaSource) throws XmlException {
@@ -0,0 +1,562 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Strings;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import javax.xml.XMLConstants;
+import javax.xml.transform.sax.SAXSource;
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.Options;
+import org.asciidoctor.SafeMode;
+import org.asciidoctor.ast.Author;
+import org.asciidoctor.ast.Cell;
+import org.asciidoctor.ast.Column;
+import org.asciidoctor.ast.ContentNode;
+import org.asciidoctor.ast.DescriptionList;
+import org.asciidoctor.ast.DescriptionListEntry;
+import org.asciidoctor.ast.Document;
+import org.asciidoctor.ast.List;
+import org.asciidoctor.ast.ListItem;
+import org.asciidoctor.ast.PhraseNode;
+import org.asciidoctor.ast.Row;
+import org.asciidoctor.ast.Section;
+import org.asciidoctor.ast.StructuralNode;
+import org.asciidoctor.ast.Table;
+import org.asciidoctor.converter.ConverterFor;
+import org.asciidoctor.converter.StringConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * An Asciidoctor converter, written in Java, that walks the parsed AsciiDoc document and sends it
+ * as DocBook 5 SAX events to a content handler, instead of serializing it to a DocBook string that
+ * then has to be parsed again.
+ * <p>
+ * Block structure is emitted directly as events. Inline content (formatted text, links…) goes
+ * through the substitutions of Asciidoctor, which call this converter for each inline node: those
+ * return small DocBook fragments, that {@link InlineMarkup} then turns into events.
+ * </p>
+ * <p>
+ * The converter covers the blocks that the {@code docbook} backend supports for common documents
+ * (sections, paragraphs, lists, listings, tables, admonitions, images, examples, sidebars, quotes)
+ * and produces a similar structure, so that the DocBook stylesheets render both alike; other blocks
+ * are reported and their content is emitted, if any.
+ * </p>
+ * <p>
+ * Asciidoctor instantiates converters itself, so the handler is given to it through the converting
+ * thread: use {@link #convert(Asciidoctor, String, Path, ContentHandler)} or
+ * {@link #asSource(Asciidoctor, String, Path)} rather than converting with this backend directly.
+ * </p>
+ * <p>
+ * Several threads may convert concurrently (with the same Asciidoctor instance if it supports it),
+ * as each converting thread has its own handler. A converter instance is used by a single
+ * conversion.
+ * </p>
+ */
+@ConverterFor(DocBookSaxConverter.BACKEND)
+public class DocBookSaxConverter extends StringConverter {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocBookSaxConverter.class);
+
+  public static final String BACKEND = "docbook-sax";
+  public static final String DOCBOOK_NS = "http://docbook.org/ns/docbook";
+
+  /**
+   * The handler to send events to, and the first failure to report, for the current conversion.
+   */
+  private static class Context {
+    private final ContentHandler handler;
+    private Optional<SAXException> failure;
+
+    Context(ContentHandler handler) {
+      this.handler = checkNotNull(handler);
+      failure = Optional.empty();
+    }
+  }
+
+  private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<>();
+
+  /**
+   * Registers this converter in the given instance, for the {@link #BACKEND} backend.
+   *
+   * @param asciidoctor the instance
+   */
+  public static void register(Asciidoctor asciidoctor) {
+    asciidoctor.javaConverterRegistry().register(DocBookSaxConverter.class, BACKEND);
+  }
+
+  /**
+   * Converts the given AsciiDoc document to a standalone DocBook document, sent to the given
+   * handler. The converter must have been {@link #register(Asciidoctor) registered}.
+   *
+   * @param asciidoctor the instance in which this converter is registered
+   * @param adoc the AsciiDoc content
+   * @param baseDir the directory against which to resolve includes
+   * @param handler the handler to send the DocBook events to
+   * @throws SAXException iff the handler throws it
+   */
+  public static void convert(Asciidoctor asciidoctor, String adoc, Path baseDir,
+      ContentHandler handler) throws SAXException {
+    checkState(CONTEXT.get() == null, "Already converting in this thread.");
+    final Context context = new Context(handler);
+    CONTEXT.set(context);
+    try {
+      asciidoctor.convert(adoc, Options.builder().standalone(true).backend(BACKEND)
+          .baseDir(baseDir.toAbsolutePath().toFile()).safe(SafeMode.UNSAFE).build());
+    } finally {
+      CONTEXT.remove();
+    }
+    if (context.failure.isPresent()) {
+      throw context.failure.get();
+    }
+  }
+
+  /**
+   * Returns a source that converts the given AsciiDoc document each time it is read. The converter
+   * must have been {@link #register(Asciidoctor) registered}.
+   *
+   * @param asciidoctor the instance in which this converter is registered
+   * @param adoc the AsciiDoc content
+   * @param baseDir the directory against which to resolve includes
+   * @return a source of DocBook
+   */
+  public static SAXSource asSource(Asciidoctor asciidoctor, String adoc, Path baseDir) {
+    return SaxEmittingReader.source(handler -> convert(asciidoctor, adoc, baseDir, handler),
+        null);
+  }
+
+  public DocBookSaxConverter(String backend, Map<String, Object> opts) {
+    super(backend, opts);
+  }
+
+  @Override
+  public String convert(ContentNode node, String transform, Map<Object, Object> opts) {
+    final String name = transform == null ? node.getNodeName() : transform;
+    if (node instanceof PhraseNode phrase) {
+      return inline(phrase, name);
+    }
+    if (node instanceof Document document) {
+      final Context context = CONTEXT.get();
+      checkState(context != null, "No handler: convert through DocBookSaxConverter.convert.");
+      try {
+        new Events(context.handler).document(document);
+      } catch (SAXException e) {
+        context.failure = Optional.of(e);
+      }
+      return "";
+    }
+    LOGGER.warn("Unexpected conversion of {}.", name);
+    return "";
+  }
+
+  private static String inline(PhraseNode node, String name) {
+    final String text = Strings.nullToEmpty(node.getText());
+    return switch (name) {
+      case "inline_quoted" -> switch (Strings.nullToEmpty(node.getType())) {
+        case "strong" -> "<emphasis role=\"strong\">" + text + "</emphasis>";
+        case "emphasis" -> "<emphasis>" + text + "</emphasis>";
+        case "monospaced" -> "<literal>" + text + "</literal>";
+        case "superscript" -> "<superscript>" + text + "</superscript>";
+        case "subscript" -> "<subscript>" + text + "</subscript>";
+        case "double", "single" -> "<quote>" + text + "</quote>";
+        case "mark" -> "<emphasis role=\"marked\">" + text + "</emphasis>";
+        default -> text;
+      };
+      case "inline_anchor" -> switch (Strings.nullToEmpty(node.getType())) {
+        case "link" -> "<link xl:href=\"" + InlineMarkup.escape(node.getTarget()) + "\">" + text
+            + "</link>";
+        case "xref" -> {
+          final String refid = InlineMarkup.escape(String.valueOf(node.getAttribute("refid")));
+          yield text.isEmpty() ? "<xref linkend=\"" + refid + "\"/>"
+              : "<link linkend=\"" + refid + "\">" + text + "</link>";
+        }
+        case "ref", "bibref" -> "<anchor xml:id=\"" + InlineMarkup.escape(node.getId()) + "\"/>"
+            + (name.equals("bibref") ? "[" + text + "]" : "");
+        default -> text;
+      };
+      case "inline_footnote" -> "<footnote><simpara>" + text + "</simpara></footnote>";
+      case "inline_image" -> "<inlinemediaobject><imageobject><imagedata fileref=\""
+          + InlineMarkup.escape(node.getImageUri(node.getTarget()))
+          + "\"/></imageobject><textobject><phrase>"
+          + InlineMarkup.escape(String.valueOf(node.getAttribute("alt", "")))
+          + "</phrase></textobject></inlinemediaobject>";
+      case "inline_break" -> text;
+      case "inline_callout", "inline_indexterm" -> "";
+      default -> text;
+    };
+  }
+
+  /**
+   * Sends the events for the blocks of a document.
+   */
+  private static class Events {
+    private static final AttributesImpl NO_ATTRIBUTES = new AttributesImpl();
+
+    private final ContentHandler handler;
+    private boolean book;
+
+    Events(ContentHandler handler) {
+      this.handler = checkNotNull(handler);
+      book = false;
+    }
+
+    void document(Document document) throws SAXException {
+      book = "book".equals(document.getDoctype());
+      final String root = book ? "book" : "article";
+      handler.startDocument();
+      handler.startPrefixMapping("", DOCBOOK_NS);
+      handler.startPrefixMapping("xl", InlineMarkup.XLINK_NS);
+      final AttributesImpl rootAttributes = new AttributesImpl();
+      rootAttributes.addAttribute("", "version", "version", "CDATA", "5.0");
+      rootAttributes.addAttribute(XMLConstants.XML_NS_URI, "lang", "xml:lang", "CDATA",
+          String.valueOf(document.getAttribute("lang", "en")));
+      handler.startElement(DOCBOOK_NS, root, root, rootAttributes);
+
+      start("info");
+      if (document.getDoctitle() != null) {
+        element("title", document.getDoctitle());
+      }
+      for (Author author : document.getAuthors()) {
+        start("author");
+        start("personname");
+        if (author.getFirstName() != null && author.getLastName() != null) {
+          element("firstname", InlineMarkup.escape(author.getFirstName()));
+          element("surname", InlineMarkup.escape(author.getLastName()));
+        } else {
+          markup(InlineMarkup.escape(Strings.nullToEmpty(author.getFullName())));
+        }
+        end("personname");
+        end("author");
+      }
+      final Object date = document.getAttribute("revdate");
+      if (date != null) {
+        element("date", InlineMarkup.escape(date.toString()));
+      }
+      end("info");
+
+      blocks(document);
+      end(root);
+      handler.endPrefixMapping("xl");
+      handler.endPrefixMapping("");
+      handler.endDocument();
+    }
+
+    private void blocks(StructuralNode parent) throws SAXException {
+      for (StructuralNode block : parent.getBlocks()) {
+        block(block);
+      }
+    }
+
+    private void block(StructuralNode node) throws SAXException {
+      switch (node.getContext()) {
+        case "section" -> section((Section) node);
+        case "preamble", "open" -> blocks(node);
+        case "paragraph" -> paragraph(node);
+        case "ulist" -> list((List) node, "itemizedlist");
+        case "olist", "colist" -> list((List) node, "orderedlist");
+        case "dlist" -> descriptionList((DescriptionList) node);
+        case "listing" -> titled(node, ids -> {
+          if ("source".equals(node.getStyle()) && node.getAttribute("language") != null) {
+            element("programlisting", content(node), ids, "language",
+                node.getAttribute("language").toString(), "linenumbering", "unnumbered");
+          } else {
+            element("screen", content(node), ids);
+          }
+        });
+        case "literal" -> titled(node,
+            ids -> element("literallayout", content(node), ids, "class", "monospaced"));
+        case "table" -> table((Table) node);
+        case "admonition" -> {
+          final String name = String.valueOf(node.getAttribute("name", "note"));
+          start(name, idAttributes(node));
+          title(node);
+          simpleOrCompound(node);
+          end(name);
+        }
+        case "example" -> wrapped(node, "example", "informalexample");
+        case "sidebar" -> {
+          start("sidebar", idAttributes(node));
+          title(node);
+          simpleOrCompound(node);
+          end("sidebar");
+        }
+        case "quote", "verse" -> {
+          start("blockquote", idAttributes(node));
+          title(node);
+          final Object attribution = node.getAttribute("attribution");
+          if (attribution != null) {
+            element("attribution", InlineMarkup.escape(attribution.toString()));
+          }
+          if (node.getContext().equals("verse")) {
+            element("literallayout", content(node));
+          } else {
+            simpleOrCompound(node);
+          }
+          end("blockquote");
+        }
+        case "image" -> image(node);
+        case "floating_title" -> element("bridgehead", node.getTitle());
+        case "page_break" -> handler.processingInstruction("asciidoc-pagebreak", "");
+        case "pass" -> markup(content(node));
+        case "thematic_break", "toc" -> {
+          /* Nothing to emit. */
+        }
+        default -> {
+          LOGGER.warn("Unsupported block {}, emitting its content only.", node.getContext());
+          blocks(node);
+        }
+      }
+    }
+
+    private void section(Section section) throws SAXException {
+      final String name = switch (Strings.nullToEmpty(section.getSectionName())) {
+        case "chapter", "appendix", "preface", "part" -> section.getSectionName();
+        default -> "section";
+      };
+      start(name, idAttributes(section));
+      element("title", section.getTitle());
+      blocks(section);
+      end(name);
+    }
+
+    private void list(List list, String name) throws SAXException {
+      start(name, idAttributes(list));
+      title(list);
+      for (StructuralNode item : list.getItems()) {
+        listItem((ListItem) item);
+      }
+      end(name);
+    }
+
+    private void listItem(ListItem item) throws SAXException {
+      start("listitem", idAttributes(item));
+      if (item.hasText()) {
+        element("simpara", item.getText());
+      }
+      blocks(item);
+      end("listitem");
+    }
+
+    private void descriptionList(DescriptionList list) throws SAXException {
+      start("variablelist", idAttributes(list));
+      title(list);
+      for (DescriptionListEntry entry : list.getItems()) {
+        start("varlistentry");
+        for (ListItem term : entry.getTerms()) {
+          element("term", term.getText());
+        }
+        final ListItem description = entry.getDescription();
+        if (description == null) {
+          start("listitem");
+          element("simpara", "");
+          end("listitem");
+        } else {
+          listItem(description);
+        }
+        end("varlistentry");
+      }
+      end("variablelist");
+    }
+
+    private void table(Table table) throws SAXException {
+      final boolean titled = table.getTitle() != null;
+      final String name = titled ? "table" : "informaltable";
+      start(name, attributes(idAttributes(table), "frame", "all", "rowsep", "1", "colsep", "1"));
+      title(table);
+      final int columns = table.getColumns().size();
+      start("tgroup", attributes(NO_ATTRIBUTES, "cols", String.valueOf(columns)));
+      int number = 0;
+      for (Column column : table.getColumns()) {
+        ++number;
+        emptyElement("colspec", "colname", "col_" + number, "colwidth",
+            column.getWidth() + "*");
+      }
+      rows("thead", table.getHeader());
+      rows("tfoot", table.getFooter());
+      rows("tbody", table.getBody());
+      end("tgroup");
+      end(name);
+    }
+
+    private void rows(String name, java.util.List<Row> rows) throws SAXException {
+      if (rows.isEmpty()) {
+        return;
+      }
+      start(name);
+      for (Row row : rows) {
+        start("row");
+        for (Cell cell : row.getCells()) {
+          start("entry");
+          if ("asciidoc".equals(cell.getStyle())) {
+            blocks(cell.getInnerDocument());
+          } else if (name.equals("tbody")) {
+            element("simpara", cell.getText());
+          } else {
+            markup(cell.getText());
+          }
+          end("entry");
+        }
+        end("row");
+      }
+      end(name);
+    }
+
+    private void image(StructuralNode node) throws SAXException {
+      final boolean titled = node.getTitle() != null;
+      final String name = titled ? "figure" : "informalfigure";
+      start(name, idAttributes(node));
+      title(node);
+      start("mediaobject");
+      start("imageobject");
+      final String target = String.valueOf(node.getAttribute("target"));
+      final AttributesImpl imageAttributes =
+          attributes(NO_ATTRIBUTES, "fileref", node.getImageUri(target));
+      final Object width = node.getAttribute("width");
+      if (width != null) {
+        imageAttributes.addAttribute("", "contentwidth", "contentwidth", "CDATA",
+            width.toString());
+      }
+      handler.startElement(DOCBOOK_NS, "imagedata", "imagedata", imageAttributes);
+      handler.endElement(DOCBOOK_NS, "imagedata", "imagedata");
+      end("imageobject");
+      start("textobject");
+      element("phrase", InlineMarkup.escape(String.valueOf(node.getAttribute("alt", ""))));
+      end("textobject");
+      end("mediaobject");
+      end(name);
+    }
+
+    private void wrapped(StructuralNode node, String titledName, String untitledName)
+        throws SAXException {
+      final String name = node.getTitle() != null ? titledName : untitledName;
+      start(name, idAttributes(node));
+      title(node);
+      simpleOrCompound(node);
+      end(name);
+    }
+
+    private void simpleOrCompound(StructuralNode node) throws SAXException {
+      if (node.getBlocks().isEmpty()) {
+        element("simpara", content(node));
+      } else {
+        blocks(node);
+      }
+    }
+
+    /**
+     * Emits a {@code simpara}, or, if the node has a title, a {@code formalpara} whose {@code para}
+     * contains the inline content directly.
+     */
+    private void paragraph(StructuralNode node) throws SAXException {
+      if (node.getTitle() == null) {
+        element("simpara", content(node), idAttributes(node));
+        return;
+      }
+      start("formalpara", idAttributes(node));
+      element("title", node.getTitle());
+      element("para", content(node));
+      end("formalpara");
+    }
+
+    /**
+     * Emits a block element, given the attributes that it must have in addition to its own ones.
+     */
+    @FunctionalInterface
+    private static interface Body {
+      void emit(AttributesImpl ids) throws SAXException;
+    }
+
+    /**
+     * Emits the body, wrapped in a {@code formalpara} with the title of the node if it has one, in
+     * which case the id goes to the {@code formalpara}, or with the id on the body element
+     * otherwise, as the {@code docbook5} backend does.
+     */
+    private void titled(StructuralNode node, Body body) throws SAXException {
+      if (node.getTitle() == null) {
+        body.emit(idAttributes(node));
+        return;
+      }
+      start("formalpara", idAttributes(node));
+      element("title", node.getTitle());
+      start("para");
+      body.emit(NO_ATTRIBUTES);
+      end("para");
+      end("formalpara");
+    }
+
+    private void title(StructuralNode node) throws SAXException {
+      if (node.getTitle() != null) {
+        element("title", node.getTitle());
+      }
+    }
+
+    private static String content(StructuralNode node) {
+      final Object content = node.getContent();
+      return content == null ? "" : content.toString();
+    }
+
+    private static AttributesImpl idAttributes(StructuralNode node) {
+      final AttributesImpl attributes = new AttributesImpl();
+      if (node.getId() != null) {
+        attributes.addAttribute(XMLConstants.XML_NS_URI, "id", "xml:id", "CDATA", node.getId());
+      }
+      return attributes;
+    }
+
+    private static AttributesImpl attributes(AttributesImpl base, String... namesAndValues) {
+      final AttributesImpl attributes = new AttributesImpl(base);
+      for (int i = 0; i < namesAndValues.length; i += 2) {
+        attributes.addAttribute("", namesAndValues[i], namesAndValues[i], "CDATA",
+            namesAndValues[i + 1]);
+      }
+      return attributes;
+    }
+
+    private void start(String name) throws SAXException {
+      start(name, NO_ATTRIBUTES);
+    }
+
+    private void start(String name, AttributesImpl attributes) throws SAXException {
+      handler.startElement(DOCBOOK_NS, name, name, attributes);
+    }
+
+    private void end(String name) throws SAXException {
+      handler.endElement(DOCBOOK_NS, name, name);
+    }
+
+    private void markup(String fragment) throws SAXException {
+      InlineMarkup.emit(fragment, handler);
+    }
+
+    /**
+     * Emits an element whose content is the given inline markup.
+     */
+    private void element(String name, String fragment, String... namesAndValues)
+        throws SAXException {
+      element(name, fragment, NO_ATTRIBUTES, namesAndValues);
+    }
+
+    /**
+     * Emits an element whose content is the given inline markup, with the given attributes and the
+     * given other ones.
+     */
+    private void element(String name, String fragment, AttributesImpl base,
+        String... namesAndValues) throws SAXException {
+      start(name, attributes(base, namesAndValues));
+      markup(fragment);
+      end(name);
+    }
+
+    private void emptyElement(String name, String... namesAndValues) throws SAXException {
+      start(name, attributes(NO_ATTRIBUTES, namesAndValues));
+      end(name);
+    }
+  }
+}
@@ -0,0 +1,378 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.xml.XMLConstants;
+import javax.xml.transform.sax.SAXSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Writes a DocBook 5 article with the same methods as {@link AsciidocWriter}, so that documents
+ * generated programmatically can go to the DocBook to FO stage as SAX events, without the
+ * Asciidoctor runtime and without being parsed.
+ * <p>
+ * Unlike with {@link AsciidocWriter}, the texts given to this writer are plain texts, not markup:
+ * they appear in the document exactly as given, and {@link #verbatim(String)} is thus equivalent to
+ * {@link #append(String)}. As with AsciiDoc, appended lines accumulate into a paragraph, which
+ * {@link #eol()}, {@link #paragraph(String)} or any other block terminates. Level 1 titles give the
+ * title of the document; higher levels open nested sections.
+ * </p>
+ * <p>
+ * The writer records the operations and replays them each time its content is requested, thus the
+ * document can be emitted several times. Attributes that correspond to DocBook information
+ * ({@code lang}, {@code author}, {@code revdate}) are emitted as such; others are ignored.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class DocBookWriter {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocBookWriter.class);
+
+  private static final String NS = DocBookSaxConverter.DOCBOOK_NS;
+
+  @FunctionalInterface
+  private static interface Operation {
+    void replay(Emission emission) throws SAXException;
+  }
+
+  private Optional<String> title;
+  private final Map<String, String> attributes;
+  private final List<Operation> operations;
+
+  public DocBookWriter() {
+    title = Optional.empty();
+    attributes = new LinkedHashMap<>();
+    operations = new ArrayList<>();
+  }
+
+  public void title(int level, String title) {
+    checkArgument(level >= 1);
+    checkNotNull(title);
+    if (level == 1) {
+      this.title = Optional.of(title);
+    } else {
+      operations.add(e -> e.section(level, title));
+    }
+  }
+
+  public void addAttribute(String attribute, String value) {
+    attributes.put(attribute, value);
+  }
+
+  public void h1(String title) {
+    title(1, title);
+  }
+
+  public void h2(String title) {
+    title(2, title);
+  }
+
+  public void h3(String title) {
+    title(3, title);
+  }
+
+  public void h4(String title) {
+    title(4, title);
+  }
+
+  public void h5(String title) {
+    title(5, title);
+  }
+
+  public void append(String text) {
+    final String replaced = text.replace("\r\n", "\n");
+    checkArgument(!replaced.contains("\r"));
+    operations.add(e -> e.append(replaced));
+  }
+
+  public void paragraph(String text) {
+    append(text);
+    operations.add(Emission::endParagraph);
+  }
+
+  public void paragraph(Optional<String> text) {
+    if (text.isPresent()) {
+      paragraph(text.get());
+    }
+  }
+
+  public void list(List<String> items) {
+    final ImmutableList<String> copy = ImmutableList.copyOf(items);
+    operations.add(e -> e.list(copy));
+  }
+
+  /**
+   * Adds a table.
+   *
+   * @param cols the AsciiDoc column specification, whose relative widths (such as {@code 1,2}) are
+   *        used if given
+   * @param headers the header cells, possibly empty
+   * @param rows the rows
+   */
+  public void table(String cols, List<String> headers, List<? extends List<String>> rows) {
+    final int longestLength = Streams.concat(Stream.of(headers), rows.stream()).map(r -> r.size())
+        .max(Comparator.naturalOrder()).orElseThrow();
+    final ImmutableList<String> widths = widths(cols, longestLength);
+    final ImmutableList<String> headersCopy = ImmutableList.copyOf(headers);
+    final ImmutableList<ImmutableList<String>> rowsCopy =
+        rows.stream().map(ImmutableList::copyOf).collect(ImmutableList.toImmutableList());
+    operations.add(e -> e.table(widths, headersCopy, rowsCopy, longestLength));
+  }
+
+  static ImmutableList<String> widths(String cols, int count) {
+    final String[] specs = cols.split(",");
+    final ImmutableList.Builder<String> widths = ImmutableList.builder();
+    for (int i = 0; i < count; ++i) {
+      final String digits =
+          i < specs.length ? specs[i].strip().replaceAll("^[^0-9]*([0-9]*).*$", "$1") : "";
+      widths.add((digits.isEmpty() || specs.length != count ? "1" : digits) + "*");
+    }
+    return widths.build();
+  }
+
+  public void eol() {
+    operations.add(Emission::endParagraph);
+  }
+
+  public void verbatim(String text) {
+    append(text);
+  }
+
+  /**
+   * Sends the document to the given handler.
+   *
+   * @param handler the handler
+   * @throws SAXException iff the handler throws it
+   */
+  public void writeTo(ContentHandler handler) throws SAXException {
+    final Emission emission = new Emission(handler);
+    emission.startDocument(title, attributes);
+    for (Operation operation : operations) {
+      operation.replay(emission);
+    }
+    emission.endDocument();
+  }
+
+  /**
+   * Returns a source of the document, that can be read as many times as wished, and that reflects
+   * the operations done on this writer until it is read.
+   *
+   * @return a source
+   */
+  public SAXSource asSource() {
+    return SaxEmittingReader.source(this::writeTo, null);
+  }
+
+  /**
+   * The state of one replay.
+   */
+  private static class Emission {
+    private static final AttributesImpl NO_ATTRIBUTES = new AttributesImpl();
+
+    private final ContentHandler handler;
+    /**
+     * The levels of the open sections, innermost first.
+     */
+    private final Deque<Integer> sections;
+    /**
+     * Whether the innermost open section (or the article) has some block.
+     */
+    private boolean hasBlock;
+    /**
+     * The lines of the current paragraph.
+     */
+    private final StringBuilder paragraph;
+
+    Emission(ContentHandler handler) {
+      this.handler = checkNotNull(handler);
+      sections = new ArrayDeque<>();
+      hasBlock = false;
+      paragraph = new StringBuilder();
+    }
+
+    void startDocument(Optional<String> title, Map<String, String> attributes)
+        throws SAXException {
+      handler.startDocument();
+      handler.startPrefixMapping("", NS);
+      final AttributesImpl rootAttributes = new AttributesImpl();
+      rootAttributes.addAttribute("", "version", "version", "CDATA", "5.0");
+      rootAttributes.addAttribute(XMLConstants.XML_NS_URI, "lang", "xml:lang", "CDATA",
+          attributes.getOrDefault("lang", "en"));
+      handler.startElement(NS, "article", "article", rootAttributes);
+      if (title.isPresent() || attributes.containsKey("author")
+          || attributes.containsKey("revdate")) {
+        start("info");
+        if (title.isPresent()) {
+          text("title", title.get());
+        }
+        if (attributes.containsKey("author")) {
+          start("author");
+          text("personname", attributes.get("author"));
+          end("author");
+        }
+        if (attributes.containsKey("revdate")) {
+          text("date", attributes.get("revdate"));
+        }
+        end("info");
+      }
+    }
+
+    void endDocument() throws SAXException {
+      endParagraph();
+      while (!sections.isEmpty()) {
+        closeSection();
+      }
+      ensureBlock();
+      end("article");
+      handler.endPrefixMapping("");
+      handler.endDocument();
+    }
+
+    void section(int level, String title) throws SAXException {
+      endParagraph();
+      while (!sections.isEmpty() && sections.peek() >= level) {
+        closeSection();
+      }
+      start("section");
+      text("title", title);
+      sections.push(level);
+      hasBlock = false;
+    }
+
+    private void closeSection() throws SAXException {
+      ensureBlock();
+      sections.pop();
+      end("section");
+      /* The parent now has a section, which is enough content. */
+      hasBlock = true;
+    }
+
+    private void ensureBlock() throws SAXException {
+      if (!hasBlock) {
+        text("simpara", "");
+      }
+    }
+
+    void append(String text) {
+      if (paragraph.length() > 0) {
+        paragraph.append('\n');
+      }
+      paragraph.append(text.endsWith("\n") ? text.substring(0, text.length() - 1) : text);
+    }
+
+    void endParagraph() throws SAXException {
+      if (paragraph.length() > 0) {
+        block();
+        text("simpara", paragraph.toString());
+        paragraph.setLength(0);
+      }
+    }
+
+    void list(List<String> items) throws SAXException {
+      endParagraph();
+      block();
+      start("itemizedlist");
+      for (String item : items) {
+        start("listitem");
+        text("simpara", item);
+        end("listitem");
+      }
+      end("itemizedlist");
+    }
+
+    void table(List<String> widths, List<String> headers, List<? extends List<String>> rows,
+        int columns) throws SAXException {
+      endParagraph();
+      block();
+      final AttributesImpl tableAttributes = attributes("frame", "all", "rowsep", "1", "colsep",
+          "1");
+      handler.startElement(NS, "informaltable", "informaltable", tableAttributes);
+      handler.startElement(NS, "tgroup", "tgroup", attributes("cols", String.valueOf(columns)));
+      for (int i = 0; i < columns; ++i) {
+        handler.startElement(NS, "colspec", "colspec",
+            attributes("colname", "col_" + (i + 1), "colwidth", widths.get(i)));
+        end("colspec");
+      }
+      if (!headers.isEmpty()) {
+        start("thead");
+        row(headers, columns, false);
+        end("thead");
+      }
+      start("tbody");
+      for (List<String> row : rows) {
+        row(row, columns, true);
+      }
+      end("tbody");
+      end("tgroup");
+      end("informaltable");
+    }
+
+    private void row(List<String> cells, int columns, boolean paragraphs) throws SAXException {
+      start("row");
+      for (int i = 0; i < columns; ++i) {
+        final String cell = i < cells.size() ? cells.get(i) : "";
+        if (paragraphs) {
+          start("entry");
+          text("simpara", cell);
+          end("entry");
+        } else {
+          text("entry", cell);
+        }
+      }
+      end("row");
+    }
+
+    private void block() {
+      hasBlock = true;
+    }
+
+    private static AttributesImpl attributes(String... namesAndValues) {
+      final AttributesImpl attributes = new AttributesImpl();
+      for (int i = 0; i < namesAndValues.length; i += 2) {
+        attributes.addAttribute("", namesAndValues[i], namesAndValues[i], "CDATA",
+            namesAndValues[i + 1]);
+      }
+      return attributes;
+    }
+
+    private void start(String name) throws SAXException {
+      handler.startElement(NS, name, name, NO_ATTRIBUTES);
+    }
+
+    private void end(String name) throws SAXException {
+      handler.endElement(NS, name, name);
+    }
+
+    private void text(String name, String text) throws SAXException {
+      start(name);
+      final char[] chars = text.toCharArray();
+      handler.characters(chars, 0, chars.length);
+      end(name);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("title", title).add("attributes", attributes)
+        .add("operations", operations.size()).toString();
+  }
+}
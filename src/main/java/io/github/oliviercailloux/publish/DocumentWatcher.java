@@ -0,0 +1,303 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.MoreFiles;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.xml.transform.TransformerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a directory and re-renders to PDF the AsciiDoc documents it contains when they change,
+ * using a long-lived renderer (typically backed by an {@link AsciidocToPdf} pipeline) so that its
+ * caches stay warm across renderings.
+ * <p>
+ * Changes are debounced: a burst of changes (as editors produce when saving) triggers a single
+ * rendering, once no further change happened during the debounce delay. The documents are the
+ * AsciiDoc files of the directory that no other one includes (with an {@code include::} directive
+ * whose target is a plain path); the others are partials, which are not rendered on their own. A
+ * change to an AsciiDoc file re-renders the documents that include it, directly or not, or itself
+ * if it is a document; a change to any other file (an image, a data file…) re-renders all
+ * documents of the directory. Each PDF, named after its document, is written next to it
+ * atomically (see {@link AtomicFiles}), so that viewers never see a partially written file.
+ * Sub-directories are not watched.
+ * </p>
+ * <p>
+ * Rendering failures are logged and do not stop the watch.
+ * </p>
+ * <p>
+ * A watcher is run by a single thread; any thread may close it.
+ * </p>
+ */
+public class DocumentWatcher implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentWatcher.class);
+
+  public static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(200);
+
+  /**
+   * An include directive whose target contains no attribute reference, which could not be
+   * resolved here.
+   */
+  private static final Pattern INCLUDE =
+      Pattern.compile("^include::([^\\[{]+)\\[.*\\]\\s*$", Pattern.MULTILINE);
+
+  /**
+   * Renders an AsciiDoc document to PDF.
+   */
+  @FunctionalInterface
+  public static interface DocumentRenderer {
+    void render(Path adoc, OutputStream pdf) throws XmlException, IOException;
+  }
+
+  /**
+   * Returns a renderer that reads the document and renders it with the given pipeline, resolving
+   * resources against the directory of the document.
+   *
+   * @param pipeline the pipeline
+   * @return a renderer
+   */
+  public static DocumentRenderer using(AsciidocToPdf pipeline) {
+    return (adoc, pdf) -> pipeline.render(Files.readString(adoc),
+        adoc.toAbsolutePath().getParent(), pdf);
+  }
+
+  /**
+   * Starts watching the given directory.
+   *
+   * @param directory the directory to watch
+   * @param renderer the renderer
+   * @param debounce how long to wait for further changes before rendering
+   * @return a watcher, whose {@link #run()} method processes the changes
+   * @throws IOException iff registering the watch fails
+   */
+  public static DocumentWatcher watching(Path directory, DocumentRenderer renderer,
+      Duration debounce) throws IOException {
+    checkArgument(Files.isDirectory(directory));
+    checkArgument(!debounce.isNegative());
+    final WatchService watchService = directory.getFileSystem().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    return new DocumentWatcher(directory, renderer, debounce, watchService);
+  }
+
+  /**
+   * Watches the given directory, rendering with the Xalan factory and the default DocBook FO
+   * stylesheet, until the process is stopped.
+   *
+   * @param args the directory to watch
+   * @throws Exception iff watching fails
+   */
+  public static void main(String[] args) throws Exception {
+    checkArgument(args.length == 1, "Usage: directory");
+    final TransformerFactory factory = KnownFactory.XALAN.factory();
+    factory.setURIResolver(CachingUriResolver.docBook());
+    try (AsciidocToPdf pipeline = AsciidocToPdf.using(factory, DocBookResources.XSLT_1_FO_URI);
+        DocumentWatcher watcher =
+            watching(Path.of(args[0]), using(pipeline), DEFAULT_DEBOUNCE)) {
+      LOGGER.info("Watching {}.", args[0]);
+      watcher.run();
+    }
+  }
+
+  static boolean isDocument(Path path) {
+    return MoreFiles.getFileExtension(path).equals("adoc");
+  }
+
+  /**
+   * Returns the files that the given AsciiDoc file directly includes, or none if it can’t be read.
+   */
+  static ImmutableSet<Path> includes(Path adoc) {
+    final String content;
+    try {
+      content = Files.readString(adoc);
+    } catch (IOException e) {
+      LOGGER.debug("Could not read {}, assuming it includes nothing.", adoc, e);
+      return ImmutableSet.of();
+    }
+    final Matcher matcher = INCLUDE.matcher(content);
+    final ImmutableSet.Builder<Path> includes = ImmutableSet.builder();
+    while (matcher.find()) {
+      try {
+        includes.add(normalized(adoc.resolveSibling(matcher.group(1).strip())));
+      } catch (InvalidPathException e) {
+        LOGGER.debug("Ignoring include of {} in {}.", matcher.group(1), adoc, e);
+      }
+    }
+    return includes.build();
+  }
+
+  private static Path normalized(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+
+  static Path pdfOf(Path adoc) {
+    return adoc.resolveSibling(MoreFiles.getNameWithoutExtension(adoc) + ".pdf");
+  }
+
+  private static boolean isOutput(Path path) {
+    final String name = path.getFileName().toString();
+    return name.startsWith(".") || MoreFiles.getFileExtension(path).equals("pdf");
+  }
+
+  private final Path directory;
+  private final DocumentRenderer renderer;
+  private final Duration debounce;
+  private final WatchService watchService;
+
+  private DocumentWatcher(Path directory, DocumentRenderer renderer, Duration debounce,
+      WatchService watchService) {
+    this.directory = checkNotNull(directory);
+    this.renderer = checkNotNull(renderer);
+    this.debounce = checkNotNull(debounce);
+    this.watchService = checkNotNull(watchService);
+  }
+
+  /**
+   * Renders the documents whose PDF is missing or older than the document, then processes changes
+   * until this watcher is closed (from another thread).
+   *
+   * @throws IOException iff listing the directory fails
+   * @throws InterruptedException iff interrupted while waiting for changes
+   */
+  public void run() throws IOException, InterruptedException {
+    for (Path adoc : documents()) {
+      final Path pdf = pdfOf(adoc);
+      if (!Files.exists(pdf)
+          || Files.getLastModifiedTime(pdf).compareTo(Files.getLastModifiedTime(adoc)) < 0) {
+        render(adoc);
+      }
+    }
+
+    final Set<Path> pending = new LinkedHashSet<>();
+    boolean all = false;
+    try {
+      while (true) {
+        final WatchKey key = pending.isEmpty() && !all ? watchService.take()
+            : watchService.poll(debounce.toNanos(), TimeUnit.NANOSECONDS);
+        if (key == null) {
+          final ImmutableSet<Path> toRender = all ? documents() : affected(pending);
+          LOGGER.debug("Quiet for {}, rendering {}.", debounce, toRender);
+          pending.clear();
+          all = false;
+          for (Path adoc : toRender) {
+            render(adoc);
+          }
+          continue;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            all = true;
+            continue;
+          }
+          final Path changed = normalized(directory.resolve((Path) event.context()));
+          if (isDocument(changed)) {
+            /* A deleted partial still affects the documents that include it. */
+            pending.add(changed);
+          } else if (!isOutput(changed)) {
+            all = true;
+          }
+        }
+        key.reset();
+      }
+    } catch (ClosedWatchServiceException e) {
+      LOGGER.debug("Watch closed.");
+    }
+  }
+
+  /**
+   * Returns the AsciiDoc files of the directory, each with the files it directly includes.
+   */
+  private ImmutableMap<Path, ImmutableSet<Path>> includeGraph() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(DocumentWatcher::isDocument).filter(Files::isRegularFile)
+          .map(DocumentWatcher::normalized)
+          .collect(ImmutableMap.toImmutableMap(p -> p, DocumentWatcher::includes));
+    }
+  }
+
+  private static ImmutableSet<Path> roots(ImmutableMap<Path, ImmutableSet<Path>> graph) {
+    final ImmutableSet<Path> included = graph.values().stream().flatMap(Set::stream)
+        .collect(ImmutableSet.toImmutableSet());
+    return graph.keySet().stream().filter(p -> !included.contains(p))
+        .collect(ImmutableSet.toImmutableSet());
+  }
+
+  /**
+   * Returns the documents of the directory, that is, its AsciiDoc files that no other one
+   * includes.
+   */
+  private ImmutableSet<Path> documents() throws IOException {
+    return roots(includeGraph());
+  }
+
+  /**
+   * Returns the documents that are among, or include (directly or not), the given AsciiDoc files.
+   */
+  private ImmutableSet<Path> affected(Set<Path> changed) throws IOException {
+    final ImmutableMap<Path, ImmutableSet<Path>> graph = includeGraph();
+    final ImmutableSet.Builder<Path> affected = ImmutableSet.builder();
+    for (Path root : roots(graph)) {
+      final Set<Path> reached = new LinkedHashSet<>();
+      final Deque<Path> toVisit = new ArrayDeque<>(ImmutableSet.of(root));
+      while (!toVisit.isEmpty()) {
+        final Path visited = toVisit.pop();
+        if (reached.add(visited)) {
+          toVisit.addAll(graph.getOrDefault(visited, ImmutableSet.of()));
+        }
+      }
+      if (reached.stream().anyMatch(changed::contains)) {
+        affected.add(root);
+      }
+    }
+    return affected.build();
+  }
+
+  private void render(Path adoc) {
+    if (!Files.exists(adoc)) {
+      return;
+    }
+    final long start = System.nanoTime();
+    try {
+      AtomicFiles.publish(pdfOf(adoc), out -> renderer.render(adoc, out));
+      LOGGER.info("Rendered {} in {} ms.", adoc,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException | RuntimeException e) {
+      /*
+       * Including XmlException, which is unchecked, and VerifyException, when the document is
+       * invalid, as is common while editing.
+       */
+      LOGGER.error("Failed rendering " + adoc + ".", e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+}
@@ -0,0 +1,399 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import io.github.oliviercailloux.jaris.xml.XmlTransformer;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * Chooses, per stylesheet and per input size, the XSLT engine that has proven fastest, by
+ * measuring the compilation and transformation times of each engine as documents get transformed.
+ * <p>
+ * Engines differ widely: Xalan compiles the DocBook stylesheets about 2.5 times faster than Saxon,
+ * whereas Saxon may transform large documents faster, and the JDK engine can’t compile them at all.
+ * A selector explores each candidate engine once per stylesheet and input size bucket (inputs are
+ * grouped by powers of two of their size, from 64 KiB), then uses the engine with the lowest
+ * expected cost: its mean transformation time for the bucket, plus, if the stylesheet is not yet
+ * compiled with that engine, its compilation time divided by the number of documents that the
+ * caller expects to transform.
+ * </p>
+ * <p>
+ * An engine that fails to compile a stylesheet is excluded for that stylesheet during
+ * {@value #FAILURE_EXPIRY_SECONDS} seconds, and the next best engine is used instead,
+ * transparently; as the failure may be transient (a stylesheet being edited, a resolver error),
+ * the engine is tried again afterwards, and failures are not persisted. The JDK engine is known to
+ * fail on the DocBook stylesheets and is thus excluded from the start for them. Failures during
+ * transformation are reported to the caller and do not exclude the engine, as they are usually due
+ * to the document.
+ * </p>
+ * <p>
+ * The statistics can be persisted in a properties file, so that a new process starts with the
+ * knowledge of the previous ones. The file is written at most every {@value #SAVE_INTERVAL_SECONDS}
+ * seconds, outside the lock that transformations take, and when the selector is closed.
+ * Transformation times are measured on the whole call, and thus include the time spent by the
+ * consumer of the result (such as FOP), which is the same whatever the engine.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ */
+public class EngineSelector implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(EngineSelector.class);
+
+  private static final ImmutableSet<String> FAILING_WITH_JDK = ImmutableSet
+      .of(DocBookResources.XSLT_1_FO_URI.toString(), DocBookResources.XSLT_1_HTML_URI.toString());
+
+  /**
+   * The number of measures over which the mean is computed; older measures weigh less and less so
+   * that the statistics follow changes of the environment.
+   */
+  private static final int WINDOW = 20;
+
+  private static final int SMALLEST_BUCKET_BITS = 16;
+
+  private static final int FAILURE_EXPIRY_SECONDS = 60;
+
+  private static final int SAVE_INTERVAL_SECONDS = 10;
+
+  /**
+   * The prefix of the failure entries that earlier versions persisted, ignored when loading.
+   */
+  private static final String FAILED_PREFIX = "failed.";
+
+  /**
+   * Returns a selector among the given engines, that does not persist its statistics.
+   *
+   * @param candidates the engines to choose from
+   * @param resolver the URI resolver to give to the factories, able to resolve the stylesheets and
+   *        their imports
+   * @return a selector
+   */
+  public static EngineSelector inMemory(Set<KnownFactory> candidates, URIResolver resolver) {
+    return new EngineSelector(candidates, resolver, Optional.empty(), new Properties());
+  }
+
+  /**
+   * Returns a selector among the given engines, that starts with the statistics found in the given
+   * file, if it exists, and updates the file periodically and when closed.
+   *
+   * @param candidates the engines to choose from
+   * @param resolver the URI resolver to give to the factories, able to resolve the stylesheets and
+   *        their imports
+   * @param statistics the properties file
+   * @return a selector
+   * @throws IOException iff the file exists and reading it fails
+   */
+  public static EngineSelector persistedIn(Set<KnownFactory> candidates, URIResolver resolver,
+      Path statistics) throws IOException {
+    final Properties properties = new Properties();
+    if (Files.exists(statistics)) {
+      try (InputStream in = Files.newInputStream(statistics)) {
+        properties.load(in);
+      }
+      properties.keySet().removeIf(k -> k.toString().startsWith(FAILED_PREFIX));
+    }
+    return new EngineSelector(candidates, resolver, Optional.of(statistics), properties);
+  }
+
+  static int bucket(long size) {
+    return Long.SIZE - Long.numberOfLeadingZeros(size >> SMALLEST_BUCKET_BITS);
+  }
+
+  private static record Stat(long count, double meanNanos) {
+    static Optional<Stat> parse(String value) {
+      if (value == null) {
+        return Optional.empty();
+      }
+      final String[] parts = value.split(",");
+      return Optional.of(new Stat(Long.parseLong(parts[0]), Double.parseDouble(parts[1])));
+    }
+
+    static Stat of(long nanos) {
+      return new Stat(1, nanos);
+    }
+
+    Stat plus(long nanos) {
+      final long weight = Math.min(count, WINDOW - 1);
+      return new Stat(count + 1, (meanNanos * weight + nanos) / (weight + 1));
+    }
+
+    String format() {
+      return count + "," + Math.round(meanNanos);
+    }
+  }
+
+  private final ImmutableSet<KnownFactory> candidates;
+  private final URIResolver resolver;
+  private final Optional<Path> statisticsFile;
+  private final Properties statistics;
+  /**
+   * The engines that recently failed compiling a stylesheet, by failure key.
+   */
+  private final Cache<String, Boolean> failures;
+  /**
+   * The version of the statistics, incremented at each change.
+   */
+  private long version;
+  private long savedVersion;
+  private long lastSaveNanos;
+  /**
+   * Guards writing the file and {@link #writtenVersion}, so that an older snapshot never overwrites
+   * a newer one.
+   */
+  private final Object fileLock;
+  private long writtenVersion;
+
+  private EngineSelector(Set<KnownFactory> candidates, URIResolver resolver,
+      Optional<Path> statisticsFile, Properties statistics) {
+    checkArgument(!candidates.isEmpty());
+    this.candidates = ImmutableSet.copyOf(candidates);
+    this.resolver = checkNotNull(resolver);
+    this.statisticsFile = checkNotNull(statisticsFile);
+    this.statistics = checkNotNull(statistics);
+    failures = CacheBuilder.newBuilder()
+        .expireAfterWrite(Duration.ofSeconds(FAILURE_EXPIRY_SECONDS)).build();
+    version = 0;
+    savedVersion = 0;
+    lastSaveNanos = System.nanoTime();
+    fileLock = new Object();
+    writtenVersion = 0;
+  }
+
+  /**
+   * Returns a transformer that applies the given stylesheet using, for each input, the engine
+   * that this selector deems best.
+   *
+   * @param stylesheet the stylesheet
+   * @param expectedDocuments the number of documents that the caller expects to transform with the
+   *        returned transformer, over which to amortize compilation costs
+   * @return a transformer
+   */
+  public AdaptiveTransformer forStylesheet(URI stylesheet, int expectedDocuments) {
+    checkArgument(expectedDocuments >= 1);
+    return new AdaptiveTransformer(stylesheet, expectedDocuments);
+  }
+
+  private static String compileKey(KnownFactory engine, URI stylesheet) {
+    return "compile." + engine + "." + stylesheet;
+  }
+
+  private static String transformKey(KnownFactory engine, int bucket, URI stylesheet) {
+    return "transform." + engine + "." + bucket + "." + stylesheet;
+  }
+
+  private static String failedKey(KnownFactory engine, URI stylesheet) {
+    return FAILED_PREFIX + engine + "." + stylesheet;
+  }
+
+  private boolean failed(KnownFactory engine, URI stylesheet) {
+    return (engine == KnownFactory.JDK && FAILING_WITH_JDK.contains(stylesheet.toString()))
+        || failures.getIfPresent(failedKey(engine, stylesheet)) != null;
+  }
+
+  private synchronized Optional<Stat> stat(String key) {
+    return Stat.parse(statistics.getProperty(key));
+  }
+
+  private void record(String key, long nanos) {
+    final Optional<Snapshot> snapshot;
+    synchronized (this) {
+      final Stat stat = stat(key).map(s -> s.plus(nanos)).orElse(Stat.of(nanos));
+      statistics.setProperty(key, stat.format());
+      ++version;
+      final boolean due = System.nanoTime() - lastSaveNanos >= Duration
+          .ofSeconds(SAVE_INTERVAL_SECONDS).toNanos();
+      snapshot = due ? snapshot() : Optional.empty();
+    }
+    snapshot.ifPresent(this::write);
+  }
+
+  private void recordFailure(KnownFactory engine, URI stylesheet) {
+    failures.put(failedKey(engine, stylesheet), true);
+  }
+
+  private static record Snapshot(long version, Properties statistics) {
+  }
+
+  /**
+   * Returns a copy of the statistics to write, if they are persisted and changed since the last
+   * snapshot, and considers them saved.
+   */
+  private synchronized Optional<Snapshot> snapshot() {
+    if (statisticsFile.isEmpty() || version == savedVersion) {
+      return Optional.empty();
+    }
+    final Properties copy = new Properties();
+    copy.putAll(statistics);
+    savedVersion = version;
+    lastSaveNanos = System.nanoTime();
+    return Optional.of(new Snapshot(version, copy));
+  }
+
+  private void write(Snapshot snapshot) {
+    synchronized (fileLock) {
+      if (snapshot.version() <= writtenVersion) {
+        return;
+      }
+      try {
+        AtomicFiles.publish(statisticsFile.get(),
+            out -> snapshot.statistics().store(out, "XSLT engine statistics"));
+        writtenVersion = snapshot.version();
+      } catch (IOException e) {
+        LOGGER.warn("Could not save statistics to " + statisticsFile.get() + ".", e);
+      }
+    }
+  }
+
+  /**
+   * Writes the statistics to the file, if they are persisted and changed since last written. The
+   * selector remains usable.
+   */
+  @Override
+  public void close() {
+    snapshot().ifPresent(this::write);
+  }
+
+  private static record Selected(KnownFactory engine, XmlTransformer transformer) {
+  }
+
+  /**
+   * Applies a stylesheet with the engine chosen by the selector that created it. Thread-safe.
+   */
+  public class AdaptiveTransformer {
+    private final URI stylesheet;
+    private final int expectedDocuments;
+    private final Map<KnownFactory, XmlTransformer> compiled;
+
+    private AdaptiveTransformer(URI stylesheet, int expectedDocuments) {
+      this.stylesheet = checkNotNull(stylesheet);
+      this.expectedDocuments = expectedDocuments;
+      compiled = new EnumMap<>(KnownFactory.class);
+    }
+
+    /**
+     * Returns the engine that would be used for an input of the given size.
+     *
+     * @param size the size of the input, in bytes or characters
+     * @return the engine
+     * @throws XmlException iff no candidate engine is left for this stylesheet
+     */
+    public KnownFactory engineFor(long size) throws XmlException {
+      return engineForBucket(bucket(size));
+    }
+
+    private synchronized KnownFactory engineForBucket(int bucket) throws XmlException {
+      final ImmutableSet<KnownFactory> usable = candidates.stream()
+          .filter(e -> !failed(e, stylesheet)).collect(ImmutableSet.toImmutableSet());
+      if (usable.isEmpty()) {
+        throw new XmlException("No engine can compile " + stylesheet + ".");
+      }
+      final Optional<KnownFactory> unexplored = usable.stream()
+          .filter(e -> stat(transformKey(e, bucket, stylesheet)).isEmpty()).findFirst();
+      if (unexplored.isPresent()) {
+        return unexplored.get();
+      }
+      return usable.stream().min(Comparator.comparingDouble(e -> cost(e, bucket))).get();
+    }
+
+    private double cost(KnownFactory engine, int bucket) {
+      final double transform = stat(transformKey(engine, bucket, stylesheet)).get().meanNanos();
+      final double compile = compiled.containsKey(engine) ? 0d
+          : stat(compileKey(engine, stylesheet)).map(Stat::meanNanos).orElse(0d);
+      return transform + compile / expectedDocuments;
+    }
+
+    private synchronized XmlTransformer compiled(KnownFactory engine) throws XmlException {
+      final XmlTransformer existing = compiled.get(engine);
+      if (existing != null) {
+        return existing;
+      }
+      final TransformerFactory factory = engine.factory();
+      factory.setURIResolver(resolver);
+      final long start = System.nanoTime();
+      final XmlTransformer transformer =
+          XmlTransformerFactory.usingFactory(factory).usingStylesheet(stylesheet);
+      record(compileKey(engine, stylesheet), System.nanoTime() - start);
+      compiled.put(engine, transformer);
+      return transformer;
+    }
+
+    private synchronized Selected select(int bucket) throws XmlException {
+      while (true) {
+        final KnownFactory engine = engineForBucket(bucket);
+        try {
+          return new Selected(engine, compiled(engine));
+        } catch (XmlException e) {
+          LOGGER.warn("Engine {} failed compiling {}, falling back.", engine, stylesheet, e);
+          recordFailure(engine, stylesheet);
+        }
+      }
+    }
+
+    /**
+     * Transforms the given input.
+     *
+     * @param input the document
+     * @param result where to send the result
+     * @throws XmlException iff no engine can compile the stylesheet, or transforming fails
+     * @throws IOException iff writing to the result fails
+     */
+    public void transform(String input, Result result) throws XmlException, IOException {
+      try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+        transform(lease.source(new InputSource(new StringReader(input))), input.length(), result);
+      }
+    }
+
+    /**
+     * Transforms the given input.
+     *
+     * @param input the document
+     * @param size the size of the input, in bytes or characters, possibly approximate
+     * @param result where to send the result
+     * @throws XmlException iff no engine can compile the stylesheet, or transforming fails
+     * @throws IOException iff writing to the result fails
+     */
+    public void transform(Source input, long size, Result result)
+        throws XmlException, IOException {
+      final int bucket = bucket(size);
+      final Selected selected = select(bucket);
+      final long start = System.nanoTime();
+      selected.transformer().sourceToResult(input, result);
+      record(transformKey(selected.engine(), bucket, stylesheet), System.nanoTime() - start);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("stylesheet", stylesheet)
+          .add("compiled", compiled.keySet()).toString();
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package io.github.oliviercailloux.publish;
+
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.IOException;
+import javax.xml.transform.Result;
+
+/**
+ * Sends an FO document to a result, typically by transforming some source into it.
+ */
+@FunctionalInterface
+interface FoProducer {
+  void produce(Result fo) throws XmlException, IOException;
+}
@@ -2,37 +2,81 @@ package io.github.oliviercailloux.publish;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
 
+import com.google.common.base.Suppliers;
 import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
 import com.google.common.io.Resources;
 import io.github.oliviercailloux.jaris.exceptions.Unchecker;
 import io.github.oliviercailloux.jaris.xml.XmlException;
 import io.github.oliviercailloux.jaris.xml.XmlToBytesTransformer;
+import io.github.oliviercailloux.jaris.xml.XmlTransformer;
 import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 import javax.xml.crypto.dsig.TransformException;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import org.apache.fop.apps.FOPException;
 import org.apache.fop.apps.FOUserAgent;
 import org.apache.fop.apps.FopConfParser;
 import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.FormattingResults;
+import org.apache.fop.apps.PageSequenceResults;
+import org.apache.fop.events.EventFormatter;
+import org.apache.fop.events.model.EventSeverity;
 import org.apache.fop.fo.FOTreeBuilder;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.xml.XMLRenderer;
+import org.apache.xmlgraphics.io.ResourceResolver;
 import org.apache.xmlgraphics.util.MimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
 
+/**
+ * Renders FO documents as PDF using Apache FOP.
+ * <p>
+ * Instances are immutable and thread-safe: the {@code with…} methods return new instances, and an
+ * instance can render any number of documents concurrently. The FOP factory (which holds the
+ * configuration, fonts and caches) is created on first use and shared by all renderings, whereas
+ * each rendering uses its own user agent and FOP pipeline; the XSLT factory given at creation is
+ * only used under a lock, as factories are generally not thread-safe. Resolvers, hyphenation trees
+ * and executors given to this transformer must be thread-safe for concurrent renderings to be.
+ * </p>
+ */
 public class FoToPdfTransformer implements XmlToBytesTransformer {
   @SuppressWarnings("unused")
   static final Logger LOGGER = LoggerFactory.getLogger(FoToPdfTransformer.class);
@@ -42,13 +86,71 @@ public class FoToPdfTransformer implements XmlToBytesTransformer {
   public static final URI CONFIG_URI = Unchecker.URI_UNCHECKER.getUsing(() -> CONFIG_URL.toURI());
   public static final URI BASE_URI = CONFIG_URI.resolve("../");
 
+  /**
+   * The settings that apply to each rendering (as opposed to the FOP factory).
+   */
+  private static record Options(Optional<HyphenationTrees> hyphenationTrees, RenderBudget budget,
+      Optional<Prefetch> prefetch, Optional<Instant> creationDate, boolean lowMemory) {
+    static Options defaults() {
+      return new Options(Optional.empty(), RenderBudget.unlimited(), Optional.empty(),
+          Optional.empty(), false);
+    }
+
+    Options withHyphenationTrees(HyphenationTrees trees) {
+      return new Options(Optional.of(trees), budget, prefetch, creationDate, lowMemory);
+    }
+
+    Options withBudget(RenderBudget newBudget) {
+      return new Options(hyphenationTrees, checkNotNull(newBudget), prefetch, creationDate,
+          lowMemory);
+    }
+
+    Options withPrefetch(Prefetch newPrefetch) {
+      return new Options(hyphenationTrees, budget, Optional.of(newPrefetch), creationDate,
+          lowMemory);
+    }
+
+    Options withCreationDate(Instant newCreationDate) {
+      return new Options(hyphenationTrees, budget, prefetch, Optional.of(newCreationDate),
+          lowMemory);
+    }
+
+    Options withLowMemory(boolean newLowMemory) {
+      return new Options(hyphenationTrees, budget, prefetch, creationDate, newLowMemory);
+    }
+  }
+
+  private static record Prefetch(CachingResourceResolver resolver, Executor executor) {
+  }
+
+  /**
+   * A FOP configuration, kept so that the FOP factory can be rebuilt with other PDF options or
+   * another resource resolver.
+   */
+  private static record Config(URI baseUri, ByteSource bytes, boolean internal,
+      Optional<ResourceResolver> resolver) {
+    static Config internal(URI baseUri) {
+      return new Config(baseUri, Resources.asByteSource(CONFIG_URL), true, Optional.empty());
+    }
+
+    Config withResolver(ResourceResolver newResolver) {
+      return new Config(baseUri, bytes, internal, Optional.of(newResolver));
+    }
+  }
+
   private final XmlTransformerFactory delegateTransformer;
-  private Supplier<FopFactory> fopFactorySupplier;
+  private final Supplier<FopFactory> fopFactorySupplier;
+  private final Optional<Config> config;
+  private final PdfOptions pdfOptions;
+  private final Options options;
 
-  private static FopConfParser parser(URI baseUri, ByteSource config)
-      throws SAXException, IOException {
+  private static FopConfParser parser(URI baseUri, ByteSource config,
+      Optional<ResourceResolver> resolver) throws SAXException, IOException {
     checkArgument(baseUri.isAbsolute());
     try (InputStream configStream = config.openBufferedStream()) {
+      if (resolver.isPresent()) {
+        return new FopConfParser(configStream, baseUri, resolver.get());
+      }
       return new FopConfParser(configStream, baseUri);
     }
   }
@@ -60,17 +162,21 @@ public class FoToPdfTransformer implements XmlToBytesTransformer {
     return fopFactory;
   }
 
-  private static FopConfParser internalFopConfParser(URI baseUri) {
-    checkArgument(baseUri.isAbsolute());
+  private static FopFactory fopFactory(Config config, PdfOptions pdfOptions)
+      throws SAXException, IOException {
+    return fopFactory(
+        parser(config.baseUri(), pdfOptions.applyTo(config.bytes()), config.resolver()));
+  }
+
+  private static FopFactory internalFopFactory(Config config, PdfOptions pdfOptions) {
+    checkArgument(config.baseUri().isAbsolute());
+    final FopConfParser parser;
     try {
-      return parser(baseUri, Resources.asByteSource(CONFIG_URL));
+      parser = parser(config.baseUri(), pdfOptions.applyTo(config.bytes()), config.resolver());
     } catch (SAXException | IOException e) {
       throw new VerifyException(e);
     }
-  }
-
-  private static FopFactory internalFopFactory(URI baseUri) {
-    FopFactory fopFactory = internalFopConfParser(baseUri).getFopFactoryBuilder().build();
+    FopFactory fopFactory = parser.getFopFactoryBuilder().build();
     verify(fopFactory.validateUserConfigStrictly());
     verify(fopFactory.validateStrictly());
     return fopFactory;
@@ -79,23 +185,35 @@ public class FoToPdfTransformer implements XmlToBytesTransformer {
   public static FoToPdfTransformer usingFactory(TransformerFactory factory) {
     final XmlTransformerFactory transformer =
         XmlTransformerFactory.usingFactory(factory).pedantic();
-    return new FoToPdfTransformer(transformer, () -> internalFopFactory(BASE_URI));
+    final Config config = Config.internal(BASE_URI);
+    final PdfOptions pdfOptions = PdfOptions.unchanged();
+    return new FoToPdfTransformer(transformer,
+        Suppliers.memoize(() -> internalFopFactory(config, pdfOptions)), Optional.of(config),
+        pdfOptions, Options.defaults());
   }
 
   private FoToPdfTransformer(XmlTransformerFactory delegateTransformer,
-      Supplier<FopFactory> fopFactorySupplier) {
+      Supplier<FopFactory> fopFactorySupplier, Optional<Config> config, PdfOptions pdfOptions,
+      Options options) {
     this.delegateTransformer = checkNotNull(delegateTransformer);
     this.fopFactorySupplier = checkNotNull(fopFactorySupplier);
+    this.config = checkNotNull(config);
+    this.pdfOptions = checkNotNull(pdfOptions);
+    this.options = checkNotNull(options);
   }
 
   public FoToPdfTransformer withDefaultConfig(URI baseUri) {
-    return new FoToPdfTransformer(delegateTransformer, () -> internalFopFactory(baseUri));
+    final Config internal = Config.internal(baseUri);
+    final Config newConfig =
+        config.flatMap(Config::resolver).map(internal::withResolver).orElse(internal);
+    final Supplier<FopFactory> supplier =
+        Suppliers.memoize(() -> internalFopFactory(newConfig, pdfOptions));
+    return new FoToPdfTransformer(delegateTransformer, supplier, Optional.of(newConfig),
+        pdfOptions, options);
   }
 
   public FoToPdfTransformer withConfig(ByteSource config) throws SAXException, IOException {
-    final FopConfParser fopConfParser = parser(BASE_URI, config);
-    FopFactory fopFactory = fopFactory(fopConfParser);
-    return new FoToPdfTransformer(delegateTransformer, () -> fopFactory);
+    return withConfig(BASE_URI, config);
   }
 
   /**
@@ -107,34 +225,429 @@ public class FoToPdfTransformer implements XmlToBytesTransformer {
    */
   public FoToPdfTransformer withConfig(URI baseUri, ByteSource config)
       throws SAXException, IOException {
-    final FopConfParser fopConfParser = parser(baseUri, config);
-    FopFactory fopFactory = fopFactory(fopConfParser);
-    return new FoToPdfTransformer(delegateTransformer, () -> fopFactory);
+    final Config newConfig = new Config(baseUri, config, false,
+        this.config.flatMap(Config::resolver));
+    FopFactory fopFactory = fopFactory(newConfig, pdfOptions);
+    return new FoToPdfTransformer(delegateTransformer, () -> fopFactory, Optional.of(newConfig),
+        pdfOptions, options);
   }
 
+  /**
+   * Returns a transformer that uses the given parser as is: PDF options set previously are ignored
+   * and {@link #withPdfOptions(PdfOptions)} can’t be used on the result, prefer
+   * {@link #withConfig(URI, ByteSource)} to use both.
+   *
+   * @param fopConfParser the parser of the FOP configuration
+   * @return a transformer using the given configuration
+   */
   public FoToPdfTransformer withConfig(FopConfParser fopConfParser) {
     FopFactory fopFactory = fopFactory(fopConfParser);
-    return new FoToPdfTransformer(delegateTransformer, () -> fopFactory);
+    return new FoToPdfTransformer(delegateTransformer, () -> fopFactory, Optional.empty(),
+        PdfOptions.unchanged(), options);
   }
 
+  /**
+   * Returns a transformer that uses the given options of the PDF renderer, applied to the current
+   * configuration (replacing the options set previously, if any).
+   *
+   * @param pdfOptions the options
+   * @return a transformer using the given options
+   * @throws IllegalStateException iff this transformer was configured with a {@link FopConfParser}
+   */
+  public FoToPdfTransformer withPdfOptions(PdfOptions pdfOptions) {
+    checkState(config.isPresent(), "Options can’t be applied to a FopConfParser.");
+    return rebuilt(config.get(), pdfOptions);
+  }
+
+  /**
+   * Returns a transformer that reads resources (images, fonts, included files…) using the given
+   * resolver, such as a {@link CachingResourceResolver}, applied to the current configuration. The
+   * resolver is shared by all renderings done by the returned transformer, and by the transformers
+   * derived from it (except using {@link #withConfig(FopConfParser)}).
+   *
+   * @param resolver the resolver
+   * @return a transformer using the given resolver
+   * @throws IllegalStateException iff this transformer was configured with a {@link FopConfParser}
+   */
+  public FoToPdfTransformer withResourceResolver(ResourceResolver resolver) {
+    checkState(config.isPresent(), "A resolver can’t be applied to a FopConfParser.");
+    return rebuilt(config.get().withResolver(checkNotNull(resolver)), pdfOptions);
+  }
+
+  private FoToPdfTransformer rebuilt(Config newConfig, PdfOptions newPdfOptions) {
+    final Supplier<FopFactory> supplier;
+    if (newConfig.internal()) {
+      supplier = Suppliers.memoize(() -> internalFopFactory(newConfig, newPdfOptions));
+    } else {
+      final FopFactory fopFactory;
+      try {
+        fopFactory = fopFactory(newConfig, newPdfOptions);
+      } catch (SAXException | IOException e) {
+        /* The configuration has been parsed successfully already. */
+        throw new VerifyException(e);
+      }
+      supplier = () -> fopFactory;
+    }
+    return new FoToPdfTransformer(delegateTransformer, supplier, Optional.of(newConfig),
+        newPdfOptions, options);
+  }
+
+  /**
+   * Returns a transformer that obtains the hyphenation trees from the given cache rather than
+   * letting each FOP factory load its own. The trees for the languages and countries that a
+   * document declares (using the {@code language} and {@code country} properties or the
+   * {@code xml:lang} attribute) are put in the factory cache as soon as they are encountered,
+   * before layout; languages that the given cache does not know are left for FOP to find as usual.
+   *
+   * @param trees the cache to use
+   * @return a transformer using the given cache
+   */
+  public FoToPdfTransformer withHyphenationTrees(HyphenationTrees trees) {
+    return new FoToPdfTransformer(delegateTransformer, fopFactorySupplier, config, pdfOptions,
+        options.withHyphenationTrees(trees));
+  }
+
+  /**
+   * Returns a transformer that stops rendering a document as soon as it exceeds the given budget,
+   * throwing a {@link RenderBudgetExceededException}. When rendering to a path, the target is then
+   * left untouched; when rendering to a stream or a channel, what has been written is incomplete.
+   * Nothing is left to clean up: the FOP factory remains usable for other documents.
+   *
+   * @param budget the limits that apply to each document, or {@link RenderBudget#unlimited()}
+   * @return a transformer using the given budget
+   */
+  public FoToPdfTransformer withBudget(RenderBudget budget) {
+    return new FoToPdfTransformer(delegateTransformer, fopFactorySupplier, config, pdfOptions,
+        options.withBudget(budget));
+  }
+
+  /**
+   * Returns a transformer that, before laying out a document, fetches in parallel all the
+   * resources that it references into the given cache, which becomes the resource resolver of the
+   * transformer (as with {@link #withResourceResolver(ResourceResolver)}); and that rejects the
+   * document as soon as a resource is found missing, with an {@link XmlException} that wraps a
+   * {@link TransformerException} that wraps a {@link FileNotFoundException}, as when FOP itself
+   * finds it missing.
+   * <p>
+   * This requires the FO document to be entirely received before its layout starts: it is held in
+   * memory as a DOM tree in between.
+   * </p>
+   *
+   * @param resolver the cache to fetch the resources into
+   * @param executor runs the fetches
+   * @return a transformer that prefetches resources
+   * @throws IllegalStateException iff this transformer was configured with a {@link FopConfParser}
+   */
+  public FoToPdfTransformer withPrefetching(CachingResourceResolver resolver, Executor executor) {
+    final FoToPdfTransformer resolving = withResourceResolver(resolver);
+    return new FoToPdfTransformer(resolving.delegateTransformer, resolving.fopFactorySupplier,
+        resolving.config, resolving.pdfOptions,
+        options.withPrefetch(new Prefetch(resolver, checkNotNull(executor))));
+  }
+
+  /**
+   * Returns a transformer whose output depends only on its input: rendering the same FO document
+   * with the same configuration gives byte-identical PDF documents, which can thus be compared or
+   * cached by digest. The creation date of the documents is set to the given one rather than to the
+   * rendering time, and their identifier (the {@code /ID} entry of the trailer, which FOP otherwise
+   * derives from the rendering time) is replaced with a digest of the rest of the document.
+   * <p>
+   * Each document is then held in memory until complete, so that its identifier can be computed.
+   * FOP writes the creation date in the default time zone of the JVM, which must thus also be the
+   * same across renderings, as must be the versions of FOP and of the fonts.
+   * </p>
+   *
+   * @param creationDate the creation date to write in each document
+   * @return a transformer producing reproducible output
+   */
+  public FoToPdfTransformer withReproducibleOutput(Instant creationDate) {
+    return new FoToPdfTransformer(delegateTransformer, fopFactorySupplier, config, pdfOptions,
+        options.withCreationDate(checkNotNull(creationDate)));
+  }
+
+  /**
+   * Returns a transformer that trades speed for memory, for very large documents. FOP then writes
+   * to temporary files (in {@code java.io.tmpdir}) the pages that it has laid out but can’t output
+   * yet, typically because they refer to a page that comes later (as with “page 1 of 1000”),
+   * instead of keeping them in memory until the end of the document.
+   * <p>
+   * This does not help when this transformer itself holds the whole document, as it does with
+   * {@link #withPrefetching(CachingResourceResolver, Executor) prefetching} (the FO document) or
+   * {@link #withReproducibleOutput(Instant) reproducible output} (the PDF document). Images are
+   * not affected: FOP loads them as needed and caches them with soft references, which the garbage
+   * collector clears when memory runs low.
+   * </p>
+   *
+   * @param lowMemory {@code true} to conserve memory, {@code false} for the default behavior
+   * @return a transformer using the given memory policy
+   */
+  public FoToPdfTransformer withLowMemory(boolean lowMemory) {
+    return new FoToPdfTransformer(delegateTransformer, fopFactorySupplier, config, pdfOptions,
+        options.withLowMemory(lowMemory));
+  }
+
+  /**
+   * Renders the given FO document as PDF into the given result, which must be a
+   * {@link StreamResult} that holds either an output stream (which is closed when done) or only a
+   * system id designating a path, as in {@link #sourceToPath(Source, Path)}.
+   */
   @Override
   public void sourceToResult(Source source, Result result) throws XmlException, IOException {
     checkArgument(result instanceof StreamResult);
     final StreamResult streamResult = (StreamResult) result;
+    checkArgument(streamResult.getWriter() == null, "PDF can’t be written to a writer.");
 
-    final FOUserAgent foUserAgent = fopFactorySupplier.get().newFOUserAgent();
+    if (streamResult.getOutputStream() == null) {
+      final String systemId = streamResult.getSystemId();
+      checkArgument(systemId != null, "The result holds no output stream and no system id.");
+      final Path path;
+      try {
+        path = Path.of(new URI(systemId));
+      } catch (URISyntaxException | FileSystemNotFoundException e) {
+        throw new IllegalArgumentException("Not a path: " + systemId, e);
+      }
+      sourceToPath(source, path);
+      return;
+    }
+
+    try (OutputStream out = streamResult.getOutputStream()) {
+      render(identity(source), out);
+    }
+  }
+
+  /**
+   * Renders the given FO document as PDF into the given file, through a large buffer, and
+   * atomically: the file appears (or is replaced) only once the PDF is complete, and is left
+   * untouched if rendering fails.
+   *
+   * @param source the FO document
+   * @param target the file to write
+   * @throws XmlException iff rendering fails
+   * @throws IOException iff reading the source or writing the file fails
+   */
+  public void sourceToPath(Source source, Path target) throws XmlException, IOException {
+    AtomicFiles.publish(target, out -> render(identity(source), out));
+  }
+
+  /**
+   * Renders the given FO document as PDF into the given channel, through a large buffer. The
+   * channel is not closed.
+   *
+   * @param source the FO document
+   * @param channel where to write the PDF
+   * @throws XmlException iff rendering fails
+   * @throws IOException iff reading the source or writing to the channel fails
+   */
+  public void sourceToChannel(Source source, WritableByteChannel channel)
+      throws XmlException, IOException {
+    final OutputStream out =
+        new BufferedOutputStream(Channels.newOutputStream(channel), AtomicFiles.BUFFER_SIZE);
+    render(identity(source), out);
+    out.flush();
+  }
+
+  /**
+   * Returns a producer that sends the given FO document as is, parsing it (if needed) with a
+   * reader from the pool.
+   */
+  FoProducer identity(Source source) {
+    return fo -> {
+      try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+        identityTransformer().sourceToResult(lease.source(source), fo);
+      }
+    };
+  }
+
+  /**
+   * Returns a new identity transformer, obtained under a lock on the XSLT factory, which is shared
+   * by the renderings.
+   */
+  private XmlTransformer identityTransformer() {
+    synchronized (delegateTransformer) {
+      return delegateTransformer.usingEmptyStylesheet();
+    }
+  }
+
+  /**
+   * Receives the FO document into memory while collecting its references, fetches them, and
+   * returns a producer that sends the received document. Both the production and the fetches are
+   * checked against the deadline of the given meter.
+   */
+  private FoProducer prefetched(FoProducer producer, Prefetch prefetch, URI base,
+      BudgetMeter meter) throws XmlException, IOException {
+    final DOMResult received = new DOMResult();
+    final ResourcePrefetcher prefetcher = new ResourcePrefetcher();
+    try {
+      final TransformerHandler builder =
+          ((SAXTransformerFactory) TransformerFactory.newDefaultInstance()).newTransformerHandler();
+      builder.setResult(received);
+      prefetcher.setContentHandler(builder);
+    } catch (TransformerConfigurationException e) {
+      throw new VerifyException(e);
+    }
+    ContentHandler handler = prefetcher;
+    if (options.budget().timeout().isPresent()) {
+      final XMLFilterImpl timer = meter.filter();
+      timer.setContentHandler(handler);
+      handler = timer;
+    }
+    producer.produce(new SAXResult(handler));
+    ResourcePrefetcher.prefetch(prefetcher.resolved(base), prefetch.resolver(),
+        prefetch.executor(), meter);
+    final DOMSource fo = new DOMSource(received.getNode());
+    return result -> identityTransformer().sourceToResult(fo, result);
+  }
+
+  /**
+   * Lays out the given FO document without producing PDF, and reports the number of pages and the
+   * warnings that FOP emitted (such as overflows or missing glyphs), which would make rendering
+   * fail. The layout is that of the PDF output (using the same fonts), but pages are discarded as
+   * soon as laid out, without serialization or image embedding, which makes this notably faster
+   * than rendering. The page limit of the budget of this transformer, if any, is not enforced.
+   *
+   * @param source the FO document
+   * @return the report
+   * @throws XmlException iff FOP reports an error, or the document exceeds the time budget of this
+   *         transformer
+   * @throws IOException iff reading the source fails
+   */
+  public LayoutReport layout(Source source) throws XmlException, IOException {
+    return report(format(identity(source), OutputStream.nullOutputStream(),
+        Optional.of(new DefaultHandler())));
+  }
+
+  /**
+   * Lays out the given FO document without producing PDF, as {@link #layout(Source)} does, and
+   * captures the text of each page and its dimensions. This permits to check the content of
+   * generated documents without writing PDF and parsing it back.
+   *
+   * @param source the FO document
+   * @return the laid out text, together with the layout report
+   * @throws XmlException iff FOP reports an error, or the document exceeds the time budget of this
+   *         transformer
+   * @throws IOException iff reading the source fails
+   */
+  public LaidOutText layoutText(Source source) throws XmlException, IOException {
+    final AreaTreeText text = new AreaTreeText();
+    final LayoutReport report =
+        report(format(identity(source), OutputStream.nullOutputStream(), Optional.of(text)));
+    return LaidOutText.of(report, text.pages());
+  }
+
+  private static LayoutReport report(Formatted formatted) throws XmlException {
+    final FoEventListener l = formatted.events();
+    l.seriouses().stream().filter(e -> !e.getSeverity().equals(EventSeverity.WARN)).findFirst()
+        .ifPresent(e -> {
+          throw FoEventListener.asException(e);
+        });
+    final FormattingResults results = formatted.results();
+    @SuppressWarnings("unchecked")
+    final List<PageSequenceResults> sequences = results.getPageSequences();
+    return new LayoutReport(results.getPageCount(),
+        sequences.stream().map(PageSequenceResults::getPageCount)
+            .collect(ImmutableList.toImmutableList()),
+        l.seriouses().stream().map(EventFormatter::format)
+            .collect(ImmutableList.toImmutableList()));
+  }
+
+  /**
+   * Renders as PDF into the given stream the FO document that the given producer sends to the
+   * result it is given. The stream is not closed.
+   *
+   * @param producer sends the FO document to the result it is given
+   * @param out where to write the PDF
+   * @throws XmlException iff the producer throws it or FOP reports a serious event
+   * @throws RenderBudgetExceededException iff the document exceeds the budget of this transformer
+   * @throws IOException iff the producer throws it or writing to the stream fails
+   */
+  void render(FoProducer producer, OutputStream out) throws XmlException, IOException {
+    if (options.creationDate().isPresent()) {
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      renderAsIs(producer, buffer);
+      out.write(PdfIds.withDigestIds(buffer.toByteArray()));
+    } else {
+      renderAsIs(producer, out);
+    }
+  }
+
+  private void renderAsIs(FoProducer producer, OutputStream out) throws XmlException, IOException {
+    final FoEventListener l = format(producer, out, Optional.empty()).events();
+    l.seriouses().stream().findFirst().ifPresent(e -> {
+      throw FoEventListener.asException(e);
+    });
+  }
+
+  private static record Formatted(FormattingResults results, FoEventListener events) {
+  }
+
+  /**
+   * Formats the FO document that the given producer sends, as PDF into the given stream, or, if an
+   * area tree handler is given, as an area tree into that handler.
+   */
+  private Formatted format(FoProducer producer, OutputStream out, Optional<ContentHandler> areaTree)
+      throws XmlException, IOException {
+    /* Started first, so that the timeout also covers the production of the FO and the fetches. */
+    final RenderBudget budget = options.budget();
+    final BudgetMeter meter = new BudgetMeter(budget);
+    final FopFactory fopFactory = fopFactorySupplier.get();
+    final FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
+    if (options.creationDate().isPresent()) {
+      foUserAgent.setCreationDate(Date.from(options.creationDate().get()));
+    }
+    foUserAgent.setConserveMemoryPolicy(options.lowMemory());
 
     final FoEventListener l = new FoEventListener();
     foUserAgent.getEventBroadcaster().addEventListener(l);
 
-    final Result res;
-    try (OutputStream out = streamResult.getOutputStream()) {
-      try {
-        res = new SAXResult(new FOTreeBuilder(MimeConstants.MIME_PDF, foUserAgent, out));
-      } catch (FOPException e) {
-        throw new XmlException(new TransformException(e));
+    final FOTreeBuilder builder;
+    try {
+      final String outputFormat;
+      if (areaTree.isPresent()) {
+        /* Lays out with the fonts of the PDF renderer, but outputs the area tree. */
+        final XMLRenderer renderer = new XMLRenderer(foUserAgent);
+        renderer.mimicRenderer(
+            foUserAgent.getRendererFactory().createRenderer(foUserAgent, MimeConstants.MIME_PDF));
+        renderer.setContentHandler(areaTree.get());
+        foUserAgent.setRendererOverride(renderer);
+        outputFormat = MimeConstants.MIME_FOP_AREA_TREE;
+      } else {
+        if (budget.maxPages().isPresent() || budget.timeout().isPresent()) {
+          final IFDocumentHandler pdfHandler = foUserAgent.getRendererFactory()
+              .createDocumentHandler(foUserAgent, MimeConstants.MIME_PDF);
+          foUserAgent.setDocumentHandlerOverride(meter.documentHandler(pdfHandler));
+        }
+        outputFormat = MimeConstants.MIME_PDF;
       }
-      delegateTransformer.usingEmptyStylesheet().sourceToResult(source, res);
+      final OutputStream metered = budget.isUnlimited() ? out : meter.outputStream(out);
+      builder = new FOTreeBuilder(outputFormat, foUserAgent, metered);
+    } catch (FOPException e) {
+      throw new XmlException(new TransformException(e));
+    }
+    ContentHandler handler = builder;
+    if (options.hyphenationTrees().isPresent()) {
+      final HyphenationPreloader preloader = new HyphenationPreloader(
+          options.hyphenationTrees().get(), foUserAgent.getHyphenationTreeCache());
+      preloader.setContentHandler(handler);
+      handler = preloader;
+    }
+    if (budget.timeout().isPresent()) {
+      final XMLFilterImpl timer = meter.filter();
+      timer.setContentHandler(handler);
+      handler = timer;
+    }
+    final Result res = new SAXResult(handler);
+    try {
+      final FoProducer checkedProducer = options.prefetch().isPresent()
+          ? prefetched(producer, options.prefetch().get(), fopFactory.getBaseURI(), meter)
+          : producer;
+      checkedProducer.produce(res);
+    } catch (RuntimeException | IOException e) {
+      /* The breach is usually wrapped, possibly several times, by FOP or the XSLT engine. */
+      if (meter.breach().isPresent()) {
+        LOGGER.debug("Rendering stopped.", e);
+        throw meter.breach().get();
+      }
+      throw e;
     }
 
     /*
@@ -145,8 +658,6 @@ public class FoToPdfTransformer implements XmlToBytesTransformer {
     LOGGER.debug("Got {} serious and {} not serious events.", l.seriouses().size(),
         l.notSeriouses().size());
     l.logAll();
-    l.seriouses().stream().findFirst().ifPresent(e -> {
-      throw FoEventListener.asException(e);
-    });
+    return new Formatted(builder.getResults(), l);
   }
 }
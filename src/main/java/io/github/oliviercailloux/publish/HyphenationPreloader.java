@@ -0,0 +1,79 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import javax.xml.XMLConstants;
+import org.apache.fop.hyphenation.HyphenationTreeCache;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Passes FO events through, and puts in the FOP hyphenation tree cache, before FOP needs them, the
+ * trees for the languages (and countries) that the document uses.
+ */
+class HyphenationPreloader extends XMLFilterImpl {
+  private static record Language(Optional<String> language, Optional<String> country) {
+  }
+
+  private final HyphenationTrees trees;
+  private final HyphenationTreeCache cache;
+  private final Deque<Language> inherited;
+  private final Set<Language> seen;
+
+  HyphenationPreloader(HyphenationTrees trees, HyphenationTreeCache cache) {
+    this.trees = checkNotNull(trees);
+    this.cache = checkNotNull(cache);
+    inherited = new ArrayDeque<>();
+    inherited.push(new Language(Optional.empty(), Optional.empty()));
+    seen = new HashSet<>();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts)
+      throws SAXException {
+    final Language parent = inherited.peek();
+    Optional<String> language = parent.language();
+    Optional<String> country = parent.country();
+    final String xmlLang = atts.getValue(XMLConstants.XML_NS_URI, "lang");
+    if (xmlLang != null) {
+      final String[] parts = xmlLang.split("-");
+      language = Optional.of(parts[0].toLowerCase());
+      country = parts.length >= 2 ? Optional.of(parts[1].toUpperCase()) : Optional.empty();
+    }
+    final String languageAttribute = atts.getValue("", "language");
+    if (languageAttribute != null) {
+      language = Optional.of(languageAttribute);
+    }
+    final String countryAttribute = atts.getValue("", "country");
+    if (countryAttribute != null) {
+      country = Optional.of(countryAttribute);
+    }
+    final Language current = new Language(language.filter(l -> !l.equals("none")),
+        country.filter(c -> !c.equals("none")));
+    inherited.push(current);
+    if (current.language().isPresent() && seen.add(current)) {
+      preload(current.language().get(), current.country());
+    }
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  private void preload(String language, Optional<String> country) {
+    if (cache.getHyphenationTree(language, country.orElse(null)) != null) {
+      return;
+    }
+    final String key = country.map(c -> language + "_" + c).orElse(language);
+    trees.get(language, country).ifPresent(t -> cache.cache(key, t));
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    inherited.pop();
+    super.endElement(uri, localName, qName);
+  }
+}
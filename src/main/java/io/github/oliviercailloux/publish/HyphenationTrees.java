@@ -0,0 +1,216 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.io.MoreFiles;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import org.apache.fop.hyphenation.HyphenationException;
+import org.apache.fop.hyphenation.HyphenationTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * A cache of hyphenation trees, loaded lazily per language (and country) from a location that
+ * contains, for each key such as {@code en} or {@code en_US}, either a precompiled (serialized)
+ * tree {@code key.hyp}, or an XML pattern file {@code key.xml}, parsed when first needed.
+ * <p>
+ * FOP parses or deserializes hyphenation patterns once per {@code FopFactory}, the first time a
+ * language is used. An instance of this class given to
+ * {@link FoToPdfTransformer#withHyphenationTrees(HyphenationTrees)} instead provides each tree once
+ * for all factories and renderings that use it: the trees are immutable once loaded, and shared.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @see #compile(Path, Path)
+ */
+public class HyphenationTrees {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(HyphenationTrees.class);
+
+  private static final String SERIALIZED_EXTENSION = "hyp";
+  private static final String PATTERNS_EXTENSION = "xml";
+
+  private static final HyphenationTrees SHARED = fromClasspath("hyph/");
+
+  /**
+   * Returns the cache that loads the trees from the class path, in the {@code hyph/} folder where
+   * hyphenation jars such as {@code fop-hyph} put them, and that is shared in this JVM.
+   *
+   * @return the shared instance
+   */
+  public static HyphenationTrees shared() {
+    return SHARED;
+  }
+
+  /**
+   * Returns a cache that loads the trees from the class path (using the class loader of this
+   * class), prefixing their file names with the given prefix.
+   *
+   * @param prefix the resource name prefix, for example {@code hyph/}
+   * @return a new cache
+   */
+  public static HyphenationTrees fromClasspath(String prefix) {
+    checkArgument(!prefix.startsWith("/"));
+    return new HyphenationTrees(name -> Optional
+        .ofNullable(HyphenationTrees.class.getClassLoader().getResource(prefix + name)));
+  }
+
+  /**
+   * Returns a cache that loads the trees from the given directory.
+   *
+   * @param directory the directory
+   * @return a new cache
+   */
+  public static HyphenationTrees fromDirectory(Path directory) {
+    checkNotNull(directory);
+    return new HyphenationTrees(name -> {
+      final Path path = directory.resolve(name);
+      if (!Files.exists(path)) {
+        return Optional.empty();
+      }
+      try {
+        return Optional.of(path.toUri().toURL());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Compiles each XML pattern file of the source directory to a serialized tree in the destination
+   * directory, with the same name but the {@code hyp} extension.
+   *
+   * @param patterns the directory containing XML pattern files
+   * @param destination the directory where to write the serialized trees
+   * @throws XmlException iff some pattern file is invalid
+   * @throws IOException iff reading or writing fails
+   */
+  public static void compile(Path patterns, Path destination) throws XmlException, IOException {
+    Files.createDirectories(destination);
+    try (Stream<Path> files = Files.list(patterns)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (!MoreFiles.getFileExtension(file).equals(PATTERNS_EXTENSION)) {
+          continue;
+        }
+        LOGGER.info("Compiling {}.", file);
+        final HyphenationTree tree = parse(file.toUri().toURL());
+        final Path target = destination
+            .resolve(MoreFiles.getNameWithoutExtension(file) + "." + SERIALIZED_EXTENSION);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target));
+            ObjectOutputStream objects = new ObjectOutputStream(out)) {
+          objects.writeObject(tree);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiles hyphenation patterns.
+   *
+   * @param args the source directory of XML patterns and the destination directory
+   * @throws Exception iff compiling fails
+   */
+  public static void main(String[] args) throws Exception {
+    checkArgument(args.length == 2, "Usage: patterns destination");
+    compile(Path.of(args[0]), Path.of(args[1]));
+  }
+
+  private static HyphenationTree parse(URL patterns) throws XmlException {
+    final HyphenationTree tree = new HyphenationTree();
+    try {
+      tree.loadPatterns(new InputSource(patterns.toString()));
+    } catch (HyphenationException e) {
+      throw new XmlException(e);
+    }
+    return tree;
+  }
+
+  private static HyphenationTree deserialize(URL serialized) throws IOException {
+    try (InputStream in = new BufferedInputStream(serialized.openStream());
+        ObjectInputStream objects = new ObjectInputStream(in)) {
+      return (HyphenationTree) objects.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @FunctionalInterface
+  private static interface Locator {
+    Optional<URL> locate(String name);
+  }
+
+  private final Locator locator;
+  private final ConcurrentMap<String, Optional<HyphenationTree>> trees;
+
+  private HyphenationTrees(Locator locator) {
+    this.locator = checkNotNull(locator);
+    trees = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the tree for the given language and country, falling back to the tree for the
+   * language only, loading it if this is the first time it is requested.
+   *
+   * @param language the language, as an ISO 639 code
+   * @param country the country, as an ISO 3166 code
+   * @return the tree, or an empty optional if none is found at the location of this cache
+   * @throws XmlException iff the tree found is invalid
+   */
+  public Optional<HyphenationTree> get(String language, Optional<String> country)
+      throws XmlException {
+    if (country.isPresent()) {
+      final Optional<HyphenationTree> specific = get(language + "_" + country.get());
+      if (specific.isPresent()) {
+        return specific;
+      }
+    }
+    return get(language);
+  }
+
+  private Optional<HyphenationTree> get(String key) throws XmlException {
+    return trees.computeIfAbsent(key, this::load);
+  }
+
+  private Optional<HyphenationTree> load(String key) throws XmlException {
+    final Optional<URL> serialized = locator.locate(key + "." + SERIALIZED_EXTENSION);
+    if (serialized.isPresent()) {
+      LOGGER.debug("Deserializing hyphenation tree from {}.", serialized.get());
+      try {
+        return Optional.of(deserialize(serialized.get()));
+      } catch (IOException e) {
+        throw new XmlException(e);
+      }
+    }
+    final Optional<URL> patterns = locator.locate(key + "." + PATTERNS_EXTENSION);
+    if (patterns.isPresent()) {
+      LOGGER.debug("Parsing hyphenation patterns from {}.", patterns.get());
+      return Optional.of(parse(patterns.get()));
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("loaded", trees.keySet()).toString();
+  }
+}
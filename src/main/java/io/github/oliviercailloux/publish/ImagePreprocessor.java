@@ -0,0 +1,457 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.Resources;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.xml.transform.sax.SAXSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Downsamples and recompresses the raster images that FO or DocBook documents refer to, so that
+ * they have no more pixels than needed for their rendered size at a target resolution.
+ * <p>
+ * The preprocessing happens on the fly while the document is read (see
+ * {@link #filter(XMLReader, URI)}): each {@code fo:external-graphic/@src} and DocBook
+ * {@code imagedata/@fileref} is resolved against the base URI; if it designates a raster image that
+ * is larger than needed, the reference is replaced by a reference to a downsampled copy, and the
+ * rendered width is made explicit so that it is unchanged by the operation. Opaque images are
+ * recompressed to JPEG, others to PNG.
+ * </p>
+ * <p>
+ * The rendered width is the content width, if given as an absolute length (or, for DocBook, the
+ * width, in the absence of a content width), or the intrinsic width of the image if no size is
+ * given. References whose rendered width can’t be determined this way, such as those that scale
+ * the image to fit or give a relative width or only a height, are left untouched.
+ * </p>
+ * <p>
+ * Downsampled copies are cached on disk, in files named after a digest of the original image
+ * content and of the preprocessing parameters, so that an image is decoded and processed only once
+ * across renderings and processes: when the copy is cached, only the header of the image is read.
+ * Images that can’t be read or decoded are left untouched, letting the renderer report problems as
+ * usual.
+ * </p>
+ * <p>
+ * Instances are immutable and thread-safe.
+ * </p>
+ */
+public class ImagePreprocessor {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImagePreprocessor.class);
+
+  public static final String FO_NS = "http://www.w3.org/1999/XSL/Format";
+  public static final String DOCBOOK_NS = "http://docbook.org/ns/docbook";
+
+  /**
+   * The resolution that FOP assumes for images that do not specify theirs.
+   */
+  private static final double DEFAULT_SOURCE_DPI = 72d;
+
+  private static final Pattern LENGTH =
+      Pattern.compile("\\s*([0-9]*\\.?[0-9]+)\\s*(in|cm|mm|pt|pc)\\s*");
+  private static final Pattern URL = Pattern.compile("\\s*url\\(\\s*['\"]?(.*?)['\"]?\\s*\\)\\s*");
+
+  private static final ImmutableList<String> FO_WIDTHS = ImmutableList.of("content-width");
+  private static final ImmutableList<String> FO_OTHER_SIZES = ImmutableList.of("content-height");
+  /**
+   * In the absence of a content width, the DocBook stylesheets scale the image to the width.
+   */
+  private static final ImmutableList<String> DOCBOOK_WIDTHS =
+      ImmutableList.of("contentwidth", "width");
+  private static final ImmutableList<String> DOCBOOK_OTHER_SIZES =
+      ImmutableList.of("contentdepth", "depth", "scale");
+
+  /**
+   * Returns a preprocessor that caches its results in the given directory.
+   *
+   * @param cacheDirectory the cache directory, created if necessary
+   * @param dpi the target resolution, in dots per inch
+   * @param jpegQuality the JPEG compression quality, between 0 and 1
+   * @return a preprocessor
+   */
+  public static ImagePreprocessor using(Path cacheDirectory, int dpi, float jpegQuality) {
+    checkArgument(dpi > 0);
+    checkArgument(0f <= jpegQuality && jpegQuality <= 1f);
+    return new ImagePreprocessor(cacheDirectory, dpi, jpegQuality);
+  }
+
+  static Optional<Double> inches(String length) {
+    final Matcher matcher = LENGTH.matcher(length.toLowerCase(Locale.ROOT));
+    if (!matcher.matches()) {
+      return Optional.empty();
+    }
+    final double value = Double.parseDouble(matcher.group(1));
+    final double factor = switch (matcher.group(2)) {
+      case "in" -> 1d;
+      case "cm" -> 1d / 2.54d;
+      case "mm" -> 1d / 25.4d;
+      case "pt" -> 1d / 72d;
+      case "pc" -> 12d / 72d;
+      default -> throw new IllegalStateException();
+    };
+    return Optional.of(value * factor);
+  }
+
+  static String unwrapUrl(String src) {
+    final Matcher matcher = URL.matcher(src);
+    return matcher.matches() ? matcher.group(1) : src.strip();
+  }
+
+  private static boolean isAuto(String value) {
+    return value.strip().equals("auto");
+  }
+
+  private final Path cacheDirectory;
+  private final int dpi;
+  private final float jpegQuality;
+
+  private ImagePreprocessor(Path cacheDirectory, int dpi, float jpegQuality) {
+    this.cacheDirectory = checkNotNull(cacheDirectory);
+    this.dpi = dpi;
+    this.jpegQuality = jpegQuality;
+  }
+
+  /**
+   * The result of preprocessing an image.
+   *
+   * @param uri the image to refer to
+   * @param widthInches the width at which to render it
+   */
+  public static record Preprocessed(URI uri, double widthInches) {
+  }
+
+  /**
+   * Returns a downsampled copy of the given image, if it is a raster image that has more pixels
+   * than needed to render it at the given width (or at its intrinsic width, if not given).
+   *
+   * @param image the image
+   * @param renderedWidthInches the rendered width, if it differs from the intrinsic width
+   * @return the downsampled copy, or an empty optional if the image can’t be read or decoded or
+   *         needs no downsampling
+   * @throws IOException iff writing to the cache fails
+   */
+  public Optional<Preprocessed> preprocess(URI image, Optional<Double> renderedWidthInches)
+      throws IOException {
+    final byte[] content;
+    try {
+      content = source(image).read();
+    } catch (IOException e) {
+      LOGGER.debug("Could not read {}, leaving it untouched.", image, e);
+      return Optional.empty();
+    }
+
+    /* Closing a memory stream does not fail. */
+    try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(content))) {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        return Optional.empty();
+      }
+      final ImageReader reader = readers.next();
+      try {
+        reader.setInput(in);
+        return preprocess(image, content, reader, renderedWidthInches);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private Optional<Preprocessed> preprocess(URI image, byte[] content, ImageReader reader,
+      Optional<Double> renderedWidthInches) throws IOException {
+    final Optional<Header> headerOpt = header(image, reader);
+    if (headerOpt.isEmpty()) {
+      return Optional.empty();
+    }
+    final Header header = headerOpt.get();
+    final double widthInches = renderedWidthInches.orElse(header.width() / header.dpi());
+    final int targetWidth = (int) Math.ceil(widthInches * dpi);
+    if (targetWidth >= header.width()) {
+      return Optional.empty();
+    }
+
+    final boolean opaque = header.opaque();
+    final String format = opaque ? "jpeg" : "png";
+    final Hasher hasher = Hashing.sha256().newHasher().putBytes(content).putInt(targetWidth)
+        .putString(format, StandardCharsets.UTF_8);
+    if (opaque) {
+      hasher.putFloat(jpegQuality);
+    }
+    final Path cached = cacheDirectory.resolve(hasher.hash() + (opaque ? ".jpg" : ".png"));
+    if (!Files.exists(cached)) {
+      final Optional<BufferedImage> original = decode(image, reader);
+      if (original.isEmpty()) {
+        return Optional.empty();
+      }
+      LOGGER.debug("Downsampling {} from {} to {} pixels wide.", image, header.width(),
+          targetWidth);
+      Files.createDirectories(cacheDirectory);
+      final BufferedImage scaled = scale(original.get(), targetWidth, opaque);
+      AtomicFiles.publish(cached, out -> {
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+          write(scaled, format, imageOut);
+        }
+      });
+    }
+    return Optional.of(new Preprocessed(cached.toUri(), widthInches));
+  }
+
+  private static ByteSource source(URI uri) throws IOException {
+    try {
+      return MoreFiles.asByteSource(Path.of(uri));
+    } catch (FileSystemNotFoundException | IllegalArgumentException e) {
+      return Resources.asByteSource(uri.toURL());
+    }
+  }
+
+  /**
+   * What the header of an image tells.
+   *
+   * @param width the width, in pixels
+   * @param dpi the horizontal resolution
+   * @param opaque whether the image has no alpha channel
+   */
+  private static record Header(int width, double dpi, boolean opaque) {
+  }
+
+  /**
+   * Reads the header of the image, without decoding its pixels.
+   *
+   * @return the header, or an empty optional if it can’t be read
+   */
+  private static Optional<Header> header(URI image, ImageReader reader) {
+    try {
+      final int width = reader.getWidth(0);
+      final double dpi = dpi(reader.getImageMetadata(0)).orElse(DEFAULT_SOURCE_DPI);
+      final ImageTypeSpecifier raw = reader.getRawImageType(0);
+      final ImageTypeSpecifier type = raw == null ? reader.getImageTypes(0).next() : raw;
+      return Optional.of(new Header(width, dpi, !type.getColorModel().hasAlpha()));
+    } catch (IOException | RuntimeException e) {
+      /* Image readers also throw unchecked exceptions on malformed input. */
+      LOGGER.debug("Could not read the header of {}, leaving it untouched.", image, e);
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<BufferedImage> decode(URI image, ImageReader reader) {
+    try {
+      return Optional.of(reader.read(0));
+    } catch (IOException | RuntimeException e) {
+      /* For example, a CMYK or truncated JPEG. */
+      LOGGER.debug("Could not decode {}, leaving it untouched.", image, e);
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<Double> dpi(IIOMetadata metadata) {
+    if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+      return Optional.empty();
+    }
+    final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_1.0");
+    final NodeList sizes = root.getElementsByTagName("HorizontalPixelSize");
+    if (sizes.getLength() == 0) {
+      return Optional.empty();
+    }
+    final String mmPerPixel = ((IIOMetadataNode) sizes.item(0)).getAttribute("value");
+    final double value = Double.parseDouble(mmPerPixel);
+    return value > 0d ? Optional.of(25.4d / value) : Optional.empty();
+  }
+
+  private static BufferedImage scale(BufferedImage original, int targetWidth, boolean opaque) {
+    BufferedImage current = original;
+    final int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+    /* Halving repeatedly then interpolating avoids the aliasing of a single bilinear step. */
+    do {
+      final int width = Math.max(targetWidth, current.getWidth() / 2);
+      final int height = Math.max(1,
+          (int) Math.round((double) original.getHeight() * width / original.getWidth()));
+      final BufferedImage next = new BufferedImage(width, height, type);
+      final Graphics2D graphics = next.createGraphics();
+      try {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+            RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(current, 0, 0, width, height, null);
+      } finally {
+        graphics.dispose();
+      }
+      current = next;
+    } while (current.getWidth() > targetWidth);
+    return current;
+  }
+
+  private void write(BufferedImage image, String format, ImageOutputStream out)
+      throws IOException {
+    final ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+    try {
+      writer.setOutput(out);
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      if (param.canWriteCompressed() && format.equals("jpeg")) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+      }
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  /**
+   * Returns a filter that reads from the given parent and preprocesses the images it refers to.
+   *
+   * @param parent the reader of the FO or DocBook document
+   * @param baseUri the base URI against which to resolve relative image references
+   * @return a filter
+   */
+  public XMLFilterImpl filter(XMLReader parent, URI baseUri) {
+    final XMLFilterImpl filter = new ReferencesFilter(baseUri);
+    filter.setParent(parent);
+    return filter;
+  }
+
+  /**
+   * Returns a source that reads the given input with the given reader and preprocesses the images
+   * it refers to.
+   *
+   * @param reader the reader of the FO or DocBook document
+   * @param input the document
+   * @param baseUri the base URI against which to resolve relative image references
+   * @return a source
+   */
+  public SAXSource asSource(XMLReader reader, InputSource input, URI baseUri) {
+    return new SAXSource(filter(reader, baseUri), input);
+  }
+
+  private class ReferencesFilter extends XMLFilterImpl {
+    private final URI baseUri;
+
+    ReferencesFilter(URI baseUri) {
+      this.baseUri = checkNotNull(baseUri);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+      final Attributes rewritten;
+      if (uri.equals(FO_NS) && localName.equals("external-graphic")) {
+        rewritten = rewrite(atts, "src", FO_WIDTHS, FO_OTHER_SIZES, true);
+      } else if (uri.equals(DOCBOOK_NS) && localName.equals("imagedata")) {
+        rewritten = rewrite(atts, "fileref", DOCBOOK_WIDTHS, DOCBOOK_OTHER_SIZES, false);
+      } else {
+        rewritten = atts;
+      }
+      super.startElement(uri, localName, qName, rewritten);
+    }
+
+    /**
+     * @param widthNames the attributes that give the rendered width, by decreasing priority; the
+     *        first one is the content width, which the rewritten reference sets
+     * @param otherSizeNames the other attributes that change the rendered width when no width is
+     *        given
+     */
+    private Attributes rewrite(Attributes atts, String refName, List<String> widthNames,
+        List<String> otherSizeNames, boolean fo) throws SAXException {
+      final int refIndex = atts.getIndex("", refName);
+      if (refIndex < 0) {
+        return atts;
+      }
+      final String ref = fo ? unwrapUrl(atts.getValue(refIndex)) : atts.getValue(refIndex);
+      final Optional<String> givenWidth = widthNames.stream().map(n -> atts.getValue("", n))
+          .filter(v -> v != null && !isAuto(v)).findFirst();
+      final Optional<Double> width;
+      if (givenWidth.isPresent()) {
+        width = inches(givenWidth.get());
+        if (width.isEmpty()) {
+          LOGGER.debug("Width {} of {} is not absolute, leaving it untouched.", givenWidth.get(),
+              ref);
+          return atts;
+        }
+      } else {
+        final boolean otherSize = otherSizeNames.stream().map(n -> atts.getValue("", n))
+            .anyMatch(v -> v != null && !isAuto(v));
+        if (otherSize) {
+          LOGGER.debug("Width of {} depends on other sizes, leaving it untouched.", ref);
+          return atts;
+        }
+        width = Optional.empty();
+      }
+      final URI image;
+      try {
+        image = baseUri.resolve(ref.replace(" ", "%20"));
+      } catch (IllegalArgumentException e) {
+        LOGGER.debug("Could not resolve {}, leaving it untouched.", ref, e);
+        return atts;
+      }
+      final Optional<Preprocessed> preprocessed;
+      try {
+        preprocessed = preprocess(image, width);
+      } catch (IOException e) {
+        throw new SAXException(e);
+      }
+      if (preprocessed.isEmpty()) {
+        return atts;
+      }
+
+      final AttributesImpl result = new AttributesImpl(atts);
+      final String newRef = preprocessed.get().uri().toString();
+      result.setValue(refIndex, fo ? "url('" + newRef + "')" : newRef);
+      final String newWidth =
+          String.format(Locale.ROOT, "%.4fin", preprocessed.get().widthInches());
+      final String contentWidthName = widthNames.get(0);
+      final int contentWidthIndex = result.getIndex("", contentWidthName);
+      if (contentWidthIndex < 0) {
+        result.addAttribute("", contentWidthName, contentWidthName, "CDATA", newWidth);
+      } else if (isAuto(result.getValue(contentWidthIndex))) {
+        result.setValue(contentWidthIndex, newWidth);
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("cache", cacheDirectory).add("dpi", dpi)
+        .add("jpegQuality", jpegQuality).toString();
+  }
+}
@@ -0,0 +1,215 @@
+package io.github.oliviercailloux.publish;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.xml.XMLConstants;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Turns the small DocBook fragments that inline conversion produces (text with entity references
+ * and a few elements, such as {@code a &lt; b <emphasis role="strong">c</emphasis>}) into SAX
+ * events.
+ * <p>
+ * This is a deliberately minimal tokenizer, not an XML parser: it accepts the well-formed fragments
+ * that {@link DocBookSaxConverter} and Asciidoctor substitutions produce (elements, attributes in
+ * double or single quotes, predefined and numeric character references), skips comments and
+ * processing instructions, and maps the {@code xml} and {@code xl} prefixes and unprefixed names to
+ * the XML, XLink and DocBook namespaces.
+ * </p>
+ */
+class InlineMarkup {
+  static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+
+  private static final ImmutableMap<String, String> PREDEFINED =
+      ImmutableMap.of("lt", "<", "gt", ">", "amp", "&", "quot", "\"", "apos", "'");
+
+  /**
+   * Escapes the given text for inclusion in a fragment, as content or attribute value.
+   *
+   * @param text the text
+   * @return the escaped text
+   */
+  static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"",
+        "&quot;");
+  }
+
+  /**
+   * Sends the given fragment to the given handler, as children of the current element.
+   *
+   * @param fragment the fragment
+   * @param handler the handler
+   * @throws SAXException iff the handler throws it, or the fragment is not well-formed
+   */
+  static void emit(String fragment, ContentHandler handler) throws SAXException {
+    new InlineMarkup(fragment, handler).emit();
+  }
+
+  static String unescape(String text) throws SAXException {
+    if (text.indexOf('&') < 0) {
+      return text;
+    }
+    final StringBuilder builder = new StringBuilder(text.length());
+    int i = 0;
+    while (i < text.length()) {
+      final char c = text.charAt(i);
+      if (c != '&') {
+        builder.append(c);
+        ++i;
+        continue;
+      }
+      final int end = text.indexOf(';', i);
+      if (end < 0) {
+        throw new SAXException("Unterminated reference in: " + text);
+      }
+      final String name = text.substring(i + 1, end);
+      if (name.startsWith("#x")) {
+        builder.appendCodePoint(Integer.parseInt(name.substring(2), 16));
+      } else if (name.startsWith("#")) {
+        builder.appendCodePoint(Integer.parseInt(name.substring(1)));
+      } else if (PREDEFINED.containsKey(name)) {
+        builder.append(PREDEFINED.get(name));
+      } else {
+        builder.append(text, i, end + 1);
+      }
+      i = end + 1;
+    }
+    return builder.toString();
+  }
+
+  private final String fragment;
+  private final ContentHandler handler;
+  private final Deque<String> open;
+  private int pos;
+
+  private InlineMarkup(String fragment, ContentHandler handler) {
+    this.fragment = fragment;
+    this.handler = handler;
+    open = new ArrayDeque<>();
+    pos = 0;
+  }
+
+  private void emit() throws SAXException {
+    while (pos < fragment.length()) {
+      final int lt = fragment.indexOf('<', pos);
+      final int textEnd = lt < 0 ? fragment.length() : lt;
+      if (textEnd > pos) {
+        final char[] text = unescape(fragment.substring(pos, textEnd)).toCharArray();
+        handler.characters(text, 0, text.length);
+      }
+      pos = textEnd;
+      if (lt >= 0) {
+        tag();
+      }
+    }
+    if (!open.isEmpty()) {
+      throw new SAXException("Unclosed " + open.peek() + " in: " + fragment);
+    }
+  }
+
+  private void tag() throws SAXException {
+    if (fragment.startsWith("<!--", pos)) {
+      pos = skipPast("-->");
+      return;
+    }
+    if (fragment.startsWith("<?", pos)) {
+      pos = skipPast("?>");
+      return;
+    }
+    if (fragment.startsWith("</", pos)) {
+      final int end = skipPast(">");
+      final String name = fragment.substring(pos + 2, end - 1).strip();
+      if (!name.equals(open.peek())) {
+        throw new SAXException("Unexpected end of " + name + " in: " + fragment);
+      }
+      open.pop();
+      handler.endElement(namespace(name), localName(name), name);
+      pos = end;
+      return;
+    }
+
+    ++pos;
+    final String name = name();
+    final AttributesImpl attributes = new AttributesImpl();
+    while (true) {
+      skipSpaces();
+      checkWellFormed(pos < fragment.length());
+      final char c = fragment.charAt(pos);
+      if (c == '/' || c == '>') {
+        break;
+      }
+      final String attribute = name();
+      skipSpaces();
+      checkWellFormed(fragment.charAt(pos) == '=');
+      ++pos;
+      skipSpaces();
+      final char quote = fragment.charAt(pos);
+      checkWellFormed(quote == '"' || quote == '\'');
+      final int valueEnd = fragment.indexOf(quote, pos + 1);
+      checkWellFormed(valueEnd > 0);
+      final String value = unescape(fragment.substring(pos + 1, valueEnd));
+      pos = valueEnd + 1;
+      final String attributeNs = attribute.contains(":") ? namespace(attribute) : "";
+      attributes.addAttribute(attributeNs, localName(attribute), attribute, "CDATA", value);
+    }
+    handler.startElement(namespace(name), localName(name), name, attributes);
+    if (fragment.charAt(pos) == '/') {
+      handler.endElement(namespace(name), localName(name), name);
+      pos = skipPast(">");
+    } else {
+      open.push(name);
+      ++pos;
+    }
+  }
+
+  private String name() throws SAXException {
+    final int start = pos;
+    while (pos < fragment.length()) {
+      final char c = fragment.charAt(pos);
+      if (Character.isWhitespace(c) || c == '=' || c == '/' || c == '>') {
+        break;
+      }
+      ++pos;
+    }
+    checkWellFormed(pos > start);
+    return fragment.substring(start, pos);
+  }
+
+  private void skipSpaces() {
+    while (pos < fragment.length() && Character.isWhitespace(fragment.charAt(pos))) {
+      ++pos;
+    }
+  }
+
+  private int skipPast(String end) throws SAXException {
+    final int index = fragment.indexOf(end, pos);
+    checkWellFormed(index >= 0);
+    return index + end.length();
+  }
+
+  private void checkWellFormed(boolean condition) throws SAXException {
+    if (!condition) {
+      throw new SAXException("Not well-formed at " + pos + ": " + fragment);
+    }
+  }
+
+  private static String localName(String qName) {
+    return qName.substring(qName.indexOf(':') + 1);
+  }
+
+  private String namespace(String qName) throws SAXException {
+    final int colon = qName.indexOf(':');
+    if (colon < 0) {
+      return DocBookSaxConverter.DOCBOOK_NS;
+    }
+    final String prefix = qName.substring(0, colon);
+    return switch (prefix) {
+      case "xml" -> XMLConstants.XML_NS_URI;
+      case "xl" -> XLINK_NS;
+      default -> throw new SAXException("Unknown prefix " + prefix + " in: " + fragment);
+    };
+  }
+}
@@ -2,9 +2,13 @@ package io.github.oliviercailloux.publish;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Strings;
 import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.escape.Escaper;
+import com.google.common.xml.XmlEscapers;
 import io.github.oliviercailloux.jaris.exceptions.Unchecker;
 import io.github.oliviercailloux.jaris.xml.SchemaHelper;
 import io.github.oliviercailloux.jaris.xml.XmlException;
@@ -14,14 +18,35 @@ import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import jakarta.xml.bind.SchemaOutputResolver;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
 import javax.xml.transform.Result;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
-
+import javax.xml.validation.SchemaFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSInput;
+import org.xml.sax.SAXException;
+
+/**
+ * Helps marshalling with JAXB, validating against the schema that the context generates.
+ * <p>
+ * When the context spans several namespaces, it generates one schema per namespace, which import
+ * each other; marshalling validates against all of them.
+ * </p>
+ * <p>
+ * Instances are thread-safe: the context is thread-safe, the schema is generated once under a lock
+ * and is immutable, and each marshalling uses its own marshaller.
+ * </p>
+ */
 public class JaxbHelper {
   public static final Unchecker<JAXBException, XmlException> JAXB_EXCEPTION_TO_XML_EXCEPTION =
       Unchecker.wrappingWith(XmlException::new);
@@ -34,16 +59,24 @@ public class JaxbHelper {
    */
   private static class InMemoryResolver extends SchemaOutputResolver {
     private final List<DOMResult> results = new ArrayList<>();
+    private final Map<String, DOMResult> byNamespace = new LinkedHashMap<>();
 
     @Override
     public Result createOutput(String namespaceUri, String suggestedFileName) throws IOException {
       DOMResult result = new DOMResult();
       result.setSystemId(suggestedFileName);
       results.add(result);
+      byNamespace.put(namespaceUri, result);
       return result;
     }
 
-    @SuppressWarnings("unused")
+    /**
+     * Returns the results, by target namespace (the empty string for no namespace).
+     */
+    public ImmutableMap<String, DOMResult> getResultsByNamespace() {
+      return ImmutableMap.copyOf(byNamespace);
+    }
+
     public ImmutableList<DOMResult> getResults() {
       return ImmutableList.copyOf(results);
     }
@@ -64,7 +97,15 @@ public class JaxbHelper {
     }
   }
 
-  private JAXBContext context;
+  /**
+   * The target namespace of the schema that imports the generated ones, when there are several.
+   */
+  private static final String IMPORTS_NAMESPACE = "urn:io.github.oliviercailloux.publish:imports";
+
+  private final JAXBContext context;
+  /**
+   * Generated on first use. Guarded by this instance.
+   */
   private Schema schema;
 
   public static JaxbHelper using(JAXBContext context) {
@@ -85,23 +126,62 @@ public class JaxbHelper {
     return context;
   }
 
-  private Schema lazyGetSchema() {
-    if (schema != null) {
-      final DOMSource generated;
-      {
-        final InMemoryResolver schemasHolder = new InMemoryResolver();
-        try {
-          context.generateSchema(schemasHolder);
-        } catch (IOException e) {
-          throw new VerifyException(e);
-        }
-        generated = schemasHolder.getResultAsSource();
+  private synchronized Schema lazyGetSchema() {
+    if (schema == null) {
+      final InMemoryResolver schemasHolder = new InMemoryResolver();
+      try {
+        context.generateSchema(schemasHolder);
+      } catch (IOException e) {
+        throw new VerifyException(e);
+      }
+      if (schemasHolder.getResults().size() >= 2) {
+        schema = asSchema(schemasHolder.getResultsByNamespace());
+      } else {
+        schema = SchemaHelper.schemaHelper().asSchema(schemasHolder.getResultAsSource());
       }
-      schema = SchemaHelper.schemaHelper().asSchema(generated);
     }
     return schema;
   }
 
+  /**
+   * Compiles the given schemas, which may import each other, into one schema.
+   * <p>
+   * The generated schemas refer to each other by file names that designate nothing, thus this
+   * compiles a schema that imports each namespace, and resolves every import by its namespace to
+   * the schema generated for it.
+   * </p>
+   */
+  private static Schema asSchema(Map<String, DOMResult> byNamespace) throws XmlException {
+    final Escaper escaper = XmlEscapers.xmlAttributeEscaper();
+    final StringBuilder root = new StringBuilder("<xs:schema xmlns:xs=\"")
+        .append(XMLConstants.W3C_XML_SCHEMA_NS_URI).append("\" targetNamespace=\"")
+        .append(IMPORTS_NAMESPACE).append("\">");
+    for (String namespace : byNamespace.keySet()) {
+      root.append(namespace.isEmpty() ? "<xs:import/>"
+          : "<xs:import namespace=\"" + escaper.escape(namespace) + "\"/>");
+    }
+    root.append("</xs:schema>");
+
+    final SchemaFactory factory = SchemaFactory.newDefaultInstance();
+    factory.setResourceResolver((type, namespaceUri, publicId, systemId, baseUri) -> {
+      final DOMResult result = byNamespace.get(Strings.nullToEmpty(namespaceUri));
+      if (result == null) {
+        return null;
+      }
+      final Document document = (Document) result.getNode();
+      final DOMImplementationLS ls = (DOMImplementationLS) document.getImplementation();
+      final LSInput input = ls.createLSInput();
+      input.setStringData(ls.createLSSerializer().writeToString(document));
+      input.setSystemId(result.getSystemId());
+      return input;
+    });
+    try {
+      return factory.newSchema(new StreamSource(new StringReader(root.toString())));
+    } catch (SAXException e) {
+      throw new XmlException(e);
+    }
+  }
+
   public Schema getSchema() {
     return lazyGetSchema();
   }
@@ -0,0 +1,190 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The text of an FO document as laid out by FOP, page by page, as given by
+ * {@link FoToPdfTransformer#layoutText(javax.xml.transform.Source)}, with a few assertions meant
+ * for checking the content of generated documents without rendering them as PDF and parsing them
+ * back.
+ * <p>
+ * The text of a page has one line per line area, in document order, with leading and trailing
+ * spaces removed; hyphenated words thus appear split. Searches (by the {@code contains} methods and
+ * assertions) ignore the line structure: they look in the text of the page where any sequence of
+ * white space counts as a single space, so that a searched text may span lines, but not pages.
+ * </p>
+ * <p>
+ * Instances are immutable.
+ * </p>
+ */
+public final class LaidOutText {
+  /**
+   * A laid out page.
+   *
+   * @param number the position of the page in the document, starting from one
+   * @param label the page number as formatted in the document, such as {@code iv}
+   * @param width the width of the page, in points
+   * @param height the height of the page, in points
+   * @param text the lines of text of the page, separated by new lines
+   */
+  public static record Page(int number, String label, double width, double height, String text) {
+    public Page {
+      checkArgument(number >= 1);
+      checkNotNull(label);
+      checkArgument(width >= 0d);
+      checkArgument(height >= 0d);
+      checkNotNull(text);
+    }
+
+    /**
+     * @param searched the text to look for
+     * @return {@code true} iff the searched text, with white spaces normalized, appears in this
+     *         page
+     */
+    public boolean contains(String searched) {
+      return normalized(text).contains(normalized(searched));
+    }
+  }
+
+  private static String normalized(String text) {
+    return text.strip().replaceAll("\\s+", " ");
+  }
+
+  static LaidOutText of(LayoutReport report, List<Page> pages) {
+    return new LaidOutText(report, pages);
+  }
+
+  private final LayoutReport report;
+  private final ImmutableList<Page> pages;
+
+  private LaidOutText(LayoutReport report, List<Page> pages) {
+    this.report = checkNotNull(report);
+    this.pages = ImmutableList.copyOf(pages);
+    checkArgument(this.pages.size() == report.pageCount());
+  }
+
+  /**
+   * @return the page count, the page sequences and the warnings of this layout
+   */
+  public LayoutReport report() {
+    return report;
+  }
+
+  /**
+   * @return the pages, in document order
+   */
+  public ImmutableList<Page> pages() {
+    return pages;
+  }
+
+  /**
+   * @param number the position of the page in the document, starting from one
+   * @return the page
+   * @throws IndexOutOfBoundsException iff no such page exists
+   */
+  public Page page(int number) {
+    return pages.get(number - 1);
+  }
+
+  /**
+   * @return the text of all pages, separated by new lines
+   */
+  public String text() {
+    return pages.stream().map(Page::text).collect(Collectors.joining("\n"));
+  }
+
+  /**
+   * @param searched the text to look for
+   * @return the numbers of the pages containing the searched text, in increasing order
+   */
+  public ImmutableList<Integer> pagesContaining(String searched) {
+    return pages.stream().filter(p -> p.contains(searched)).map(Page::number)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * @param searched the text to look for
+   * @return {@code true} iff some page contains the searched text
+   */
+  public boolean contains(String searched) {
+    return pages.stream().anyMatch(p -> p.contains(searched));
+  }
+
+  /**
+   * @param expected the expected number of pages
+   * @return this instance
+   * @throws AssertionError iff this layout has a different number of pages
+   */
+  public LaidOutText assertPageCount(int expected) {
+    if (pages.size() != expected) {
+      throw new AssertionError("Expected " + expected + " pages, got " + pages.size() + ".");
+    }
+    return this;
+  }
+
+  /**
+   * @param searched the text to look for
+   * @return this instance
+   * @throws AssertionError iff no page contains the searched text
+   */
+  public LaidOutText assertContains(String searched) {
+    if (!contains(searched)) {
+      throw new AssertionError("Expected ‘" + searched + "’ in:\n" + text());
+    }
+    return this;
+  }
+
+  /**
+   * @param number the position of the page in the document, starting from one
+   * @param searched the text to look for
+   * @return this instance
+   * @throws AssertionError iff the given page does not exist or does not contain the searched text
+   */
+  public LaidOutText assertContains(int number, String searched) {
+    if (number < 1 || number > pages.size()) {
+      throw new AssertionError("Expected page " + number + ", got " + pages.size() + " pages.");
+    }
+    final Page page = page(number);
+    if (!page.contains(searched)) {
+      throw new AssertionError(
+          "Expected ‘" + searched + "’ on page " + number + ", which reads:\n" + page.text());
+    }
+    return this;
+  }
+
+  /**
+   * @param searched the text to look for
+   * @return this instance
+   * @throws AssertionError iff some page contains the searched text
+   */
+  public LaidOutText assertNotContains(String searched) {
+    final ImmutableList<Integer> containing = pagesContaining(searched);
+    if (!containing.isEmpty()) {
+      throw new AssertionError("Unexpected ‘" + searched + "’ on pages " + containing + ".");
+    }
+    return this;
+  }
+
+  /**
+   * @return this instance
+   * @throws AssertionError iff FOP emitted warnings while laying out
+   */
+  public LaidOutText assertClean() {
+    if (!report.isClean()) {
+      throw new AssertionError("Expected no warnings, got: " + report.warnings());
+    }
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("pages", pages.size())
+        .add("warnings", report.warnings().size()).toString();
+  }
+}
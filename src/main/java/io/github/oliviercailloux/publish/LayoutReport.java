@@ -0,0 +1,42 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The outcome of laying out an FO document, as given by
+ * {@link FoToPdfTransformer#layout(javax.xml.transform.Source)}.
+ * <p>
+ * Instances are immutable.
+ * </p>
+ *
+ * @param pageCount the total number of pages
+ * @param sequencePageCounts the number of pages of each page sequence, in document order
+ * @param warnings the warnings that FOP emitted, formatted, in the order they were emitted; a
+ *        document with warnings would be rejected by {@link FoToPdfTransformer} rendering
+ */
+public record LayoutReport(int pageCount, ImmutableList<Integer> sequencePageCounts,
+    ImmutableList<String> warnings) {
+  public LayoutReport {
+    checkArgument(pageCount >= 0);
+    checkNotNull(sequencePageCounts);
+    checkNotNull(warnings);
+  }
+
+  /**
+   * @param maxPages a page limit
+   * @return {@code true} iff the document has at most the given number of pages
+   */
+  public boolean fits(int maxPages) {
+    return pageCount <= maxPages;
+  }
+
+  /**
+   * @return {@code true} iff FOP emitted no warning
+   */
+  public boolean isClean() {
+    return warnings.isEmpty();
+  }
+}
@@ -0,0 +1,112 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.util.Optional;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import net.sf.saxon.jaxp.SaxonTransformerFactory;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+/**
+ * A DocBook document parsed once into a tree, that can then serve as input to any number of
+ * transformations using the factory that parsed it.
+ * <p>
+ * When parsed by a Saxon factory, the tree is a Saxon TinyTree, which is immutable and can be
+ * read concurrently by several transformations. Otherwise, the tree is a DOM tree, which should be
+ * read by one transformation at a time.
+ * </p>
+ * <p>
+ * Instances are immutable; they are thread-safe iff {@link #isShareable() shareable}.
+ * </p>
+ */
+public class ParsedDocBook {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParsedDocBook.class);
+
+  /**
+   * Parses the given DocBook source into a tree suitable for transformations using the given
+   * factory.
+   *
+   * @param factory the factory that will transform the tree
+   * @param docBook the source to parse
+   * @return the parsed tree
+   * @throws XmlException iff parsing fails
+   */
+  public static ParsedDocBook parse(TransformerFactory factory, Source docBook)
+      throws XmlException {
+    if (factory instanceof SaxonTransformerFactory saxon) {
+      final Processor processor = new Processor(saxon.getConfiguration());
+      final XdmNode node;
+      try {
+        node = processor.newDocumentBuilder().build(docBook);
+      } catch (SaxonApiException e) {
+        throw new XmlException(e);
+      }
+      return new ParsedDocBook(Optional.of(node), Optional.empty(),
+          Optional.ofNullable(docBook.getSystemId()));
+    }
+
+    final DOMResult result = new DOMResult();
+    try {
+      final Transformer identity = factory.newTransformer();
+      identity.transform(docBook, result);
+    } catch (TransformerException e) {
+      throw new XmlException(e);
+    }
+    final Document document = (Document) result.getNode();
+    return new ParsedDocBook(Optional.empty(), Optional.of(document),
+        Optional.ofNullable(docBook.getSystemId()));
+  }
+
+  private final Optional<XdmNode> saxonTree;
+  private final Optional<Document> domTree;
+  private final Optional<String> systemId;
+
+  private ParsedDocBook(Optional<XdmNode> saxonTree, Optional<Document> domTree,
+      Optional<String> systemId) {
+    this.saxonTree = checkNotNull(saxonTree);
+    this.domTree = checkNotNull(domTree);
+    this.systemId = checkNotNull(systemId);
+  }
+
+  /**
+   * Returns {@code true} iff this tree may be read by several transformations concurrently.
+   *
+   * @return {@code true} iff this is a Saxon tree
+   */
+  public boolean isShareable() {
+    return saxonTree.isPresent();
+  }
+
+  /**
+   * Returns a source that reads this tree, to be transformed by the factory that parsed it.
+   *
+   * @return a source
+   */
+  public Source asSource() {
+    if (saxonTree.isPresent()) {
+      final NodeInfo node = saxonTree.get().getUnderlyingNode();
+      return node;
+    }
+    return new DOMSource(domTree.orElseThrow(), systemId.orElse(null));
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("systemId", systemId)
+        .add("shareable", isShareable()).toString();
+  }
+}
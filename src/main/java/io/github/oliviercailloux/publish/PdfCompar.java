@@ -7,6 +7,12 @@ import de.redsix.pdfcompare.PdfComparator;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
+/**
+ * Compares PDF documents pixel by pixel, using PdfCompare.
+ * <p>
+ * This class is thread-safe: each comparison uses its own comparator.
+ * </p>
+ */
 public class PdfCompar {
 
   public static CompareResult compare(ByteSource expected, ByteSource actual) throws IOException {
@@ -0,0 +1,222 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+/**
+ * A compact summary of the appearance of a PDF document, that permits to decide quickly whether two
+ * documents look the same, without comparing them pixel by pixel.
+ * <p>
+ * Each page is summarized by its dimensions, a digest of its text and a perceptual hash of its
+ * rendering: the page is rendered in grey levels at low resolution, reduced to a grid of
+ * {@value #HASH_SIDE} rows of {@value #HASH_SIDE} + 1 cells by averaging, and each bit of the hash
+ * tells whether a cell is lighter than its right neighbour. Two pages match iff their dimensions
+ * are equal (up to a hundredth of a point), and their text digests and their hashes are equal. The
+ * text digest catches small changes of text, which the hash, being coarse, may miss; whereas the
+ * hash catches changes of layout or images.
+ * </p>
+ * <p>
+ * Matching fingerprints thus strongly suggest, but do not prove, that the documents are identical
+ * pixel by pixel; {@link PdfFingerprintIndex} falls back to {@link PdfCompar} when they do not
+ * match, however small the difference, so that fingerprints never make a comparison more lenient
+ * than the pixel one.
+ * </p>
+ * <p>
+ * Instances are immutable.
+ * </p>
+ */
+public final class PdfFingerprint {
+  /**
+   * The fingerprint of a page.
+   *
+   * @param width the width of the media box, in points
+   * @param height the height of the media box, in points
+   * @param text a digest of the text of the page
+   * @param hash the perceptual hash of the page
+   */
+  public static record Page(float width, float height, HashCode text, HashCode hash) {
+    public Page {
+      checkNotNull(text);
+      checkNotNull(hash);
+      checkArgument(hash.bits() == HASH_SIDE * HASH_SIDE);
+    }
+
+    /**
+     * @param other the page to compare to
+     * @return {@code true} iff the pages have the same dimensions, text and hash
+     */
+    public boolean matches(Page other) {
+      return Math.abs(width - other.width) <= DIMENSION_TOLERANCE
+          && Math.abs(height - other.height) <= DIMENSION_TOLERANCE && text.equals(other.text)
+          && hash.equals(other.hash);
+    }
+
+    private String format() {
+      return width + "," + height + "," + text + "," + hash;
+    }
+
+    private static Page parse(String formatted) {
+      final List<String> parts = Splitter.on(',').splitToList(formatted);
+      checkArgument(parts.size() == 4, formatted);
+      return new Page(Float.parseFloat(parts.get(0)), Float.parseFloat(parts.get(1)),
+          HashCode.fromString(parts.get(2)), HashCode.fromString(parts.get(3)));
+    }
+  }
+
+  public static final int HASH_SIDE = 16;
+
+  private static final float DIMENSION_TOLERANCE = 0.01f;
+
+  /**
+   * The resolution at which pages are rendered before being reduced. Much lower than the one of
+   * {@link PdfCompar}, as only the averages over large cells matter.
+   */
+  private static final float DPI = 36f;
+
+  /**
+   * Computes the fingerprint of the given document, by rendering each of its pages.
+   *
+   * @param pdf the document
+   * @return its fingerprint
+   * @throws IOException iff reading the document fails, or it is not a valid PDF document
+   */
+  public static PdfFingerprint of(ByteSource pdf) throws IOException {
+    try (PDDocument document = Loader.loadPDF(pdf.read())) {
+      final PDFRenderer renderer = new PDFRenderer(document);
+      final PDFTextStripper stripper = new PDFTextStripper();
+      final ImmutableList.Builder<Page> pages = ImmutableList.builder();
+      for (int i = 0; i < document.getNumberOfPages(); ++i) {
+        final PDPage page = document.getPage(i);
+        stripper.setStartPage(i + 1);
+        stripper.setEndPage(i + 1);
+        final String text = stripper.getText(document);
+        final HashCode textDigest = HashCode
+            .fromLong(Hashing.sha256().hashString(text, StandardCharsets.UTF_8).asLong());
+        final float width = page.getMediaBox().getWidth();
+        final float height = page.getMediaBox().getHeight();
+        /* Tiny pages need a higher resolution to fill the grid. */
+        final float dpi = Math.max(DPI, 72f * (HASH_SIDE + 1) / Math.min(width, height));
+        final BufferedImage image = renderer.renderImageWithDPI(i, dpi, ImageType.GRAY);
+        pages.add(new Page(width, height, textDigest, hash(image)));
+      }
+      return new PdfFingerprint(pages.build());
+    }
+  }
+
+  /**
+   * Reads a fingerprint written by {@link #format()}.
+   *
+   * @param formatted the fingerprint, as written by {@link #format()}
+   * @return the fingerprint
+   * @throws IllegalArgumentException iff the given text is not a formatted fingerprint
+   */
+  public static PdfFingerprint parse(String formatted) {
+    final ImmutableList<Page> pages = formatted.isEmpty() ? ImmutableList.of()
+        : Splitter.on(';').splitToStream(formatted).map(Page::parse)
+            .collect(ImmutableList.toImmutableList());
+    return new PdfFingerprint(pages);
+  }
+
+  static HashCode hash(BufferedImage image) {
+    final Raster raster = image.getRaster();
+    final int width = raster.getWidth();
+    final int height = raster.getHeight();
+    checkArgument(width >= HASH_SIDE + 1 && height >= HASH_SIDE);
+    final double[][] cells = new double[HASH_SIDE][HASH_SIDE + 1];
+    for (int row = 0; row < HASH_SIDE; ++row) {
+      final int y0 = row * height / HASH_SIDE;
+      final int y1 = (row + 1) * height / HASH_SIDE;
+      for (int column = 0; column < HASH_SIDE + 1; ++column) {
+        final int x0 = column * width / (HASH_SIDE + 1);
+        final int x1 = (column + 1) * width / (HASH_SIDE + 1);
+        long sum = 0;
+        for (int y = y0; y < y1; ++y) {
+          for (int x = x0; x < x1; ++x) {
+            sum += raster.getSample(x, y, 0);
+          }
+        }
+        cells[row][column] = (double) sum / ((y1 - y0) * (x1 - x0));
+      }
+    }
+    final byte[] bits = new byte[HASH_SIDE * HASH_SIDE / Byte.SIZE];
+    for (int row = 0; row < HASH_SIDE; ++row) {
+      for (int column = 0; column < HASH_SIDE; ++column) {
+        if (cells[row][column] > cells[row][column + 1]) {
+          final int bit = row * HASH_SIDE + column;
+          bits[bit / Byte.SIZE] |= (byte) (1 << (bit % Byte.SIZE));
+        }
+      }
+    }
+    return HashCode.fromBytes(bits);
+  }
+
+  private final ImmutableList<Page> pages;
+
+  private PdfFingerprint(List<Page> pages) {
+    this.pages = ImmutableList.copyOf(pages);
+  }
+
+  /**
+   * @return the fingerprints of the pages, in document order
+   */
+  public ImmutableList<Page> pages() {
+    return pages;
+  }
+
+  /**
+   * @param other the fingerprint to compare to
+   * @return {@code true} iff both documents have the same number of pages, and each page matches
+   *         the corresponding one
+   */
+  public boolean matches(PdfFingerprint other) {
+    return pages.size() == other.pages.size() && IntStream.range(0, pages.size())
+        .allMatch(i -> pages.get(i).matches(other.pages.get(i)));
+  }
+
+  /**
+   * @return a single line representation of this fingerprint, that {@link #parse(String)} reads
+   */
+  public String format() {
+    return pages.stream().map(Page::format).collect(Collectors.joining(";"));
+  }
+
+  @Override
+  public boolean equals(Object o2) {
+    if (!(o2 instanceof PdfFingerprint)) {
+      return false;
+    }
+    final PdfFingerprint t2 = (PdfFingerprint) o2;
+    return pages.equals(t2.pages);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(pages);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("pages", pages).toString();
+  }
+}
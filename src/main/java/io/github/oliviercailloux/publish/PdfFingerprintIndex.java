@@ -0,0 +1,142 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares PDF documents to golden (expected) documents that rarely change, by computing the
+ * {@link PdfFingerprint} of each golden document once and keeping it in an index.
+ * <p>
+ * Golden documents are identified by a digest of their content, so that the index needs no names,
+ * and a golden document that changes simply gets a new entry. Comparing a document to a golden one
+ * thus costs, when the golden one is indexed, a digest of the golden document and the computation
+ * of the fingerprint of the compared document; only if the fingerprints do not match does the
+ * index resort to a full pixel comparison by {@link PdfCompar}, which decides.
+ * </p>
+ * <p>
+ * The index can be persisted in a properties file, so that fingerprints survive across processes.
+ * Entries are never removed; deleting the file resets the index.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ */
+public class PdfFingerprintIndex {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(PdfFingerprintIndex.class);
+
+  /**
+   * Returns an index that does not persist its fingerprints.
+   *
+   * @return an index
+   */
+  public static PdfFingerprintIndex inMemory() {
+    return new PdfFingerprintIndex(Optional.empty(), new Properties());
+  }
+
+  /**
+   * Returns an index that starts with the fingerprints found in the given file, if it exists, and
+   * updates the file after each new fingerprint.
+   *
+   * @param index the properties file
+   * @return an index
+   * @throws IOException iff the file exists and reading it fails
+   */
+  public static PdfFingerprintIndex persistedIn(Path index) throws IOException {
+    final Properties properties = new Properties();
+    if (Files.exists(index)) {
+      try (InputStream in = Files.newInputStream(index)) {
+        properties.load(in);
+      }
+    }
+    return new PdfFingerprintIndex(Optional.of(index), properties);
+  }
+
+  private final Optional<Path> indexFile;
+  private final Properties fingerprints;
+
+  private PdfFingerprintIndex(Optional<Path> indexFile, Properties fingerprints) {
+    this.indexFile = checkNotNull(indexFile);
+    this.fingerprints = checkNotNull(fingerprints);
+  }
+
+  /**
+   * Returns the fingerprint of the given golden document, computing and indexing it if this index
+   * does not have it yet.
+   *
+   * @param golden the document
+   * @return its fingerprint
+   * @throws IOException iff reading the document fails, or it is not a valid PDF document
+   */
+  public PdfFingerprint fingerprint(ByteSource golden) throws IOException {
+    final String key = golden.hash(Hashing.sha256()).toString();
+    final Optional<PdfFingerprint> indexed = indexed(key);
+    if (indexed.isPresent()) {
+      return indexed.get();
+    }
+    final PdfFingerprint computed = PdfFingerprint.of(golden);
+    index(key, computed);
+    return computed;
+  }
+
+  /**
+   * Decides whether the given document looks like the given golden one: either their fingerprints
+   * match, or, failing that, a pixel by pixel comparison finds no difference.
+   *
+   * @param golden the expected document
+   * @param actual the document to compare
+   * @return {@code true} iff the documents are considered equal
+   * @throws IOException iff reading a document fails, or it is not a valid PDF document
+   */
+  public boolean matches(ByteSource golden, ByteSource actual) throws IOException {
+    if (fingerprint(golden).matches(PdfFingerprint.of(actual))) {
+      return true;
+    }
+    LOGGER.debug("Fingerprints differ, comparing pixels.");
+    return PdfCompar.compare(golden, actual).isEqual();
+  }
+
+  /**
+   * @return the number of golden documents in this index
+   */
+  public synchronized int size() {
+    return fingerprints.size();
+  }
+
+  private synchronized Optional<PdfFingerprint> indexed(String key) {
+    return Optional.ofNullable(fingerprints.getProperty(key)).map(PdfFingerprint::parse);
+  }
+
+  private synchronized void index(String key, PdfFingerprint fingerprint) {
+    fingerprints.setProperty(key, fingerprint.format());
+    save();
+  }
+
+  private synchronized void save() {
+    if (indexFile.isEmpty()) {
+      return;
+    }
+    try {
+      AtomicFiles.publish(indexFile.get(),
+          out -> fingerprints.store(out, "PDF fingerprints by SHA-256 of the golden documents"));
+    } catch (IOException e) {
+      LOGGER.warn("Could not save fingerprints to " + indexFile.get() + ".", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("file", indexFile).add("size", size()).toString();
+  }
+}
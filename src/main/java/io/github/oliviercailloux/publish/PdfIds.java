@@ -0,0 +1,76 @@
+package io.github.oliviercailloux.publish;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the file identifier of a PDF document with one derived from its content.
+ * <p>
+ * The identifier is the pair of hexadecimal strings of the {@code /ID} entry of the trailer (or of
+ * the cross-reference stream dictionary). A linearized document has several such entries, one in
+ * the trailer of the first page and one in the last trailer, which all get replaced. The new
+ * identifier has the same length as the original one, so that the offsets that the
+ * cross-reference table records remain valid.
+ * </p>
+ */
+class PdfIds {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(PdfIds.class);
+
+  private static final Pattern ID =
+      Pattern.compile("/ID\\s*\\[\\s*<([0-9A-Fa-f]+)>\\s*<([0-9A-Fa-f]+)>\\s*\\]");
+
+  /**
+   * Returns a copy of the given document where all identifier strings are a SHA-256 digest of the
+   * rest of the document, truncated to the length of the original strings.
+   *
+   * @param pdf a PDF document
+   * @return the document with its new identifier, or an unchanged copy if it has no identifier
+   */
+  static byte[] withDigestIds(byte[] pdf) {
+    /* ISO-8859-1 maps each byte to one char, thus indices in the text are indices in the bytes. */
+    final String text = new String(pdf, StandardCharsets.ISO_8859_1);
+    final Matcher matcher = ID.matcher(text);
+    final ImmutableList.Builder<MatchResult> builder = ImmutableList.builder();
+    while (matcher.find()) {
+      builder.add(matcher.toMatchResult());
+    }
+    final ImmutableList<MatchResult> ids = builder.build();
+    if (ids.isEmpty()) {
+      LOGGER.debug("No identifier found, leaving the document unchanged.");
+      return pdf.clone();
+    }
+
+    /* Hashes the document with every identifier masked, as each is replaced. */
+    final Hasher hasher = Hashing.sha256().newHasher();
+    int previous = 0;
+    for (MatchResult id : ids) {
+      hasher.putBytes(pdf, previous, id.start() - previous);
+      previous = id.end();
+    }
+    hasher.putBytes(pdf, previous, pdf.length - previous);
+    final String digest = hasher.hash().toString().toUpperCase();
+
+    final byte[] result = pdf.clone();
+    for (MatchResult id : ids) {
+      replace(result, id.start(1), id.end(1), digest);
+      replace(result, id.start(2), id.end(2), digest);
+    }
+    return result;
+  }
+
+  private static void replace(byte[] pdf, int start, int end, String digest) {
+    for (int i = start; i < end; ++i) {
+      pdf[i] = (byte) digest.charAt((i - start) % digest.length());
+    }
+  }
+
+  private PdfIds() {}
+}
@@ -0,0 +1,310 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.VerifyException;
+import com.google.common.io.ByteSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.Optional;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.xmlgraphics.util.MimeConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Options of the FOP PDF renderer that govern the size of the output and the time spent writing
+ * it, to be given to {@link FoToPdfTransformer#withPdfOptions(PdfOptions)}.
+ * <p>
+ * The options are applied by rewriting the {@code renderer} element of the FOP configuration for
+ * the PDF MIME type, so that they are equivalent to the corresponding configuration settings
+ * documented by FOP; options left unset keep the value of the configuration. FOP does not expose
+ * the deflate compression level, and embeds JPEG images as they are: to reduce the size of images,
+ * use an {@link ImagePreprocessor}.
+ * </p>
+ * <p>
+ * Instances are immutable.
+ * </p>
+ */
+public class PdfOptions {
+  /**
+   * The compression applied to the PDF streams.
+   */
+  public static enum Compression {
+    /** Deflate compression (the FOP default): smaller output. */
+    FLATE("flate"),
+    /** No compression: faster to write, typically several times larger. */
+    NONE("null");
+
+    private final String filter;
+
+    private Compression(String filter) {
+      this.filter = filter;
+    }
+  }
+
+  /**
+   * What to do with the fonts that the configuration declares.
+   */
+  public static enum FontEmbedding {
+    /** Embed only the glyphs that the document uses. */
+    SUBSET("subset"),
+    /** Embed the whole fonts, which allows later editing of the document. */
+    FULL("full"),
+    /**
+     * Embed no font, relying on the fonts installed on the reader side: smallest output, but the
+     * rendering depends on the reader.
+     */
+    REFERENCED("");
+
+    private final String mode;
+
+    private FontEmbedding(String mode) {
+      this.mode = mode;
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns options that leave the configuration unchanged.
+   *
+   * @return options with nothing set
+   */
+  public static PdfOptions unchanged() {
+    return builder().build();
+  }
+
+  /**
+   * Builds {@link PdfOptions}. Instances are not thread-safe.
+   */
+  public static class Builder {
+    private Optional<Compression> compression = Optional.empty();
+    private Optional<FontEmbedding> fontEmbedding = Optional.empty();
+    private Optional<Boolean> objectStreams = Optional.empty();
+    private Optional<Boolean> linearization = Optional.empty();
+    private Optional<String> version = Optional.empty();
+
+    private Builder() {}
+
+    public Builder compression(Compression compression) {
+      this.compression = Optional.of(compression);
+      return this;
+    }
+
+    public Builder fontEmbedding(FontEmbedding fontEmbedding) {
+      this.fontEmbedding = Optional.of(fontEmbedding);
+      return this;
+    }
+
+    /**
+     * Whether to pack objects into compressed object streams, with a cross-reference stream; this
+     * requires PDF 1.5, which is selected if no version is set.
+     *
+     * @param objectStreams whether to use object streams
+     * @return this builder
+     */
+    public Builder objectStreams(boolean objectStreams) {
+      this.objectStreams = Optional.of(objectStreams);
+      return this;
+    }
+
+    /**
+     * Whether to linearize the output (“fast web view”), so that readers can display the first
+     * page before the whole file is downloaded; this costs some write time.
+     *
+     * @param linearization whether to linearize
+     * @return this builder
+     */
+    public Builder linearization(boolean linearization) {
+      this.linearization = Optional.of(linearization);
+      return this;
+    }
+
+    /**
+     * @param version the PDF version, such as {@code 1.5}
+     * @return this builder
+     */
+    public Builder version(String version) {
+      checkArgument(version.matches("1\\.[0-7]|2\\.0"), version);
+      this.version = Optional.of(version);
+      return this;
+    }
+
+    public PdfOptions build() {
+      final Optional<String> effectiveVersion =
+          version.or(() -> objectStreams.orElse(false) ? Optional.of("1.5") : Optional.empty());
+      checkArgument(!objectStreams.orElse(false) || effectiveVersion.get().compareTo("1.5") >= 0,
+          "Object streams require PDF 1.5.");
+      return new PdfOptions(compression, fontEmbedding, objectStreams, linearization,
+          effectiveVersion);
+    }
+  }
+
+  private final Optional<Compression> compression;
+  private final Optional<FontEmbedding> fontEmbedding;
+  private final Optional<Boolean> objectStreams;
+  private final Optional<Boolean> linearization;
+  private final Optional<String> version;
+
+  private PdfOptions(Optional<Compression> compression, Optional<FontEmbedding> fontEmbedding,
+      Optional<Boolean> objectStreams, Optional<Boolean> linearization, Optional<String> version) {
+    this.compression = checkNotNull(compression);
+    this.fontEmbedding = checkNotNull(fontEmbedding);
+    this.objectStreams = checkNotNull(objectStreams);
+    this.linearization = checkNotNull(linearization);
+    this.version = checkNotNull(version);
+  }
+
+  public Optional<Compression> compression() {
+    return compression;
+  }
+
+  public Optional<FontEmbedding> fontEmbedding() {
+    return fontEmbedding;
+  }
+
+  public Optional<Boolean> objectStreams() {
+    return objectStreams;
+  }
+
+  public Optional<Boolean> linearization() {
+    return linearization;
+  }
+
+  public Optional<String> version() {
+    return version;
+  }
+
+  /**
+   * Returns the given FOP configuration, modified to reflect these options.
+   *
+   * @param config a valid FOP configuration
+   * @return the modified configuration
+   * @throws SAXException iff the configuration can’t be parsed
+   * @throws IOException iff reading the configuration fails
+   */
+  ByteSource applyTo(ByteSource config) throws SAXException, IOException {
+    if (equals(unchanged())) {
+      return config;
+    }
+
+    final Document document;
+    try (InputStream in = config.openBufferedStream()) {
+      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      document = factory.newDocumentBuilder().parse(in);
+    } catch (ParserConfigurationException e) {
+      throw new VerifyException(e);
+    }
+
+    final Element renderer = pdfRenderer(document);
+    compression.ifPresent(c -> {
+      final Element filterList = replaceChild(renderer, "filterList");
+      final Element value = document.createElement("value");
+      value.setTextContent(c.filter);
+      filterList.appendChild(value);
+    });
+    version.ifPresent(v -> replaceChild(renderer, "version").setTextContent(v));
+    linearization
+        .ifPresent(l -> replaceChild(renderer, "linearization").setTextContent(l.toString()));
+    objectStreams.ifPresent(
+        o -> replaceChild(renderer, "use-object-streams").setTextContent(o.toString()));
+    fontEmbedding.ifPresent(f -> {
+      final Element fonts = child(renderer, "fonts");
+      if (f == FontEmbedding.REFERENCED) {
+        final Element referenced = replaceChild(fonts, "referenced-fonts");
+        final Element match = document.createElement("match");
+        match.setAttribute("font-family", ".*");
+        referenced.appendChild(match);
+      } else {
+        final NodeList declared = document.getElementsByTagName("font");
+        for (int i = 0; i < declared.getLength(); ++i) {
+          ((Element) declared.item(i)).setAttribute("embedding-mode", f.mode);
+        }
+      }
+    });
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      TransformerFactory.newDefaultInstance().newTransformer()
+          .transform(new DOMSource(document), new StreamResult(out));
+    } catch (TransformerException e) {
+      throw new VerifyException(e);
+    }
+    return ByteSource.wrap(out.toByteArray());
+  }
+
+  private static Element pdfRenderer(Document document) {
+    final Element root = document.getDocumentElement();
+    final Element renderers = child(root, "renderers");
+    for (Node node = renderers.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node instanceof Element e && e.getTagName().equals("renderer")
+          && e.getAttribute("mime").equals(MimeConstants.MIME_PDF)) {
+        return e;
+      }
+    }
+    final Element renderer = document.createElement("renderer");
+    renderer.setAttribute("mime", MimeConstants.MIME_PDF);
+    renderers.appendChild(renderer);
+    return renderer;
+  }
+
+  private static Element child(Element parent, String name) {
+    for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node instanceof Element e && e.getTagName().equals(name)) {
+        return e;
+      }
+    }
+    final Element child = parent.getOwnerDocument().createElement(name);
+    parent.appendChild(child);
+    return child;
+  }
+
+  private static Element replaceChild(Element parent, String name) {
+    final Element existing = child(parent, name);
+    final Element replacement = parent.getOwnerDocument().createElement(name);
+    parent.replaceChild(replacement, existing);
+    return replacement;
+  }
+
+  @Override
+  public boolean equals(Object o2) {
+    if (!(o2 instanceof PdfOptions)) {
+      return false;
+    }
+    final PdfOptions t2 = (PdfOptions) o2;
+    return compression.equals(t2.compression) && fontEmbedding.equals(t2.fontEmbedding)
+        && objectStreams.equals(t2.objectStreams) && linearization.equals(t2.linearization)
+        && version.equals(t2.version);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(compression, fontEmbedding, objectStreams, linearization, version);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).omitNullValues()
+        .add("compression", compression.orElse(null))
+        .add("fontEmbedding", fontEmbedding.orElse(null))
+        .add("objectStreams", objectStreams.orElse(null))
+        .add("linearization", linearization.orElse(null)).add("version", version.orElse(null))
+        .toString();
+  }
+}
@@ -0,0 +1,116 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Limits on the resources that rendering one document may use, to be given to
+ * {@link FoToPdfTransformer#withBudget(RenderBudget)}.
+ * <p>
+ * Limits are enforced cooperatively: the elapsed time is checked at each event of the FO document
+ * (which covers the time spent producing it, for example by an XSLT transformation feeding the
+ * renderer), at each page and at each write of the output; the number of pages is checked as pages
+ * are rendered; and the number of bytes as they are written. A breach makes the rendering stop at
+ * the next check with a {@link RenderBudgetExceededException}. Layout of a single page sequence is
+ * not interruptible, so a timeout may be noticed late for a document consisting of one huge page
+ * sequence; giving a page limit as well bounds that delay.
+ * </p>
+ * <p>
+ * Instances are immutable.
+ * </p>
+ */
+public class RenderBudget {
+  /**
+   * Returns a budget with no limit.
+   *
+   * @return an unlimited budget
+   */
+  public static RenderBudget unlimited() {
+    return new RenderBudget(Optional.empty(), Optional.empty(), Optional.empty());
+  }
+
+  private final Optional<Duration> timeout;
+  private final Optional<Integer> maxPages;
+  private final Optional<Long> maxOutputBytes;
+
+  private RenderBudget(Optional<Duration> timeout, Optional<Integer> maxPages,
+      Optional<Long> maxOutputBytes) {
+    this.timeout = checkNotNull(timeout);
+    this.maxPages = checkNotNull(maxPages);
+    this.maxOutputBytes = checkNotNull(maxOutputBytes);
+  }
+
+  /**
+   * @param timeout the wall-clock time that rendering a document may take, from the start of the
+   *        rendering call
+   * @return a budget with the given timeout and the other limits of this one
+   */
+  public RenderBudget withTimeout(Duration timeout) {
+    checkArgument(!timeout.isNegative() && !timeout.isZero());
+    return new RenderBudget(Optional.of(timeout), maxPages, maxOutputBytes);
+  }
+
+  /**
+   * @param maxPages the number of pages that a document may have
+   * @return a budget with the given page limit and the other limits of this one
+   */
+  public RenderBudget withMaxPages(int maxPages) {
+    checkArgument(maxPages >= 1);
+    return new RenderBudget(timeout, Optional.of(maxPages), maxOutputBytes);
+  }
+
+  /**
+   * @param maxOutputBytes the size that the PDF of a document may have
+   * @return a budget with the given size limit and the other limits of this one
+   */
+  public RenderBudget withMaxOutputBytes(long maxOutputBytes) {
+    checkArgument(maxOutputBytes >= 1);
+    return new RenderBudget(timeout, maxPages, Optional.of(maxOutputBytes));
+  }
+
+  public Optional<Duration> timeout() {
+    return timeout;
+  }
+
+  public Optional<Integer> maxPages() {
+    return maxPages;
+  }
+
+  public Optional<Long> maxOutputBytes() {
+    return maxOutputBytes;
+  }
+
+  /**
+   * @return {@code true} iff no limit is set
+   */
+  public boolean isUnlimited() {
+    return timeout.isEmpty() && maxPages.isEmpty() && maxOutputBytes.isEmpty();
+  }
+
+  @Override
+  public boolean equals(Object o2) {
+    if (!(o2 instanceof RenderBudget)) {
+      return false;
+    }
+    final RenderBudget t2 = (RenderBudget) o2;
+    return timeout.equals(t2.timeout) && maxPages.equals(t2.maxPages)
+        && maxOutputBytes.equals(t2.maxOutputBytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(timeout, maxPages, maxOutputBytes);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).omitNullValues().add("timeout", timeout.orElse(null))
+        .add("maxPages", maxPages.orElse(null)).add("maxOutputBytes", maxOutputBytes.orElse(null))
+        .toString();
+  }
+}
@@ -0,0 +1,33 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.oliviercailloux.jaris.xml.XmlException;
+
+/**
+ * Thrown when rendering a document is stopped because it exceeded its {@link RenderBudget}.
+ */
+public class RenderBudgetExceededException extends XmlException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The limits that a rendering may exceed.
+   */
+  public static enum Limit {
+    TIMEOUT, PAGES, OUTPUT_BYTES
+  }
+
+  private final Limit limit;
+
+  RenderBudgetExceededException(Limit limit, String message) {
+    super(message);
+    this.limit = checkNotNull(limit);
+  }
+
+  /**
+   * @return the limit that was exceeded
+   */
+  public Limit limit() {
+    return limit;
+  }
+}
@@ -0,0 +1,279 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.MoreObjects;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs render jobs on a fixed number of threads, interactive jobs first, admitting a job only when
+ * the memory that it is expected to need fits in a budget, so that a few huge batch jobs neither
+ * starve previews nor push the JVM into GC thrashing.
+ * <p>
+ * Each job declares a priority, a kind (such as the name of a document family: jobs of the same
+ * kind are expected to need similar memory per input byte) and the size of its input. Pending jobs
+ * are started in order of priority, then of submission. Batch jobs never occupy all the threads
+ * (unless there is only one), so that an interactive job can always start as soon as memory
+ * allows; and queued batch jobs are deferred whenever an interactive job is waiting.
+ * </p>
+ * <p>
+ * A job is admitted if the memory reserved by the running jobs plus its own estimate fits in the
+ * budget, or if nothing is running (so that a job bigger than the budget still runs, alone). The
+ * estimate of a job is its input size times the bytes per input byte measured for its kind, or
+ * {@link #DEFAULT_BYTES_PER_INPUT_BYTE} before any measure. Measures are taken on the jobs that ran
+ * alone, as the peak heap usage during the job minus the usage when it started: the JVM does not
+ * permit to attribute heap usage to concurrent jobs, and splitting the usage of a period among the
+ * jobs that ran during it would blame small jobs for the peaks of big ones. Measures are averaged
+ * over the last {@link #WINDOW} ones.
+ * </p>
+ * <p>
+ * As a consequence, estimates are learned only when the load leaves gaps: under a steady load, with
+ * always several jobs running, a kind keeps the estimate it had (possibly the default one). A job
+ * that starts when nothing runs is measured only if no other job starts before it ends, which the
+ * memory admission favors for the jobs estimated to need most of the budget.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ */
+public class RenderScheduler implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(RenderScheduler.class);
+
+  /**
+   * The initial estimate of the heap that rendering needs per byte of input, in the order of what
+   * FOP needs for an FO document of average density.
+   */
+  public static final double DEFAULT_BYTES_PER_INPUT_BYTE = 30d;
+
+  public static final int WINDOW = 20;
+
+  public static enum Priority {
+    /** Small jobs that a user is waiting for, such as previews. */
+    INTERACTIVE,
+    /** Jobs that may be deferred. */
+    BATCH
+  }
+
+  /**
+   * Returns a scheduler with the given number of threads and a memory budget of half the maximal
+   * heap size.
+   *
+   * @param threads the number of jobs that may run concurrently
+   * @return a scheduler
+   */
+  public static RenderScheduler withThreads(int threads) {
+    return withThreadsAndBudget(threads, Runtime.getRuntime().maxMemory() / 2);
+  }
+
+  /**
+   * Returns a scheduler with the given number of threads and memory budget.
+   *
+   * @param threads the number of jobs that may run concurrently
+   * @param memoryBudget the number of bytes of heap that running jobs may be expected to use
+   * @return a scheduler
+   */
+  public static RenderScheduler withThreadsAndBudget(int threads, long memoryBudget) {
+    checkArgument(threads >= 1);
+    checkArgument(memoryBudget >= 1);
+    return new RenderScheduler(threads, memoryBudget);
+  }
+
+  private static record Pending<T>(Priority priority, long sequence, String kind, long inputSize,
+      long estimate, Callable<T> job, CompletableFuture<T> future) {
+  }
+
+  private static final Comparator<Pending<?>> ORDER =
+      Comparator.<Pending<?>, Priority>comparing(Pending::priority)
+          .thenComparingLong(Pending::sequence);
+
+  private final int threads;
+  private final int batchThreads;
+  private final long memoryBudget;
+  private final ExecutorService executor;
+  private final PriorityQueue<Pending<?>> queue;
+  private final Map<String, Double> bytesPerInputByte;
+  private final Map<String, Integer> measures;
+  private long sequence;
+  private int running;
+  private int runningBatch;
+  private long reserved;
+  /**
+   * The job that started when nothing else ran and with which nothing else has run since, if any.
+   */
+  private Pending<?> solo;
+  private boolean closed;
+
+  private RenderScheduler(int threads, long memoryBudget) {
+    this.threads = threads;
+    batchThreads = Math.max(1, threads - 1);
+    this.memoryBudget = memoryBudget;
+    final AtomicInteger count = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(threads, r -> {
+      final Thread thread = new Thread(r, "render-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    queue = new PriorityQueue<>(ORDER);
+    bytesPerInputByte = new HashMap<>();
+    measures = new HashMap<>();
+    sequence = 0;
+    running = 0;
+    runningBatch = 0;
+    reserved = 0;
+    solo = null;
+    closed = false;
+  }
+
+  /**
+   * Queues the given job.
+   *
+   * @param <T> the type of result of the job
+   * @param priority the priority of the job
+   * @param kind the kind of the job, to which the memory measures are associated
+   * @param inputSize the size of the input of the job, in bytes
+   * @param job the job
+   * @return a future that completes with the result of the job, or exceptionally with what it threw
+   * @throws IllegalStateException iff this scheduler is closed
+   */
+  public synchronized <T> CompletableFuture<T> submit(Priority priority, String kind,
+      long inputSize, Callable<T> job) {
+    checkState(!closed);
+    checkNotNull(priority);
+    checkNotNull(job);
+    checkArgument(inputSize >= 0);
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    queue.add(new Pending<>(priority, sequence++, kind, inputSize, estimate(kind, inputSize), job,
+        future));
+    dispatch();
+    return future;
+  }
+
+  /**
+   * Returns the heap that a job of the given kind and input size is expected to need.
+   *
+   * @param kind the kind of job
+   * @param inputSize the size of the input, in bytes
+   * @return a number of bytes
+   */
+  public synchronized long estimate(String kind, long inputSize) {
+    final double ratio =
+        bytesPerInputByte.getOrDefault(checkNotNull(kind), DEFAULT_BYTES_PER_INPUT_BYTE);
+    return Math.round(inputSize * ratio);
+  }
+
+  private synchronized void dispatch() {
+    while (running < threads && !queue.isEmpty()) {
+      final Pending<?> next = queue.peek();
+      if (next.priority() == Priority.BATCH && runningBatch >= batchThreads) {
+        /* Interactive jobs come first in the queue, so none is waiting. */
+        break;
+      }
+      if (running > 0 && reserved + next.estimate() > memoryBudget) {
+        LOGGER.debug("Deferring {} job of {} bytes, {} reserved.", next.priority(),
+            next.estimate(), reserved);
+        break;
+      }
+      queue.remove();
+      solo = running == 0 ? next : null;
+      ++running;
+      if (next.priority() == Priority.BATCH) {
+        ++runningBatch;
+      }
+      reserved += next.estimate();
+      executor.execute(() -> run(next));
+    }
+  }
+
+  private <T> void run(Pending<T> pending) {
+    final long before;
+    synchronized (this) {
+      if (solo == pending) {
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+      }
+      before = heapUsed();
+    }
+    try {
+      pending.future().complete(pending.job().call());
+    } catch (Exception e) {
+      pending.future().completeExceptionally(e);
+    } catch (Error e) {
+      pending.future().completeExceptionally(e);
+      throw e;
+    } finally {
+      synchronized (this) {
+        if (solo == pending) {
+          final long peak = heapPools().stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+          measure(pending, peak - before);
+        }
+        solo = null;
+        --running;
+        if (pending.priority() == Priority.BATCH) {
+          --runningBatch;
+        }
+        reserved -= pending.estimate();
+        dispatch();
+      }
+    }
+  }
+
+  private synchronized void measure(Pending<?> pending, long used) {
+    if (pending.inputSize() == 0 || used <= 0) {
+      return;
+    }
+    final double ratio = (double) used / pending.inputSize();
+    final int count = measures.merge(pending.kind(), 1, Integer::sum);
+    final int weight = Math.min(count - 1, WINDOW - 1);
+    bytesPerInputByte.merge(pending.kind(), ratio,
+        (old, latest) -> (old * weight + latest) / (weight + 1));
+    LOGGER.debug("Measured {} bytes for {} ({} per input byte).", used, pending.kind(), ratio);
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    return ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(p -> p.getType() == MemoryType.HEAP && p.isValid()).toList();
+  }
+
+  private static long heapUsed() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * Cancels the pending jobs and waits for the running ones to end.
+   *
+   * @throws InterruptedException iff interrupted while waiting
+   */
+  @Override
+  public void close() throws InterruptedException {
+    synchronized (this) {
+      closed = true;
+      queue.forEach(p -> p.future().cancel(false));
+      queue.clear();
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(this).add("threads", threads).add("budget", memoryBudget)
+        .add("running", running).add("reserved", reserved).add("queued", queue.size()).toString();
+  }
+}
@@ -0,0 +1,157 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.transform.TransformerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Collects the external resources that an FO document references, as it passes through, and
+ * fetches them in parallel into a {@link CachingResourceResolver}, so that FOP finds them in
+ * memory during layout, and so that a missing resource rejects the document before any layout.
+ * <p>
+ * The references are the {@code src} attributes of {@code fo:external-graphic} and
+ * {@code fo:color-profile} and the {@code url()} values of the resource properties, such as
+ * {@code background-image}; the destinations of links, such as the {@code external-destination}
+ * of {@code fo:basic-link}, are not resources and are not fetched. Fonts are not referenced by FO
+ * documents but by the FOP configuration, which FOP loads once per factory. References are
+ * resolved against the base URI of the FOP factory, as FOP does; {@code data:} URIs are ignored.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+class ResourcePrefetcher extends XMLFilterImpl {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResourcePrefetcher.class);
+
+  /**
+   * The properties, other than {@code src}, whose {@code url()} values FOP loads.
+   */
+  private static final ImmutableSet<String> RESOURCE_PROPERTIES =
+      ImmutableSet.of("background-image");
+
+  private static final Pattern URL = Pattern.compile("url\\(\\s*['\"]?(.*?)['\"]?\\s*\\)");
+
+  private final Set<String> references;
+
+  ResourcePrefetcher() {
+    references = new LinkedHashSet<>();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts)
+      throws SAXException {
+    final boolean srcElement = uri.equals(ImagePreprocessor.FO_NS)
+        && (localName.equals("external-graphic") || localName.equals("color-profile"));
+    for (int i = 0; i < atts.getLength(); ++i) {
+      if (!atts.getURI(i).isEmpty()) {
+        continue;
+      }
+      final String name = atts.getLocalName(i);
+      final String value = atts.getValue(i);
+      if (srcElement && name.equals("src")) {
+        references.add(ImagePreprocessor.unwrapUrl(value));
+      } else if (RESOURCE_PROPERTIES.contains(name)) {
+        final Matcher matcher = URL.matcher(value);
+        while (matcher.find()) {
+          references.add(matcher.group(1).strip());
+        }
+      }
+    }
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  /**
+   * Returns the references seen so far, as written in the document.
+   */
+  ImmutableSet<String> references() {
+    return ImmutableSet.copyOf(references);
+  }
+
+  /**
+   * Returns the references seen so far, resolved against the given base URI; references that are
+   * not valid URIs are left for FOP to report.
+   */
+  ImmutableSet<URI> resolved(URI base) {
+    final ImmutableSet.Builder<URI> resolved = ImmutableSet.builder();
+    for (String reference : references) {
+      if (reference.isEmpty() || reference.startsWith("data:")) {
+        continue;
+      }
+      try {
+        /* As FOP does, tolerate spaces and backslashes. */
+        resolved.add(base.resolve(new URI(reference.replace(" ", "%20").replace('\\', '/'))));
+      } catch (URISyntaxException e) {
+        LOGGER.debug("Not prefetching invalid reference {}.", reference);
+      }
+    }
+    return resolved.build();
+  }
+
+  /**
+   * Fetches the given resources in parallel into the given cache, waiting for all of them, but not
+   * beyond the deadline of the given meter.
+   *
+   * @param resources the resources to fetch
+   * @param resolver the cache
+   * @param executor runs the fetches
+   * @param meter the meter of the rendering that needs the resources
+   * @throws RenderBudgetExceededException iff the fetches do not complete before the deadline
+   * @throws XmlException wrapping a {@link TransformerException} that wraps a
+   *         {@link FileNotFoundException}, iff a resource does not exist, as when FOP reports it
+   * @throws IOException iff fetching a resource fails otherwise
+   */
+  static void prefetch(Set<URI> resources, CachingResourceResolver resolver, Executor executor,
+      BudgetMeter meter) throws XmlException, IOException {
+    checkNotNull(resolver);
+    checkNotNull(meter);
+    final CompletableFuture<?>[] fetches = resources.stream()
+        .map(r -> CompletableFuture.runAsync(() -> {
+          try {
+            resolver.prefetch(r);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }, executor)).toArray(CompletableFuture<?>[]::new);
+    final CompletableFuture<Void> all = CompletableFuture.allOf(fetches);
+    meter.remaining().ifPresent(r -> all.orTimeout(r.toNanos(), TimeUnit.NANOSECONDS));
+    try {
+      all.join();
+    } catch (CompletionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof TimeoutException) {
+        meter.checkTime();
+      }
+      if (cause instanceof UncheckedIOException unchecked) {
+        final IOException io = unchecked.getCause();
+        if (io instanceof FileNotFoundException) {
+          throw new XmlException(new TransformerException(io));
+        }
+        throw io;
+      }
+      throw e;
+    }
+    LOGGER.debug("Prefetched {} resources.", resources.size());
+  }
+}
@@ -0,0 +1,147 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import javax.xml.transform.sax.SAXSource;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * An {@link XMLReader} that parses nothing: when asked to parse, it lets an emitter send events to
+ * its content handler. This permits to expose as a {@link SAXSource} documents that are produced as
+ * events, so that any transformer or validator can consume them without an intermediate text
+ * serialization.
+ * <p>
+ * The events must be namespace-aware, with no {@code xmlns} attributes (the only mode that this
+ * reader supports).
+ * </p>
+ */
+class SaxEmittingReader implements XMLReader {
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+  private static final String NAMESPACE_PREFIXES =
+      "http://xml.org/sax/features/namespace-prefixes";
+
+  /**
+   * Sends a document to a content handler.
+   */
+  @FunctionalInterface
+  static interface Emitter {
+    void emit(ContentHandler handler) throws SAXException, IOException;
+  }
+
+  /**
+   * Returns a source that lets the given emitter send its events to whoever consumes the source.
+   * The source can be consumed once per call that the emitter supports.
+   *
+   * @param emitter sends the document
+   * @param systemId the system id of the document, used as base URI, or {@code null}
+   * @return a source
+   */
+  static SAXSource source(Emitter emitter, String systemId) {
+    final InputSource input = new InputSource(systemId);
+    final SAXSource source = new SAXSource(new SaxEmittingReader(emitter), input);
+    source.setSystemId(systemId);
+    return source;
+  }
+
+  private final Emitter emitter;
+  private ContentHandler contentHandler;
+  private DTDHandler dtdHandler;
+  private EntityResolver entityResolver;
+  private ErrorHandler errorHandler;
+
+  SaxEmittingReader(Emitter emitter) {
+    this.emitter = checkNotNull(emitter);
+    final DefaultHandler noOp = new DefaultHandler();
+    contentHandler = noOp;
+    dtdHandler = noOp;
+    entityResolver = noOp;
+    errorHandler = noOp;
+  }
+
+  @Override
+  public boolean getFeature(String name) throws SAXNotRecognizedException {
+    return switch (name) {
+      case NAMESPACES -> true;
+      case NAMESPACE_PREFIXES -> false;
+      default -> throw new SAXNotRecognizedException(name);
+    };
+  }
+
+  @Override
+  public void setFeature(String name, boolean value)
+      throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (getFeature(name) != value) {
+      throw new SAXNotSupportedException(name);
+    }
+  }
+
+  @Override
+  public Object getProperty(String name) throws SAXNotRecognizedException {
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setProperty(String name, Object value) throws SAXNotRecognizedException {
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setEntityResolver(EntityResolver resolver) {
+    entityResolver = resolver;
+  }
+
+  @Override
+  public EntityResolver getEntityResolver() {
+    return entityResolver;
+  }
+
+  @Override
+  public void setDTDHandler(DTDHandler handler) {
+    dtdHandler = handler;
+  }
+
+  @Override
+  public DTDHandler getDTDHandler() {
+    return dtdHandler;
+  }
+
+  @Override
+  public void setContentHandler(ContentHandler handler) {
+    contentHandler = handler;
+  }
+
+  @Override
+  public ContentHandler getContentHandler() {
+    return contentHandler;
+  }
+
+  @Override
+  public void setErrorHandler(ErrorHandler handler) {
+    errorHandler = handler;
+  }
+
+  @Override
+  public ErrorHandler getErrorHandler() {
+    return errorHandler;
+  }
+
+  @Override
+  public void parse(InputSource input) throws IOException, SAXException {
+    emitter.emit(contentHandler);
+  }
+
+  @Override
+  public void parse(String systemId) throws IOException, SAXException {
+    emitter.emit(contentHandler);
+  }
+}
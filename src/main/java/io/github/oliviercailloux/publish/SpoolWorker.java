@@ -0,0 +1,359 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.io.MoreFiles;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import io.github.oliviercailloux.jaris.xml.XmlTransformer;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the jobs found in a spool directory, in cooperation with any number of other workers
+ * (in this process, in other processes, or on other machines sharing the file system), without
+ * any broker: the file system arbitrates.
+ * <p>
+ * The spool directory contains the sub-directories {@code pending}, {@code leased}, {@code done}
+ * and {@code failed}. A job is a file put in {@code pending} (see
+ * {@link #submit(Path, String, ByteSource)}). A worker claims a job by renaming it atomically into
+ * {@code leased}, with a name that identifies the worker: if several workers try to claim the same
+ * job, exactly one rename succeeds. While rendering, the worker renews its lease by updating the
+ * modification time of the leased file. The PDF is published atomically in {@code done} (see
+ * {@link AtomicFiles}), then the leased file is deleted; if rendering fails, the job is moved to
+ * {@code failed}, next to a file containing the error.
+ * </p>
+ * <p>
+ * A lease that has not been renewed for the lease duration is considered abandoned (typically
+ * because its worker crashed): any idle worker moves it back to {@code pending}, and the job is
+ * rendered again. As publishing is atomic, a job rendered twice (by a worker presumed dead but
+ * merely slow) yields a single, complete PDF. The lease duration must be large compared to the
+ * clock skew between the machines and to the pauses of the workers (such as long garbage
+ * collections); a job that crashes every worker that renders it is retried forever.
+ * </p>
+ * <p>
+ * Jobs are FO documents (named {@code *.fo}) or, if the worker renderer supports it, DocBook
+ * documents. File names starting with a dot are ignored, so that files being written do not get
+ * claimed. Idle workers poll the spool directory, as watch services do not see changes made by
+ * other machines.
+ * </p>
+ * <p>
+ * Instances are thread-safe, but a worker is meant to be run by one thread; run several workers
+ * (with their own renderers) to render in parallel.
+ * </p>
+ */
+public class SpoolWorker implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(SpoolWorker.class);
+
+  public static final Duration DEFAULT_LEASE = Duration.ofMinutes(2);
+
+  public static final Duration DEFAULT_POLL = Duration.ofMillis(500);
+
+  private static final String SEPARATOR = "~";
+
+  /**
+   * Renders a job to PDF.
+   */
+  @FunctionalInterface
+  public static interface JobRenderer {
+    /**
+     * Renders the given job.
+     *
+     * @param name the name of the job, as submitted, such as {@code Book.fo}
+     * @param job the file of the job, whose name carries a lease suffix and thus differs from the
+     *        name of the job
+     * @param pdf where to write the PDF
+     * @throws XmlException iff rendering fails
+     * @throws IOException iff reading the job or writing fails
+     */
+    void render(String name, Path job, OutputStream pdf) throws XmlException, IOException;
+  }
+
+  /**
+   * Returns a renderer of FO jobs.
+   *
+   * @param toPdf the transformer
+   * @return a renderer
+   */
+  public static JobRenderer using(FoToPdfTransformer toPdf) {
+    checkNotNull(toPdf);
+    return (name, job, pdf) -> {
+      checkArgument(MoreFiles.getFileExtension(Path.of(name)).equals("fo"), "Not an FO job: %s.",
+          name);
+      toPdf.render(toPdf.identity(new StreamSource(job.toFile())), pdf);
+    };
+  }
+
+  /**
+   * Returns a renderer of FO jobs and of DocBook jobs (named {@code *.xml}).
+   *
+   * @param toFo the transformer from DocBook to FO
+   * @param toPdf the transformer from FO to PDF
+   * @return a renderer
+   */
+  public static JobRenderer using(XmlTransformer toFo, FoToPdfTransformer toPdf) {
+    checkNotNull(toFo);
+    final JobRenderer foRenderer = using(toPdf);
+    return (name, job, pdf) -> {
+      if (!MoreFiles.getFileExtension(Path.of(name)).equals("xml")) {
+        foRenderer.render(name, job, pdf);
+        return;
+      }
+      toPdf.render(fo -> {
+        try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+          toFo.sourceToResult(lease.source(new StreamSource(job.toFile())), fo);
+        }
+      }, pdf);
+    };
+  }
+
+  /**
+   * Puts a job in the given spool directory, atomically.
+   *
+   * @param spool the spool directory, created if needed
+   * @param name the name of the job, such as {@code Book.fo}, which must be unique among the jobs
+   *        pending and leased
+   * @param content the document
+   * @throws IOException iff writing fails
+   */
+  public static void submit(Path spool, String name, ByteSource content) throws IOException {
+    checkArgument(!name.startsWith(".") && !name.contains(SEPARATOR) && !name.contains("/"));
+    final Path pending = Files.createDirectories(spool.resolve("pending"));
+    AtomicFiles.publish(pending.resolve(name), out -> content.copyTo(out));
+  }
+
+  /**
+   * Returns a worker of the given spool directory, creating its sub-directories if needed.
+   *
+   * @param spool the spool directory
+   * @param renderer the renderer
+   * @param lease the lease duration
+   * @param poll how long to wait when idle before looking for jobs again
+   * @return a worker, whose {@link #run()} method processes the jobs
+   * @throws IOException iff creating the directories fails
+   */
+  public static SpoolWorker in(Path spool, JobRenderer renderer, Duration lease, Duration poll)
+      throws IOException {
+    checkArgument(!lease.isNegative() && !lease.isZero());
+    checkArgument(!poll.isNegative());
+    for (String sub : ImmutableList.of("pending", "leased", "done", "failed")) {
+      Files.createDirectories(spool.resolve(sub));
+    }
+    return new SpoolWorker(spool, renderer, lease, poll);
+  }
+
+  /**
+   * Works on the given spool directory, rendering DocBook jobs with the Xalan factory and the
+   * default DocBook FO stylesheet, until the process is stopped. Start several processes to
+   * render in parallel.
+   *
+   * @param args the spool directory
+   * @throws Exception iff working fails
+   */
+  public static void main(String[] args) throws Exception {
+    checkArgument(args.length == 1, "Usage: spool-directory");
+    final TransformerFactory factory = KnownFactory.XALAN.factory();
+    factory.setURIResolver(CachingUriResolver.docBook());
+    final XmlTransformer toFo =
+        XmlTransformerFactory.usingFactory(factory).usingStylesheet(DocBookResources.XSLT_1_FO_URI);
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(factory);
+    try (SpoolWorker worker =
+        in(Path.of(args[0]), using(toFo, toPdf), DEFAULT_LEASE, DEFAULT_POLL)) {
+      LOGGER.info("Worker {} spooling from {}.", worker.id, args[0]);
+      worker.run();
+    }
+  }
+
+  private final Path pending;
+  private final Path leased;
+  private final Path done;
+  private final Path failed;
+  private final JobRenderer renderer;
+  private final Duration lease;
+  private final Duration poll;
+  private final String id;
+  private final ScheduledExecutorService renewer;
+  private volatile boolean closed;
+
+  private SpoolWorker(Path spool, JobRenderer renderer, Duration lease, Duration poll) {
+    pending = spool.resolve("pending");
+    leased = spool.resolve("leased");
+    done = spool.resolve("done");
+    failed = spool.resolve("failed");
+    this.renderer = checkNotNull(renderer);
+    this.lease = lease;
+    this.poll = poll;
+    id = UUID.randomUUID().toString().substring(0, 8);
+    renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "lease-renewer-" + id);
+      thread.setDaemon(true);
+      return thread;
+    });
+    closed = false;
+  }
+
+  /**
+   * Processes jobs until this worker is closed (from another thread), waiting when there is none.
+   *
+   * @throws IOException iff accessing the spool directory fails
+   * @throws InterruptedException iff interrupted while waiting
+   */
+  public void run() throws IOException, InterruptedException {
+    while (!closed) {
+      if (!processOneUnlessClosed()) {
+        Thread.sleep(poll.toMillis());
+      }
+    }
+  }
+
+  /**
+   * Claims a pending job and renders it, if there is one; otherwise, reclaims the expired leases.
+   *
+   * @return {@code true} iff a job was processed (successfully or not)
+   * @throws IOException iff accessing the spool directory fails
+   * @throws IllegalStateException iff this worker is closed
+   */
+  public synchronized boolean processOne() throws IOException {
+    checkState(!closed);
+    final Optional<Path> claimed = claim();
+    if (claimed.isEmpty()) {
+      reclaimExpired();
+      return false;
+    }
+    process(claimed.get());
+    return true;
+  }
+
+  private synchronized boolean processOneUnlessClosed() throws IOException {
+    return !closed && processOne();
+  }
+
+  private static ImmutableList<Path> list(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(f -> !f.getFileName().toString().startsWith(".")).sorted()
+          .collect(ImmutableList.toImmutableList());
+    }
+  }
+
+  private Optional<Path> claim() throws IOException {
+    for (Path job : list(pending)) {
+      final Path target = leased.resolve(job.getFileName() + SEPARATOR + id);
+      try {
+        Files.move(job, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+        return Optional.of(target);
+      } catch (NoSuchFileException e) {
+        LOGGER.debug("Job {} claimed by another worker.", job);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private void reclaimExpired() throws IOException {
+    final Instant expiry = Instant.now().minus(lease);
+    for (Path leasedJob : list(leased)) {
+      try {
+        if (Files.getLastModifiedTime(leasedJob).toInstant().isBefore(expiry)) {
+          final Path job = pending.resolve(jobName(leasedJob));
+          Files.move(leasedJob, job, StandardCopyOption.ATOMIC_MOVE);
+          LOGGER.info("Reclaimed abandoned job {}.", leasedJob.getFileName());
+        }
+      } catch (NoSuchFileException e) {
+        LOGGER.debug("Lease {} released or reclaimed meanwhile.", leasedJob);
+      } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+        LOGGER.warn("Could not reclaim " + leasedJob + ".", e);
+      }
+    }
+  }
+
+  private static String jobName(Path leasedJob) {
+    final String name = leasedJob.getFileName().toString();
+    return name.substring(0, name.lastIndexOf(SEPARATOR));
+  }
+
+  private void process(Path leasedJob) throws IOException {
+    final String name = jobName(leasedJob);
+    final long period = Math.max(1, lease.toMillis() / 3);
+    final ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(() -> renew(leasedJob),
+        period, period, TimeUnit.MILLISECONDS);
+    final long start = System.nanoTime();
+    try {
+      final Path pdf = done.resolve(MoreFiles.getNameWithoutExtension(Path.of(name)) + ".pdf");
+      try {
+        AtomicFiles.publish(pdf, out -> renderer.render(name, leasedJob, out));
+      } finally {
+        /* Whatever escapes, including errors, the lease must not be renewed forever. */
+        renewal.cancel(false);
+      }
+      LOGGER.info("Rendered {} in {} ms.", name,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      Files.deleteIfExists(leasedJob);
+    } catch (IOException | RuntimeException e) {
+      /* Including XmlException, which is unchecked. */
+      LOGGER.error("Failed rendering " + name + ".", e);
+      AtomicFiles.publish(failed.resolve(name + ".error"),
+          out -> out.write(String.valueOf(e).getBytes(StandardCharsets.UTF_8)));
+      try {
+        Files.move(leasedJob, failed.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (NoSuchFileException lost) {
+        LOGGER.warn("Lease of {} lost meanwhile.", name);
+      }
+    }
+  }
+
+  private void renew(Path leasedJob) {
+    try {
+      Files.setLastModifiedTime(leasedJob, FileTime.from(Instant.now()));
+    } catch (NoSuchFileException e) {
+      LOGGER.warn("Lease {} lost: its job will be rendered again.", leasedJob.getFileName());
+    } catch (IOException e) {
+      LOGGER.warn("Could not renew lease " + leasedJob + ".", e);
+    }
+  }
+
+  /**
+   * Stops this worker, waiting for the current job, if any, to end.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (this) {
+      renewer.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("id", id).add("pending", pending).toString();
+  }
+}
@@ -0,0 +1,77 @@
+package io.github.oliviercailloux.publish;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Resources;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import javax.xml.transform.TransformerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A training run of the whole publishing pipeline, meant to produce an AppCDS archive (see the
+ * {@code cds.sh} script) and to measure the time a fresh JVM takes to produce its first PDF.
+ * <p>
+ * It converts a bundled AsciiDoc document to PDF with the Xalan factory (which exercises
+ * Asciidoctor on JRuby, Jing, Xalan and FOP), then again with the Saxon factory, and reports the
+ * time elapsed from the start of the JVM to the first PDF on the standard output.
+ * </p>
+ */
+public class TrainingRun {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrainingRun.class);
+
+  public static final URL TRAINING_DOCUMENT =
+      Resources.getResource(TrainingRun.class, "Training.adoc");
+
+  /**
+   * Runs the training.
+   *
+   * @param args optionally, a directory where to write the produced PDF documents
+   * @throws Exception iff the pipeline fails
+   */
+  public static void main(String[] args) throws Exception {
+    final Instant jvmStart =
+        Instant.ofEpochMilli(ManagementFactory.getRuntimeMXBean().getStartTime());
+    final String adoc = Resources.toString(TRAINING_DOCUMENT, StandardCharsets.UTF_8);
+    final Path baseDir = Path.of("");
+
+    final Stopwatch xalanWatch = Stopwatch.createStarted();
+    try (AsciidocToPdf pipeline = AsciidocToPdf.using(resolving(KnownFactory.XALAN),
+        DocBookResources.XSLT_1_FO_URI); OutputStream out = output(args, "Training Xalan.pdf")) {
+      pipeline.render(adoc, baseDir, out);
+    }
+    final Duration firstPdf = Duration.between(jvmStart, Instant.now());
+    LOGGER.info("Rendered with Xalan in {}.", xalanWatch);
+
+    final Stopwatch saxonWatch = Stopwatch.createStarted();
+    try (AsciidocToPdf pipeline = AsciidocToPdf.using(resolving(KnownFactory.SAXON),
+        DocBookResources.XSLT_1_FO_URI); OutputStream out = output(args, "Training Saxon.pdf")) {
+      pipeline.render(adoc, baseDir, out);
+    }
+    LOGGER.info("Rendered with Saxon in {}.", saxonWatch);
+
+    System.out.println("time-to-first-pdf-ms=" + firstPdf.toMillis());
+  }
+
+  private static TransformerFactory resolving(KnownFactory factory) {
+    final TransformerFactory underlying = factory.factory();
+    underlying.setURIResolver(CachingUriResolver.docBook());
+    return underlying;
+  }
+
+  private static OutputStream output(String[] args, String name) throws Exception {
+    if (args.length == 0) {
+      return OutputStream.nullOutputStream();
+    }
+    return Files.newOutputStream(Path.of(args[0]).resolve(name));
+  }
+}
@@ -0,0 +1,176 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ahead-of-time compilation of stylesheets to Xalan XSLTC translets, and loading of such
+ * precompiled translets.
+ * <p>
+ * Compilation is run at build time (see the {@code translets} Maven profile), which puts the
+ * translet classes for {@link DocBookResources#XSLT_1_FO_URI} in the jar, in package
+ * {@value #PACKAGE_NAME}. At run time, the factory returned by {@link #factory()} then loads these
+ * classes instead of compiling the stylesheets, and fails if they are not found on the class path.
+ * </p>
+ * <p>
+ * The class name of a translet is the last two segments of the system id of its stylesheet (for
+ * example, {@code fo/docbook.xsl} becomes {@code fo_docbook}), followed by a hash of the location
+ * of the stylesheet, so that distinct stylesheets with the same last segments do not collide. The
+ * location is the one that the DocBook URI resolver gives, if any, so that a stylesheet compiles to
+ * the same class whether referred to by its canonical URI or by the location it resolves to; and,
+ * within a jar, it is the entry in the jar, so that the class does not depend on where the jar is.
+ * Other stylesheets must be loaded from the location they were compiled from.
+ * </p>
+ * <p>
+ * The factories that {@link #factory()} returns can be shared across threads to load templates, as
+ * loading is done under a lock; the templates they return are thread-safe.
+ * </p>
+ */
+public class Translets {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(Translets.class);
+
+  public static final String PACKAGE_NAME = "io.github.oliviercailloux.publish.translets";
+
+  private static final String TRANSLET_NAME = "translet-name";
+
+  private static final String PACKAGE_NAME_ATTRIBUTE = "package-name";
+
+  /**
+   * An XSLTC factory that names the translet it looks for after the stylesheet it is given.
+   */
+  private static class PrecompiledTransformerFactory
+      extends org.apache.xalan.xsltc.trax.TransformerFactoryImpl {
+    @Override
+    public synchronized Templates newTemplates(Source source)
+        throws TransformerConfigurationException {
+      final String systemId = source.getSystemId();
+      if (systemId == null) {
+        throw new TransformerConfigurationException(
+            "A precompiled stylesheet must be designated by its system id.");
+      }
+      /* The factory resets these attributes after each call. */
+      setAttribute(PACKAGE_NAME_ATTRIBUTE, PACKAGE_NAME);
+      setAttribute(TRANSLET_NAME, transletName(systemId));
+      return super.newTemplates(source);
+    }
+  }
+
+  /**
+   * Returns a factory that loads precompiled translets from the class path (using the context
+   * class loader), in place of compiling the stylesheets it is given.
+   *
+   * @return a factory whose templates are precompiled translets, with the DocBook URI resolver
+   */
+  public static TransformerFactory factory() {
+    final PrecompiledTransformerFactory factory = new PrecompiledTransformerFactory();
+    factory.setAttribute("use-classpath", Boolean.TRUE);
+    factory.setURIResolver(DocBookResources.RESOLVER);
+    return factory;
+  }
+
+  /**
+   * Compiles the given stylesheet (resolving imports with the DocBook URI resolver) to translet
+   * classes written in the given directory, under the package {@value #PACKAGE_NAME}.
+   *
+   * @param stylesheet the stylesheet
+   * @param destination the root of the class files hierarchy
+   * @throws XmlException iff compilation fails
+   */
+  public static void compile(URI stylesheet, Path destination) throws XmlException {
+    final String name = transletName(stylesheet.toString());
+    LOGGER.info("Compiling {} to translet {}.{}.", stylesheet, PACKAGE_NAME, name);
+    final TransformerFactory factory = new org.apache.xalan.xsltc.trax.TransformerFactoryImpl();
+    factory.setURIResolver(DocBookResources.RESOLVER);
+    factory.setAttribute("generate-translet", Boolean.TRUE);
+    factory.setAttribute("destination-directory", destination.toAbsolutePath().toString());
+    factory.setAttribute(PACKAGE_NAME_ATTRIBUTE, PACKAGE_NAME);
+    factory.setAttribute(TRANSLET_NAME, name);
+    try {
+      final Source resolved = DocBookResources.RESOLVER.resolve(stylesheet.toString(), null);
+      final Source source = resolved == null ? new StreamSource(stylesheet.toString()) : resolved;
+      factory.newTemplates(source);
+    } catch (TransformerException e) {
+      throw new XmlException(e);
+    }
+  }
+
+  static String transletName(String systemId) {
+    final String location = location(systemId);
+    final URI uri = URI.create(systemId.replace(" ", "%20"));
+    final String path = uri.isOpaque() ? uri.getSchemeSpecificPart() : uri.getPath();
+    final List<String> segments = Arrays.asList(path.split("/"));
+    checkArgument(!segments.isEmpty(), systemId);
+    final String file = Files.getNameWithoutExtension(segments.get(segments.size() - 1));
+    final String parent = segments.size() >= 2 ? segments.get(segments.size() - 2) : "";
+    final String joined = parent.isEmpty() ? file : parent + "_" + file;
+    final String sanitized = CharMatcher.forPredicate(Character::isJavaIdentifierPart).negate()
+        .replaceFrom(joined, '_');
+    final String hash = Hashing.crc32().hashString(location, StandardCharsets.UTF_8).toString();
+    final String named = sanitized + "_" + hash;
+    return Character.isJavaIdentifierStart(named.charAt(0)) ? named : "_" + named;
+  }
+
+  /**
+   * Returns the location of the given stylesheet that its translet name depends on: the system id
+   * it resolves to with the DocBook URI resolver, if any, or the given one otherwise; and, if that
+   * designates a jar entry, only the name of the entry.
+   */
+  private static String location(String systemId) {
+    String resolved;
+    try {
+      final Source source = DocBookResources.RESOLVER.resolve(systemId, null);
+      resolved = source == null || source.getSystemId() == null ? systemId : source.getSystemId();
+    } catch (TransformerException e) {
+      LOGGER.debug("Not resolving {}.", systemId, e);
+      resolved = systemId;
+    }
+    final int entry = resolved.lastIndexOf("!/");
+    return resolved.startsWith("jar:") && entry >= 0 ? resolved.substring(entry + 2) : resolved;
+  }
+
+  /**
+   * Compiles stylesheets to translets.
+   *
+   * @param args the destination directory, then the stylesheets to compile, as URIs or paths;
+   *        {@link DocBookResources#XSLT_1_FO_URI} if none are given
+   * @throws Exception iff compilation fails
+   */
+  public static void main(String[] args) throws Exception {
+    checkArgument(args.length >= 1, "Usage: destination [stylesheet…]");
+    final Path destination = Path.of(args[0]);
+    final ImmutableList<URI> stylesheets = args.length == 1
+        ? ImmutableList.of(DocBookResources.XSLT_1_FO_URI)
+        : Arrays.stream(args).skip(1).map(Translets::asUri)
+            .collect(ImmutableList.toImmutableList());
+    for (URI stylesheet : stylesheets) {
+      compile(stylesheet, destination);
+    }
+  }
+
+  private static URI asUri(String stylesheet) {
+    if (stylesheet.matches("[a-z]{2,}:.*")) {
+      return URI.create(stylesheet);
+    }
+    return Path.of(stylesheet).toUri();
+  }
+}
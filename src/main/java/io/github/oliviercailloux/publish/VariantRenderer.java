@@ -0,0 +1,223 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSink;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders several variants of a DocBook document to PDF, each variant being obtained by
+ * transforming the document to FO with its own stylesheet parameters (for example, a paper type).
+ * <p>
+ * The stylesheet is compiled once, and the document is parsed once (see {@link ParsedDocBook}).
+ * Each variant then streams its FO output directly into the PDF renderer, without intermediate
+ * serialization.
+ * </p>
+ * <p>
+ * Instances are thread-safe: the compiled stylesheet is shared, each rendering uses its own
+ * transformer, and parsing, which uses the XSLT factory, is done under a lock.
+ * </p>
+ */
+public class VariantRenderer {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(VariantRenderer.class);
+
+  /**
+   * A set of stylesheet parameters and the destination of the corresponding PDF.
+   *
+   * @param parameters the stylesheet parameters, with names in the JAXP {@code {namespace}local}
+   *        notation (or simply the local name when not in a namespace)
+   * @param destination where to write the PDF
+   */
+  public static record Variant(ImmutableMap<String, String> parameters, ByteSink destination) {
+    public Variant {
+      checkNotNull(parameters);
+      checkNotNull(destination);
+    }
+
+    public static Variant of(Map<String, String> parameters, ByteSink destination) {
+      return new Variant(ImmutableMap.copyOf(parameters), destination);
+    }
+  }
+
+  /**
+   * Compiles the given stylesheet using the given factory (and its URI resolver, if any), and
+   * returns a renderer that uses it to obtain FO documents.
+   *
+   * @param factory the factory to compile the stylesheet and parse the documents
+   * @param stylesheet the DocBook to FO stylesheet
+   * @param toPdf the PDF renderer
+   * @return a renderer
+   * @throws XmlException iff compiling the stylesheet fails
+   */
+  public static VariantRenderer using(TransformerFactory factory, URI stylesheet,
+      FoToPdfTransformer toPdf) throws XmlException {
+    final Templates templates;
+    try {
+      templates = factory.newTemplates(resolve(factory, stylesheet));
+    } catch (TransformerConfigurationException e) {
+      throw new XmlException(e);
+    }
+    return new VariantRenderer(factory, templates, toPdf);
+  }
+
+  private static Source resolve(TransformerFactory factory, URI stylesheet) throws XmlException {
+    final URIResolver resolver = factory.getURIResolver();
+    if (resolver != null) {
+      final Source resolved;
+      try {
+        resolved = resolver.resolve(stylesheet.toString(), null);
+      } catch (TransformerException e) {
+        throw new XmlException(e);
+      }
+      if (resolved != null) {
+        return resolved;
+      }
+    }
+    return new StreamSource(stylesheet.toString());
+  }
+
+  private final TransformerFactory factory;
+  private final Templates templates;
+  private final FoToPdfTransformer toPdf;
+
+  private VariantRenderer(TransformerFactory factory, Templates templates,
+      FoToPdfTransformer toPdf) {
+    this.factory = checkNotNull(factory);
+    this.templates = checkNotNull(templates);
+    this.toPdf = checkNotNull(toPdf);
+  }
+
+  /**
+   * Parses the given DocBook document into a tree that this renderer can transform repeatedly.
+   *
+   * @param docBook the document
+   * @return the parsed document
+   * @throws XmlException iff parsing fails
+   */
+  public synchronized ParsedDocBook parse(Source docBook) throws XmlException {
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      return ParsedDocBook.parse(factory, lease.source(docBook));
+    }
+  }
+
+  /**
+   * Renders one variant of the given document.
+   *
+   * @param docBook a document parsed by this renderer
+   * @param variant the parameters and destination
+   * @throws XmlException iff the transformation to FO or the rendering to PDF fails
+   * @throws IOException iff writing to the destination fails
+   */
+  public void render(ParsedDocBook docBook, Variant variant) throws XmlException, IOException {
+    final Transformer transformer;
+    try {
+      transformer = templates.newTransformer();
+    } catch (TransformerConfigurationException e) {
+      throw new XmlException(e);
+    }
+    variant.parameters().forEach(transformer::setParameter);
+
+    try (OutputStream out = variant.destination().openBufferedStream()) {
+      toPdf.render(fo -> {
+        try {
+          transformer.transform(docBook.asSource(), fo);
+        } catch (TransformerException e) {
+          throw new XmlException(e);
+        }
+      }, out);
+    }
+  }
+
+  /**
+   * Renders all the given variants of the given document, concurrently using the given executor
+   * if the parsed document is {@link ParsedDocBook#isShareable() shareable}, and one after the
+   * other on the calling thread otherwise.
+   * <p>
+   * If some variants fail, the others are still rendered, and the first failure (in the order of
+   * the given list) is thrown.
+   * </p>
+   *
+   * @param docBook a document parsed by this renderer
+   * @param variants the variants to render
+   * @param executor the executor to use for concurrent rendering
+   * @throws XmlException iff the transformation to FO or the rendering to PDF of some variant fails
+   * @throws IOException iff writing to some destination fails
+   * @throws InterruptedException iff interrupted while waiting for the variants to complete
+   */
+  public void renderAll(ParsedDocBook docBook, List<Variant> variants, ExecutorService executor)
+      throws XmlException, IOException, InterruptedException {
+    if (!docBook.isShareable()) {
+      LOGGER.debug("Rendering {} variants sequentially.", variants.size());
+      Exception first = null;
+      for (Variant variant : variants) {
+        try {
+          render(docBook, variant);
+        } catch (IOException | RuntimeException e) {
+          /* Including XmlException, which is unchecked. */
+          if (first == null) {
+            first = e;
+          }
+        }
+      }
+      rethrow(first);
+      return;
+    }
+
+    final ImmutableList<Callable<Void>> tasks = variants.stream().map(v -> (Callable<Void>) () -> {
+      render(docBook, v);
+      return null;
+    }).collect(ImmutableList.toImmutableList());
+    LOGGER.debug("Rendering {} variants concurrently.", tasks.size());
+    final List<Future<Void>> futures = executor.invokeAll(tasks);
+    Exception first = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (first == null) {
+          first = e.getCause() instanceof Exception c ? c : new VerifyException(e.getCause());
+        }
+      }
+    }
+    rethrow(first);
+  }
+
+  private static void rethrow(Exception e) throws XmlException, IOException {
+    if (e == null) {
+      return;
+    }
+    if (e instanceof XmlException x) {
+      throw x;
+    }
+    if (e instanceof IOException x) {
+      throw x;
+    }
+    if (e instanceof RuntimeException x) {
+      throw x;
+    }
+    throw new VerifyException(e);
+  }
+}
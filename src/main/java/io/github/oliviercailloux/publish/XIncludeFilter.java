@@ -0,0 +1,378 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Verify.verify;
+
+import com.google.common.io.Resources;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import javax.xml.XMLConstants;
+import net.sf.saxon.s9api.XdmNode;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Resolves the inclusions of one document at a time, on behalf of an {@link XIncludeResolver}.
+ * <p>
+ * The events of included documents go through this same filter, so that their own inclusions get
+ * resolved, with the stack of the documents being included, used to detect loops, and the stack
+ * of the base URIs of the open elements, used to resolve hrefs. Reads the document with a reader
+ * borrowed from {@link XmlReaders} for the duration of the parse.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+class XIncludeFilter extends XMLFilterImpl {
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+  private static final String NAMESPACE_PREFIXES =
+      "http://xml.org/sax/features/namespace-prefixes";
+
+  /**
+   * How an open element is treated.
+   */
+  private static enum Kind {
+    /** Passed through. */
+    COPIED,
+    /** An inclusion whose resource is missing: only its fallback is passed through. */
+    FAILED_INCLUDE,
+    /** The fallback of a failed inclusion: its content is passed through, not itself. */
+    FALLBACK
+  }
+
+  private static class Failure {
+    private final IOException cause;
+    private boolean fallback;
+
+    Failure(IOException cause) {
+      this.cause = checkNotNull(cause);
+      fallback = false;
+    }
+  }
+
+  private final XIncludeResolver resolver;
+  /**
+   * The documents being read, innermost first.
+   */
+  private final Deque<URI> documents;
+  /**
+   * The base URIs of the open elements that are not skipped, innermost first, after the base URI
+   * of the document.
+   */
+  private final Deque<URI> bases;
+  private final Deque<Kind> open;
+  private final Deque<Failure> failures;
+  /**
+   * The depth in the subtree being skipped, or zero if not skipping.
+   */
+  private int skipDepth;
+
+  XIncludeFilter(XIncludeResolver resolver) {
+    this.resolver = checkNotNull(resolver);
+    documents = new ArrayDeque<>();
+    bases = new ArrayDeque<>();
+    open = new ArrayDeque<>();
+    failures = new ArrayDeque<>();
+    skipDepth = 0;
+    setEntityResolver(CachingEntityResolver.shared());
+  }
+
+  @Override
+  public boolean getFeature(String name) throws SAXNotRecognizedException {
+    return switch (name) {
+      case NAMESPACES -> true;
+      case NAMESPACE_PREFIXES -> false;
+      default -> throw new SAXNotRecognizedException(name);
+    };
+  }
+
+  @Override
+  public void setFeature(String name, boolean value)
+      throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (getFeature(name) != value) {
+      throw new SAXNotSupportedException(name);
+    }
+  }
+
+  @Override
+  public void parse(String systemId) throws SAXException, IOException {
+    parse(new InputSource(systemId));
+  }
+
+  @Override
+  public void parse(InputSource input) throws SAXException, IOException {
+    final URI document = URI.create(input.getSystemId());
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      setParent(lease.reader());
+      documents.push(document);
+      bases.push(document);
+      super.parse(input);
+    } finally {
+      documents.clear();
+      bases.clear();
+      open.clear();
+      failures.clear();
+      skipDepth = 0;
+    }
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    if (passing()) {
+      super.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    if (passing()) {
+      super.endPrefixMapping(prefix);
+    }
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts)
+      throws SAXException {
+    if (skipDepth > 0) {
+      ++skipDepth;
+      return;
+    }
+    final boolean inFailed = open.peek() == Kind.FAILED_INCLUDE;
+    final boolean isXInclude = XIncludeResolver.XINCLUDE_NS.equals(uri);
+    if (inFailed && !(isXInclude && localName.equals("fallback"))) {
+      skipDepth = 1;
+      return;
+    }
+    if (isXInclude && localName.equals("fallback")) {
+      if (!inFailed) {
+        /* The fallback of a successful inclusion is skipped with the rest of its content. */
+        throw new SAXException("Fallback outside an inclusion.");
+      }
+      failures.peek().fallback = true;
+      open.push(Kind.FALLBACK);
+      bases.push(bases.peek());
+      return;
+    }
+    if (isXInclude && localName.equals("include")) {
+      final Optional<IOException> failure = include(atts);
+      if (failure.isPresent()) {
+        failures.push(new Failure(failure.get()));
+        open.push(Kind.FAILED_INCLUDE);
+        bases.push(bases.peek());
+      } else {
+        skipDepth = 1;
+      }
+      return;
+    }
+
+    final String base = atts.getValue(XMLConstants.XML_NS_URI, "base");
+    bases.push(base == null ? bases.peek() : bases.peek().resolve(base));
+    open.push(Kind.COPIED);
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (skipDepth > 0) {
+      --skipDepth;
+      return;
+    }
+    final Kind kind = open.pop();
+    bases.pop();
+    switch (kind) {
+      case COPIED -> super.endElement(uri, localName, qName);
+      case FAILED_INCLUDE -> {
+        final Failure failure = failures.pop();
+        if (!failure.fallback) {
+          throw new SAXException("Resource not found and no fallback.", failure.cause);
+        }
+      }
+      case FALLBACK -> {
+        /* Only its content is kept. */
+      }
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (passing()) {
+      super.characters(ch, start, length);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    if (passing()) {
+      super.ignorableWhitespace(ch, start, length);
+    }
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    if (passing()) {
+      super.processingInstruction(target, data);
+    }
+  }
+
+  private boolean passing() {
+    return skipDepth == 0 && open.peek() != Kind.FAILED_INCLUDE;
+  }
+
+  /**
+   * Sends the content that the given inclusion designates.
+   *
+   * @return the cause of the failure, iff the resource is missing, or empty if included
+   * @throws SAXException iff the inclusion is invalid, loops, or the resource can’t be read or
+   *         parsed for other reasons than its absence
+   */
+  private Optional<IOException> include(Attributes atts) throws SAXException {
+    final String href = atts.getValue("", "href");
+    final String parse = Optional.ofNullable(atts.getValue("", "parse")).orElse("xml");
+    if (atts.getValue("", "xpointer") != null) {
+      throw new SAXException("XPointer is not supported.");
+    }
+    if (href == null || href.isEmpty()) {
+      throw new SAXException("Inclusion without href.");
+    }
+    final URI target = bases.peek().resolve(href);
+    if (target.getFragment() != null) {
+      throw new SAXException("Fragment identifiers are not allowed in href: " + href + ".");
+    }
+
+    try {
+      switch (parse) {
+        case "xml" -> includeXml(target);
+        case "text" -> includeText(target,
+            Optional.ofNullable(atts.getValue("", "encoding")).orElse("UTF-8"));
+        default -> throw new SAXException("Unknown parse value: " + parse + ".");
+      }
+    } catch (FileNotFoundException e) {
+      return Optional.of(e);
+    } catch (IOException e) {
+      throw new SAXException("Could not include " + target + ".", e);
+    }
+    return Optional.empty();
+  }
+
+  private void includeXml(URI target) throws IOException, SAXException {
+    if (documents.contains(target)) {
+      throw new SAXException("Inclusion loop: " + target + " includes itself.");
+    }
+    final XdmNode fragment = resolver.fragment(target);
+    documents.push(target);
+    try {
+      resolver.emit(fragment, new Inclusion(target));
+    } finally {
+      documents.pop();
+    }
+    verify(skipDepth == 0);
+  }
+
+  private void includeText(URI target, String encoding) throws IOException, SAXException {
+    final Charset charset;
+    try {
+      charset = Charset.forName(encoding);
+    } catch (IllegalArgumentException e) {
+      throw new SAXException("Unknown encoding: " + encoding + ".", e);
+    }
+    final String text = Resources.asCharSource(target.toURL(), charset).read();
+    final char[] chars = text.toCharArray();
+    super.characters(chars, 0, chars.length);
+  }
+
+  /**
+   * Receives the events of an included document and sends them through the filter, without the
+   * document events, and with the base URI of the document on its root element.
+   */
+  private class Inclusion implements ContentHandler {
+    private final URI document;
+    private boolean root;
+
+    Inclusion(URI document) {
+      this.document = checkNotNull(document);
+      root = true;
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+      /* The locator of the including document is kept. */
+    }
+
+    @Override
+    public void startDocument() {
+      /* The document is embedded. */
+    }
+
+    @Override
+    public void endDocument() {
+      /* The document is embedded. */
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+      XIncludeFilter.this.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+      XIncludeFilter.this.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+      if (!root) {
+        XIncludeFilter.this.startElement(uri, localName, qName, atts);
+        return;
+      }
+      root = false;
+      final AttributesImpl based = new AttributesImpl(atts);
+      final int existing = based.getIndex(XMLConstants.XML_NS_URI, "base");
+      if (existing >= 0) {
+        based.setValue(existing, document.resolve(based.getValue(existing)).toString());
+      } else {
+        based.addAttribute(XMLConstants.XML_NS_URI, "base", "xml:base", "CDATA",
+            document.toString());
+      }
+      XIncludeFilter.this.startElement(uri, localName, qName, based);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+      XIncludeFilter.this.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+      XIncludeFilter.this.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+      XIncludeFilter.this.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+      XIncludeFilter.this.processingInstruction(target, data);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+      XIncludeFilter.this.skippedEntity(name);
+    }
+  }
+}
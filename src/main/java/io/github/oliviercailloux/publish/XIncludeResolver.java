@@ -0,0 +1,202 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import javax.xml.transform.sax.SAXSource;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SAXDestination;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Resolves XInclude inclusions in documents as they are read, keeping the included documents
+ * parsed, so that the fragments that many documents share (chapters, boilerplate) are parsed once
+ * for all of them.
+ * <p>
+ * The documents that {@link #resolving(URI)} returns are the given ones with each
+ * {@code xi:include} element replaced by the document it designates (if {@code parse="xml"}, the
+ * default) or its text (if {@code parse="text"}), with inclusions in included documents resolved
+ * in turn. As the specification requires, the root element of each included document receives an
+ * {@code xml:base} attribute that gives its location; an inclusion that (directly or indirectly)
+ * includes its own document is an error; and an inclusion whose resource is missing is replaced by
+ * the content of its {@code xi:fallback} child, or is an error if it has none. The
+ * {@code xpointer} attribute is not supported: inclusions must designate whole documents.
+ * </p>
+ * <p>
+ * Included documents are parsed into Saxon trees, which are immutable, and cached under their URI
+ * and modification time: a document that changes on disk is parsed again when next included. Only
+ * documents designated by {@code file:} (or other path) URIs and by {@code jar:} URIs are cached;
+ * others are parsed at each inclusion. Text inclusions are read at each inclusion.
+ * </p>
+ * <p>
+ * Instances are thread-safe, and are meant to be shared by all the documents of a batch; a given
+ * fragment is parsed once even if several threads include it at the same time.
+ * </p>
+ */
+public class XIncludeResolver {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(XIncludeResolver.class);
+
+  public static final String XINCLUDE_NS = "http://www.w3.org/2001/XInclude";
+
+  /**
+   * Returns a resolver that keeps at most the given number of parsed fragments.
+   *
+   * @param maxFragments the maximal number of fragments to keep
+   * @return a resolver
+   */
+  public static XIncludeResolver withMaxFragments(long maxFragments) {
+    checkArgument(maxFragments >= 0);
+    return new XIncludeResolver(maxFragments);
+  }
+
+  private static record Key(URI uri, long modified) {
+  }
+
+  private final Processor processor;
+  private final Cache<Key, XdmNode> fragments;
+
+  private XIncludeResolver(long maxFragments) {
+    processor = new Processor(false);
+    fragments = CacheBuilder.newBuilder().maximumSize(maxFragments).recordStats().build();
+  }
+
+  /**
+   * Returns the key of the given URI, if it may be cached.
+   *
+   * @throws FileNotFoundException iff the URI designates a path that does not exist
+   */
+  private static Optional<Key> key(URI uri) throws IOException {
+    if ("jar".equals(uri.getScheme())) {
+      return Optional.of(new Key(uri, 0));
+    }
+    final Path path;
+    try {
+      path = Path.of(uri);
+    } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(new Key(uri, Files.getLastModifiedTime(path).toMillis()));
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(uri.toString());
+    }
+  }
+
+  /**
+   * Returns a source that reads the given document with its inclusions resolved. The source can
+   * be read several times, but by one consumer at a time.
+   *
+   * @param document the absolute URI of the document
+   * @return a source
+   */
+  public SAXSource resolving(URI document) {
+    checkArgument(document.isAbsolute());
+    return resolving(new InputSource(document.toString()));
+  }
+
+  /**
+   * Returns a source that reads the given document with its inclusions resolved. The source can
+   * be read several times, but by one consumer at a time.
+   *
+   * @param document the document, whose system id must be an absolute URI, against which
+   *        inclusions are resolved
+   * @return a source
+   */
+  public SAXSource resolving(InputSource document) {
+    checkArgument(document.getSystemId() != null, "The system id is required to resolve hrefs.");
+    checkArgument(URI.create(document.getSystemId()).isAbsolute());
+    final SAXSource source = new SAXSource(new XIncludeFilter(this), document);
+    source.setSystemId(document.getSystemId());
+    return source;
+  }
+
+  /**
+   * @return the statistics of the cache of parsed fragments
+   */
+  public CacheStats stats() {
+    return fragments.stats();
+  }
+
+  /**
+   * Returns the given document, parsed, from the cache if possible.
+   *
+   * @throws FileNotFoundException iff the document does not exist
+   * @throws IOException iff reading the document fails
+   * @throws SAXException iff parsing the document fails
+   */
+  XdmNode fragment(URI uri) throws IOException, SAXException {
+    final Optional<Key> key = key(uri);
+    if (key.isEmpty()) {
+      return parse(uri);
+    }
+    try {
+      return fragments.get(key.get(), () -> parse(uri));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      final Throwable cause = e.getCause();
+      Throwables.throwIfInstanceOf(cause, IOException.class);
+      Throwables.throwIfInstanceOf(cause, SAXException.class);
+      Throwables.throwIfUnchecked(cause);
+      throw new SAXException(e);
+    }
+  }
+
+  private XdmNode parse(URI uri) throws IOException, SAXException {
+    LOGGER.debug("Parsing {}.", uri);
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      return processor.newDocumentBuilder().build(lease.source(new InputSource(uri.toString())));
+    } catch (SaxonApiException e) {
+      final Optional<IOException> io = Throwables.getCausalChain(e).stream()
+          .filter(c -> c instanceof IOException).map(c -> (IOException) c).findFirst();
+      if (io.isPresent()) {
+        throw io.get();
+      }
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Sends the given parsed document to the given handler, including its start and end document
+   * events.
+   */
+  void emit(XdmNode fragment, ContentHandler handler) throws SAXException {
+    try {
+      processor.writeXdmValue(fragment, new SAXDestination(checkNotNull(handler)));
+    } catch (SaxonApiException e) {
+      /* Saxon wraps the exceptions that the handler throws. */
+      final Optional<SAXException> sax = Throwables.getCausalChain(e).stream()
+          .filter(c -> c instanceof SAXException).map(c -> (SAXException) c).findFirst();
+      if (sax.isPresent()) {
+        throw sax.get();
+      }
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("fragments", fragments.size())
+        .add("stats", fragments.stats()).toString();
+  }
+}
@@ -0,0 +1,182 @@
+package io.github.oliviercailloux.publish;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Verify.verify;
+
+import com.google.common.base.VerifyException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A pool of namespace-aware {@link XMLReader}s, configured to resolve external entities through the
+ * shared {@link CachingEntityResolver}, so that the stages of the pipeline do not each create (and
+ * configure) a parser per document.
+ * <p>
+ * The pool is thread-confined: each thread borrows from and returns to its own readers, so that no
+ * synchronization is needed; a reader must thus be returned by the thread that borrowed it, which
+ * {@link Lease#close()} in a try-with-resources block guarantees. Borrowing while already holding a
+ * lease (for example, when a stage nests another one) provides another reader. Returned readers
+ * get their handlers, features and lexical handler reset, or are dropped if they refuse it.
+ * </p>
+ * <p>
+ * This class is thread-safe; a lease is confined to the thread that obtained it.
+ * </p>
+ */
+public class XmlReaders {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(XmlReaders.class);
+
+  /**
+   * The number of idle readers kept per thread, enough for the nesting depth of the pipeline.
+   */
+  private static final int MAX_IDLE = 4;
+
+  private static final SAXParserFactory PARSER_FACTORY = parserFactory();
+
+  private static final DefaultHandler NO_OP_HANDLER = new DefaultHandler();
+
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+  private static final String NAMESPACE_PREFIXES =
+      "http://xml.org/sax/features/namespace-prefixes";
+  private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+  private static final ThreadLocal<Deque<XMLReader>> IDLE =
+      ThreadLocal.withInitial(() -> new ArrayDeque<>(MAX_IDLE));
+
+  private static SAXParserFactory parserFactory() {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory;
+  }
+
+  private static XMLReader newReader() {
+    final XMLReader reader;
+    try {
+      synchronized (PARSER_FACTORY) {
+        reader = PARSER_FACTORY.newSAXParser().getXMLReader();
+      }
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new VerifyException(e);
+    }
+    verify(reset(reader));
+    return reader;
+  }
+
+  /**
+   * Restores the handlers of the given reader, and the features and properties that borrowers
+   * commonly change (Xalan, for example, sets {@code namespace-prefixes} on the readers it is
+   * given).
+   *
+   * @return {@code false} iff the reader refused to restore some feature or property
+   */
+  private static boolean reset(XMLReader reader) {
+    reader.setContentHandler(NO_OP_HANDLER);
+    reader.setDTDHandler(NO_OP_HANDLER);
+    reader.setErrorHandler(NO_OP_HANDLER);
+    reader.setEntityResolver(CachingEntityResolver.shared());
+    try {
+      reader.setFeature(NAMESPACES, true);
+      reader.setFeature(NAMESPACE_PREFIXES, false);
+      reader.setProperty(LEXICAL_HANDLER, null);
+    } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+      LOGGER.debug("Could not reset {}.", reader, e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns a reader from the pool of the current thread, creating one if the pool is empty.
+   *
+   * @return a lease, to be closed by the current thread when the reader is not used any more
+   */
+  public static Lease borrow() {
+    final XMLReader reader = IDLE.get().pollFirst();
+    return new Lease(reader == null ? newReader() : reader);
+  }
+
+  /**
+   * A reader borrowed from the pool. Not thread-safe.
+   */
+  public static class Lease implements AutoCloseable {
+    private final XMLReader reader;
+    private final Thread owner;
+    private boolean closed;
+
+    private Lease(XMLReader reader) {
+      this.reader = checkNotNull(reader);
+      owner = Thread.currentThread();
+      closed = false;
+    }
+
+    public XMLReader reader() {
+      checkState(!closed);
+      return reader;
+    }
+
+    /**
+     * Returns a source that reads the given input with the leased reader.
+     *
+     * @param input the input
+     * @return a source valid until this lease is closed
+     */
+    public SAXSource source(InputSource input) {
+      return new SAXSource(reader(), input);
+    }
+
+    /**
+     * Returns a source equivalent to the given one that parses with the leased reader, if the
+     * given one is a stream source or a SAX source without reader; or the given source otherwise.
+     *
+     * @param source the source
+     * @return a source valid until this lease is closed
+     */
+    public Source source(Source source) {
+      if (source instanceof SAXSource sax && sax.getXMLReader() == null) {
+        final SAXSource pooled = new SAXSource(reader(), sax.getInputSource());
+        pooled.setSystemId(sax.getSystemId());
+        return pooled;
+      }
+      final InputSource input = SAXSource.sourceToInputSource(source);
+      if (!(source instanceof StreamSource) || input == null) {
+        return source;
+      }
+      return source(input);
+    }
+
+    /**
+     * Returns the reader to the pool of the current thread.
+     */
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      checkState(Thread.currentThread() == owner, "Must be returned by the borrowing thread.");
+      closed = true;
+      if (!reset(reader)) {
+        return;
+      }
+      final Deque<XMLReader> idle = IDLE.get();
+      if (idle.size() < MAX_IDLE) {
+        idle.addFirst(reader);
+      }
+    }
+  }
+
+  private XmlReaders() {}
+}
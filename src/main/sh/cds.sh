@@ -0,0 +1,27 @@
+#!/bin/sh
+# Creates an AppCDS archive of the publishing pipeline using TrainingRun, reporting the time to the
+# first PDF of a fresh JVM without and with the archive.
+# Usage (from the project root): src/main/sh/cds.sh [archive]
+set -eu
+
+archive="${1:-target/publish.jsa}"
+main=io.github.oliviercailloux.publish.TrainingRun
+opens="--add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED"
+
+# AppCDS only archives classes loaded from jar files, not from directories.
+mvn -B -q package -DskipTests
+mvn -B -q dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+jar=$(ls target/publish-*.jar | grep -v -e sources -e javadoc | head -n 1)
+cp="$jar:$(cat target/classpath.txt)"
+
+# The baseline keeps the default CDS archive of the JDK classes, so that only the gain of archiving
+# the application classes is measured.
+echo "Without archive:"
+java $opens -cp "$cp" "$main"
+
+java -XX:ArchiveClassesAtExit="$archive" $opens -cp "$cp" "$main" > /dev/null
+
+echo "With archive $archive:"
+java -XX:SharedArchiveFile="$archive" $opens -cp "$cp" "$main"
+
+echo "$cp" > "$archive.classpath"
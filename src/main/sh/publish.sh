@@ -0,0 +1,16 @@
+#!/bin/sh
+# Runs the given main class of the publishing library using the AppCDS archive created by cds.sh.
+# Usage (from the project root): src/main/sh/publish.sh main-class [argument…]
+set -eu
+
+archive="${PUBLISH_CDS_ARCHIVE:-target/publish.jsa}"
+opens="--add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED"
+
+if [ ! -f "$archive" ]; then
+  echo "No archive $archive, run cds.sh first." >&2
+  exit 1
+fi
+# The class path must be the one used when creating the archive.
+cp=$(cat "$archive.classpath")
+
+exec java -XX:SharedArchiveFile="$archive" $opens -cp "$cp" "$@"
@@ -0,0 +1,46 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.io.Resources;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import javax.xml.transform.TransformerFactory;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.jruby.util.log.SLF4JLogger;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class AsciidocToPdfTests {
+  @BeforeAll
+  static void setJrubyLogger() {
+    System.setProperty("jruby.logger.class", SLF4JLogger.class.getCanonicalName());
+  }
+
+  @Test
+  void testTrainingTwice() throws Exception {
+    final String adoc = Resources.toString(TrainingRun.TRAINING_DOCUMENT, StandardCharsets.UTF_8);
+    final TransformerFactory underlying = KnownFactory.XALAN.factory();
+    underlying.setURIResolver(DocBookResources.RESOLVER);
+
+    try (AsciidocToPdf pipeline =
+        AsciidocToPdf.using(underlying, DocBookResources.XSLT_1_FO_URI)) {
+      for (int i = 0; i < 2; ++i) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.render(adoc, Path.of(""), out);
+        try (PDDocument document = Loader.loadPDF(out.toByteArray())) {
+          assertEquals(1, document.getNumberOfPages());
+          final String text = new PDFTextStripper().getText(document);
+          assertTrue(text.contains("Training document"), text);
+          assertTrue(text.contains("A second item"), text);
+        }
+      }
+    }
+  }
+}
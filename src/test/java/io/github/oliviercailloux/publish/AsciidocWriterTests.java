@@ -12,10 +12,13 @@ import io.github.oliviercailloux.jaris.xml.KnownFactory;
 import io.github.oliviercailloux.jaris.xml.XmlException;
 import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.stream.Stream;
 import javax.xml.transform.stream.StreamSource;
 import org.asciidoctor.Asciidoctor;
 import org.asciidoctor.Options;
@@ -158,4 +161,51 @@ class AsciidocWriterTests {
         Path.of(AsciidocWriterTests.class.getResource("Various Asciidoc/Table.adoc").toURI()));
     assertEquals(expected, writer.getContent());
   }
+
+  @Test
+  void testTableStreamed() throws Exception {
+    final ImmutableList<String> r1 = ImmutableList.of("c1", "c2");
+    final ImmutableList<String> r2 = ImmutableList.of();
+    final ImmutableList<String> r3 = ImmutableList.of("c1 last");
+    final String expected = Files.readString(
+        Path.of(AsciidocWriterTests.class.getResource("Various Asciidoc/Table.adoc").toURI()));
+
+    final StringWriter destination = new StringWriter();
+    final AsciidocWriter writer = new AsciidocWriter(destination);
+    writer.table("1, 1", 2, ImmutableList.of("h1", "h2"), Stream.of(r1, r2, r3));
+    assertEquals(expected, destination.toString());
+    assertThrows(IllegalStateException.class, writer::getContent);
+
+    final AsciidocWriter csvWriter = new AsciidocWriter();
+    csvWriter.table("1, 1", 2, new StringReader("h1,h2\r\nc1,\"c2\"\n\n\"c1 last\"\n"), true);
+    assertEquals(expected, csvWriter.getContent());
+
+    assertThrows(IllegalArgumentException.class, () -> new AsciidocWriter().table("1", 1,
+        ImmutableList.of(), ImmutableList.of(ImmutableList.of("a", "b")).iterator()));
+
+    final Reader failing = new Reader() {
+      @Override
+      public int read(char[] buffer, int offset, int length) throws IOException {
+        throw new IOException("Failed.");
+      }
+
+      @Override
+      public void close() {
+        /* Nothing to close. */
+      }
+    };
+    assertThrows(IOException.class, () -> new AsciidocWriter().table("1", 1, failing, true));
+  }
+
+  @Test
+  void testCsvRecords() throws Exception {
+    final CsvRecords records =
+        new CsvRecords(new StringReader("a,\"b,\"\"c\"\"\",\r\n\"\"\n,"));
+    assertEquals(ImmutableList.of("a", "b,\"c\"", ""), records.next());
+    assertEquals(ImmutableList.of(""), records.next());
+    assertEquals(ImmutableList.of("", ""), records.next());
+    assertTrue(!records.hasNext());
+    assertThrows(IllegalArgumentException.class,
+        () -> new CsvRecords(new StringReader("\"a")).next());
+  }
 }
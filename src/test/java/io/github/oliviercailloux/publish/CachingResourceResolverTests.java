@@ -0,0 +1,129 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+import com.google.common.jimfs.Jimfs;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.xmlgraphics.io.Resource;
+import org.apache.xmlgraphics.io.ResourceResolver;
+import org.apache.xmlgraphics.io.ResourceResolverFactory;
+import org.junit.jupiter.api.Test;
+
+public class CachingResourceResolverTests {
+  /**
+   * Reads from paths, counting the reads.
+   */
+  private static class CountingResolver implements ResourceResolver {
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @Override
+    public Resource getResource(URI uri) throws IOException {
+      reads.incrementAndGet();
+      return new Resource(Files.newInputStream(Path.of(uri)));
+    }
+
+    @Override
+    public OutputStream getOutputStream(URI uri) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static byte[] read(ResourceResolver resolver, URI uri) throws IOException {
+    try (InputStream in = resolver.getResource(uri)) {
+      return in.readAllBytes();
+    }
+  }
+
+  @Test
+  void testCaches() throws Exception {
+    final CountingResolver delegate = new CountingResolver();
+    final CachingResourceResolver resolver = CachingResourceResolver.caching(delegate, 1 << 20);
+    try (FileSystem fs = Jimfs.newFileSystem()) {
+      final Path logo = fs.getPath("logo.png");
+      Files.writeString(logo, "first");
+      Files.setLastModifiedTime(logo, FileTime.from(Instant.parse("2020-01-01T00:00:00Z")));
+
+      assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), read(resolver, logo.toUri()));
+      assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), read(resolver, logo.toUri()));
+      assertEquals(1, delegate.reads.get());
+      assertEquals(1, resolver.stats().hitCount());
+
+      Files.writeString(logo, "second");
+      Files.setLastModifiedTime(logo, FileTime.from(Instant.parse("2021-01-01T00:00:00Z")));
+      assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), read(resolver, logo.toUri()));
+      assertEquals(2, delegate.reads.get());
+
+      assertThrows(FileNotFoundException.class,
+          () -> resolver.getResource(fs.getPath("missing.png").toUri()));
+    }
+  }
+
+  @Test
+  void testBounded() throws Exception {
+    final CountingResolver delegate = new CountingResolver();
+    final CachingResourceResolver resolver = CachingResourceResolver.caching(delegate, 0);
+    try (FileSystem fs = Jimfs.newFileSystem()) {
+      final Path logo = fs.getPath("logo.png");
+      Files.writeString(logo, "content");
+      read(resolver, logo.toUri());
+      read(resolver, logo.toUri());
+      assertEquals(2, delegate.reads.get());
+    }
+  }
+
+  @Test
+  void testVirtualTree() throws Exception {
+    final BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+    final ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", png);
+    final URI root = URI.create("mem:/");
+    final ResourceResolver virtual = CachingResourceResolver.virtual(root,
+        ImmutableMap.of("images/logo.png", ByteSource.wrap(png.toByteArray())),
+        ResourceResolverFactory.createDefaultResourceResolver());
+    assertArrayEquals(png.toByteArray(), read(virtual, URI.create("mem:/images/logo.png")));
+
+    final String fo = """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="A4" page-width="210mm" page-height="297mm">
+              <fo:region-body margin="2cm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="A4">
+            <fo:flow flow-name="xsl-region-body">
+              <fo:block>Logo: <fo:external-graphic src="url('images/logo.png')"/></fo:block>
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """;
+    final FoToPdfTransformer toPdf = FoToPdfTransformer
+        .usingFactory(KnownFactory.XALAN.factory()).withDefaultConfig(root)
+        .withResourceResolver(CachingResourceResolver.caching(virtual, 1 << 20));
+    final byte[] pdf = toPdf.charsToBytes(CharSource.wrap(fo));
+    try (PDDocument document = Loader.loadPDF(pdf)) {
+      assertEquals(1, document.getNumberOfPages());
+    }
+  }
+}
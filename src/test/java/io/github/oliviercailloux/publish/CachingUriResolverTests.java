@@ -0,0 +1,40 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.InputStream;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class CachingUriResolverTests {
+  private static byte[] read(Source source) throws Exception {
+    try (InputStream in = ((StreamSource) source).getInputStream()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = KnownFactory.class, names = {"XALAN", "SAXON"})
+  void testCompilesDocBook(KnownFactory knownFactory) throws Exception {
+    final CachingUriResolver resolver = CachingUriResolver.caching(DocBookResources.RESOLVER);
+    final String href = DocBookResources.XSLT_1_FO_URI.toString();
+    final Source first = resolver.resolve(href, null);
+    final Source second = resolver.resolve(href, null);
+    assertEquals(first.getSystemId(), second.getSystemId());
+    assertTrue(first.getSystemId().startsWith("jar:"), first.getSystemId());
+    assertArrayEquals(read(first), read(second));
+
+    final TransformerFactory factory = knownFactory.factory();
+    factory.setURIResolver(resolver);
+    factory.newTemplates(resolver.resolve(href, null));
+    factory.newTemplates(resolver.resolve(href, null));
+  }
+}
@@ -0,0 +1,143 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharSource;
+import io.github.oliviercailloux.jaris.xml.ConformityChecker;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import javax.xml.transform.stream.StreamSource;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that instances documented as thread-safe give correct results when shared by threads that
+ * use them at the same time.
+ */
+public class ConcurrencyTests {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyTests.class);
+
+  private static final int THREADS = 8;
+
+  private static final int DOCUMENTS_PER_THREAD = 4;
+
+  /**
+   * Returns an FO document whose pages each bear the given label and their number.
+   */
+  static String fo(String label, int pages) {
+    return """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="A4" page-width="210mm" page-height="297mm">
+              <fo:region-body margin="2cm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="A4">
+            <fo:flow flow-name="xsl-region-body">
+        """ + IntStream.range(0, pages)
+        .mapToObj(i -> "<fo:block break-before=\"page\">" + label + " page " + (i + 1)
+            + "</fo:block>")
+        .reduce("", String::concat) + """
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """;
+  }
+
+  /**
+   * Runs the given tasks on as many threads, starting them together, and returns their results.
+   */
+  static <T> ImmutableList<T> together(ImmutableList<Callable<T>> tasks) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final ImmutableList<Future<T>> futures = tasks.stream().map(t -> executor.submit(() -> {
+        start.await();
+        return t.call();
+      })).collect(ImmutableList.toImmutableList());
+      start.countDown();
+      final ImmutableList.Builder<T> results = ImmutableList.builder();
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results.build();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource
+  void testSharedFoToPdf(KnownFactory factory) throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(factory.factory());
+    final ImmutableList<Callable<ImmutableList<String>>> tasks =
+        IntStream.range(0, THREADS).mapToObj(t -> (Callable<ImmutableList<String>>) () -> {
+          final ImmutableList.Builder<String> texts = ImmutableList.builder();
+          for (int d = 0; d < DOCUMENTS_PER_THREAD; ++d) {
+            final byte[] pdf =
+                toPdf.charsToBytes(CharSource.wrap(fo("Thread " + t + " document " + d, 2)));
+            try (PDDocument document = Loader.loadPDF(pdf)) {
+              assertEquals(2, document.getNumberOfPages());
+              texts.add(new PDFTextStripper().getText(document));
+            }
+          }
+          return texts.build();
+        }).collect(ImmutableList.toImmutableList());
+
+    final ImmutableList<ImmutableList<String>> results = together(tasks);
+    for (int t = 0; t < THREADS; ++t) {
+      for (int d = 0; d < DOCUMENTS_PER_THREAD; ++d) {
+        final String text = results.get(t).get(d);
+        final String label = "Thread " + t + " document " + d;
+        assertTrue(text.contains(label + " page 1"), text);
+        assertTrue(text.contains(label + " page 2"), text);
+      }
+    }
+  }
+
+  @Test
+  void testSharedLayout() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final ImmutableList<Callable<LaidOutText>> tasks = IntStream.range(0, THREADS)
+        .mapToObj(t -> (Callable<LaidOutText>) () -> toPdf
+            .layoutText(new StreamSource(new StringReader(fo("Thread " + t, t + 1)))))
+        .collect(ImmutableList.toImmutableList());
+
+    final ImmutableList<LaidOutText> results = together(tasks);
+    for (int t = 0; t < THREADS; ++t) {
+      results.get(t).assertPageCount(t + 1)
+          .assertContains(t + 1, "Thread " + t + " page " + (t + 1))
+          .assertNotContains("Thread " + (t + 1) + " page");
+    }
+  }
+
+  @Test
+  void testSharedConformityChecker() throws Exception {
+    final ConformityChecker checker = DocBookConformityChecker.usingEmbeddedSchema();
+    final ImmutableList<Callable<Void>> tasks =
+        IntStream.range(0, THREADS).mapToObj(t -> (Callable<Void>) () -> {
+          final DocBookWriter writer = new DocBookWriter();
+          writer.h1("Document " + t);
+          writer.h2("Section");
+          writer.paragraph("Written by thread " + t + ".");
+          checker.verifyValid(writer.asSource());
+          return null;
+        }).collect(ImmutableList.toImmutableList());
+    together(tasks);
+  }
+}
@@ -0,0 +1,162 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.io.Resources;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import javax.xml.XMLConstants;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.asciidoctor.Asciidoctor;
+import org.jruby.util.log.SLF4JLogger;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class DocBookSaxConverterTests {
+  @BeforeAll
+  static void setJrubyLogger() {
+    System.setProperty("jruby.logger.class", SLF4JLogger.class.getCanonicalName());
+  }
+
+  private static Document toDom(Asciidoctor asciidoctor, String adoc) throws Exception {
+    final DOMResult result = new DOMResult();
+    TransformerFactory.newDefaultInstance().newTransformer()
+        .transform(DocBookSaxConverter.asSource(asciidoctor, adoc, Path.of("")), result);
+    return (Document) result.getNode();
+  }
+
+  private static Element withId(Element root, String id) {
+    final NodeList elements = root.getElementsByTagNameNS("*", "*");
+    for (int i = 0; i < elements.getLength(); ++i) {
+      final Element element = (Element) elements.item(i);
+      if (element.getAttributeNS(XMLConstants.XML_NS_URI, "id").equals(id)) {
+        return element;
+      }
+    }
+    throw new AssertionError("No element with id " + id + ".");
+  }
+
+  @Test
+  void testInlineMarkup() throws Exception {
+    assertEquals("a < b & c’", InlineMarkup.unescape("a &lt; b &amp; c&#8217;"));
+    assertEquals("&lt;x&gt; &quot;", InlineMarkup.escape("<x> \""));
+    assertThrows(SAXException.class,
+        () -> InlineMarkup.emit("<emphasis>unclosed", new DefaultHandler()));
+    assertThrows(SAXException.class,
+        () -> InlineMarkup.emit("<a></b>", new DefaultHandler()));
+  }
+
+  @Test
+  void testEmitsValidDocBook() throws Exception {
+    final String adoc = """
+        = Title
+        Jane Doe
+
+        Some *strong* and _emphasized_ text with `code`, a https://example.com[link] & a < b.
+
+        == Section one
+
+        * First
+        * Second
+
+        [source,java]
+        ----
+        int a = 1 < 2 ? 3 : 4;
+        ----
+
+        [cols="1,2"]
+        |===
+        |Head 1 |Head 2
+
+        |Cell 1 |Cell 2
+        |===
+
+        NOTE: A note.
+
+        .A titled paragraph
+        Its content.
+
+        [#plain-para]
+        An untitled paragraph with an id.
+
+        .A titled listing
+        ----
+        listed
+        ----
+
+        [#plain-listing]
+        ----
+        listed with an id
+        ----
+        """;
+    try (Asciidoctor asciidoctor = Asciidoctor.Factory.create()) {
+      DocBookSaxConverter.register(asciidoctor);
+      final Document document = toDom(asciidoctor, adoc);
+      DocBookConformityChecker.usingEmbeddedSchema().verifyValid(new DOMSource(document));
+
+      final Element root = document.getDocumentElement();
+      assertEquals(DocBookSaxConverter.DOCBOOK_NS, root.getNamespaceURI());
+      assertEquals("article", root.getLocalName());
+      final String text = root.getTextContent();
+      assertTrue(text.contains("Section one"), text);
+      assertTrue(text.contains("a < b"), text);
+      assertTrue(text.contains("int a = 1 < 2 ? 3 : 4;"), text);
+      assertEquals(1,
+          root.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "programlisting")
+              .getLength());
+      assertEquals("strong",
+          ((Element) root.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "emphasis")
+              .item(0)).getAttribute("role"));
+      assertEquals("https://example.com",
+          ((Element) root.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "link").item(0))
+              .getAttributeNS(InlineMarkup.XLINK_NS, "href"));
+      assertEquals(4,
+          root.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "entry").getLength());
+
+      final Element formal = (Element) root
+          .getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "formalpara").item(0);
+      final Element para =
+          (Element) formal.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "para").item(0);
+      assertEquals("Its content.", para.getTextContent());
+      assertEquals(0,
+          para.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "simpara").getLength());
+      assertEquals(0,
+          root.getElementsByTagNameNS(DocBookSaxConverter.DOCBOOK_NS, "anchor").getLength());
+      assertEquals("simpara", withId(root, "plain-para").getLocalName());
+      assertEquals("screen", withId(root, "plain-listing").getLocalName());
+    }
+  }
+
+  @Test
+  void testRenderDirect() throws Exception {
+    final String adoc = Resources.toString(TrainingRun.TRAINING_DOCUMENT, StandardCharsets.UTF_8);
+    final TransformerFactory underlying = KnownFactory.XALAN.factory();
+    underlying.setURIResolver(DocBookResources.RESOLVER);
+
+    try (AsciidocToPdf pipeline =
+        AsciidocToPdf.using(underlying, DocBookResources.XSLT_1_FO_URI)) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      pipeline.renderDirect(adoc, Path.of(""), out);
+      try (PDDocument document = Loader.loadPDF(out.toByteArray())) {
+        final String text = new PDFTextStripper().getText(document);
+        assertTrue(text.contains("Training document"), text);
+        assertTrue(text.contains("A second item"), text);
+      }
+    }
+  }
+}
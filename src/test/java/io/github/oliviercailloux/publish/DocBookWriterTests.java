@@ -0,0 +1,99 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.io.ByteArrayOutputStream;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class DocBookWriterTests {
+  private static final String NS = DocBookSaxConverter.DOCBOOK_NS;
+
+  private static DocBookWriter sample() {
+    final DocBookWriter writer = new DocBookWriter();
+    writer.h1("Title");
+    writer.addAttribute("lang", "fr");
+    writer.addAttribute("toc", "");
+    writer.paragraph("Some *plain* text & a < b.");
+    writer.h2("Section one");
+    writer.append("First line");
+    writer.verbatim("Second line");
+    writer.eol();
+    writer.list(ImmutableList.of("First", "Second"));
+    writer.h3("Nested");
+    writer.h2("Section two");
+    writer.table("1,2", ImmutableList.of("Head 1", "Head 2"),
+        ImmutableList.of(ImmutableList.of("Cell 1", "Cell 2"), ImmutableList.of("Short")));
+    return writer;
+  }
+
+  private static Document toDom(DocBookWriter writer) throws Exception {
+    final DOMResult result = new DOMResult();
+    TransformerFactory.newDefaultInstance().newTransformer().transform(writer.asSource(), result);
+    return (Document) result.getNode();
+  }
+
+  @Test
+  void testValid() throws Exception {
+    final Document document = toDom(sample());
+    DocBookConformityChecker.usingEmbeddedSchema().verifyValid(new DOMSource(document));
+
+    final Element root = document.getDocumentElement();
+    assertEquals("article", root.getLocalName());
+    assertEquals("fr", root.getAttribute("xml:lang"));
+    final NodeList simparas = root.getElementsByTagNameNS(NS, "simpara");
+    assertEquals("Some *plain* text & a < b.", simparas.item(0).getTextContent());
+    assertEquals("First line\nSecond line", simparas.item(1).getTextContent());
+    assertEquals(3, root.getElementsByTagNameNS(NS, "section").getLength());
+    final Element nested = (Element) root.getElementsByTagNameNS(NS, "section").item(1);
+    assertEquals("section", nested.getParentNode().getLocalName());
+    assertEquals(2, root.getElementsByTagNameNS(NS, "listitem").getLength());
+    assertEquals(6, root.getElementsByTagNameNS(NS, "entry").getLength());
+    assertEquals("2*",
+        ((Element) root.getElementsByTagNameNS(NS, "colspec").item(1)).getAttribute("colwidth"));
+  }
+
+  @Test
+  void testEmpty() throws Exception {
+    final Document document = toDom(new DocBookWriter());
+    DocBookConformityChecker.usingEmbeddedSchema().verifyValid(new DOMSource(document));
+  }
+
+  @Test
+  void testWidths() throws Exception {
+    assertEquals(ImmutableList.of("1*", "3*"), DocBookWriter.widths("1,3", 2));
+    assertEquals(ImmutableList.of("2*", "1*"), DocBookWriter.widths(">2,<1a", 2));
+    assertEquals(ImmutableList.of("1*", "1*", "1*"), DocBookWriter.widths("1,3", 3));
+  }
+
+  @Test
+  void testPdf() throws Exception {
+    final TransformerFactory underlying = KnownFactory.XALAN.factory();
+    underlying.setURIResolver(DocBookResources.RESOLVER);
+    final DOMResult fo = new DOMResult();
+    XmlTransformerFactory.usingFactory(underlying).usingStylesheet(DocBookResources.XSLT_1_FO_URI)
+        .sourceToResult(sample().asSource(), fo);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FoToPdfTransformer.usingFactory(underlying).sourceToResult(new DOMSource(fo.getNode()),
+        new StreamResult(out));
+    try (PDDocument document = Loader.loadPDF(out.toByteArray())) {
+      final String text = new PDFTextStripper().getText(document);
+      assertTrue(text.contains("Section two"), text);
+      assertTrue(text.contains("a < b"), text);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.base.VerifyException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DocumentWatcherTests {
+  private static void awaitContent(Path file, String expected) throws Exception {
+    for (int i = 0; i < 100; ++i) {
+      if (Files.exists(file) && Files.readString(file).equals(expected)) {
+        return;
+      }
+      Thread.sleep(100);
+    }
+    assertEquals(expected, Files.exists(file) ? Files.readString(file) : "(missing)");
+  }
+
+  @Test
+  void testRendersChanges(@TempDir Path dir) throws Exception {
+    final ConcurrentMap<Path, AtomicInteger> counts = new ConcurrentHashMap<>();
+    final DocumentWatcher.DocumentRenderer renderer = (adoc, pdf) -> {
+      counts.computeIfAbsent(adoc.getFileName(), p -> new AtomicInteger()).incrementAndGet();
+      pdf.write(("Rendered " + Files.readString(adoc)).getBytes(StandardCharsets.UTF_8));
+    };
+    final Path first = dir.resolve("First.adoc");
+    final Path second = dir.resolve("Second.adoc");
+    Files.writeString(first, "one");
+
+    try (DocumentWatcher watcher =
+        DocumentWatcher.watching(dir, renderer, Duration.ofMillis(100))) {
+      final Thread thread = new Thread(() -> {
+        try {
+          watcher.run();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      thread.start();
+      awaitContent(dir.resolve("First.pdf"), "Rendered one");
+
+      Files.writeString(first, "t");
+      Files.writeString(first, "tw");
+      Files.writeString(first, "two");
+      awaitContent(dir.resolve("First.pdf"), "Rendered two");
+      assertTrue(counts.get(first.getFileName()).get() <= 3);
+
+      Files.writeString(second, "three");
+      awaitContent(dir.resolve("Second.pdf"), "Rendered three");
+
+      final int firstCount = counts.get(first.getFileName()).get();
+      Files.writeString(dir.resolve("image.png"), "changed");
+      awaitContent(dir.resolve("First.pdf"), "Rendered two");
+      for (int i = 0; i < 100 && counts.get(first.getFileName()).get() == firstCount; ++i) {
+        Thread.sleep(100);
+      }
+      assertTrue(counts.get(first.getFileName()).get() > firstCount);
+
+      watcher.close();
+      thread.join(10_000);
+    }
+    try (var files = Files.list(dir)) {
+      assertTrue(files.noneMatch(p -> p.getFileName().toString().endsWith(".tmp")));
+    }
+  }
+
+  @Test
+  void testFailureDoesNotStopWatch(@TempDir Path dir) throws Exception {
+    final DocumentWatcher.DocumentRenderer renderer = (adoc, pdf) -> {
+      final String content = Files.readString(adoc);
+      if (content.equals("invalid")) {
+        throw new VerifyException("Invalid document.");
+      }
+      pdf.write(("Rendered " + content).getBytes(StandardCharsets.UTF_8));
+    };
+    final Path document = dir.resolve("Document.adoc");
+    Files.writeString(document, "one");
+
+    try (DocumentWatcher watcher =
+        DocumentWatcher.watching(dir, renderer, Duration.ofMillis(100))) {
+      final Thread thread = new Thread(() -> {
+        try {
+          watcher.run();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      thread.start();
+      awaitContent(dir.resolve("Document.pdf"), "Rendered one");
+
+      Files.writeString(document, "invalid");
+      Thread.sleep(500);
+      assertTrue(thread.isAlive());
+      assertEquals("Rendered one", Files.readString(dir.resolve("Document.pdf")));
+
+      Files.writeString(document, "two");
+      awaitContent(dir.resolve("Document.pdf"), "Rendered two");
+
+      watcher.close();
+      thread.join(10_000);
+    }
+  }
+
+  @Test
+  void testRendersIncludingDocuments(@TempDir Path dir) throws Exception {
+    final DocumentWatcher.DocumentRenderer renderer = (adoc, pdf) -> {
+      final String content = Files.readString(adoc).replace("include::Part.adoc[]",
+          Files.readString(adoc.resolveSibling("Part.adoc")));
+      pdf.write(("Rendered " + content).getBytes(StandardCharsets.UTF_8));
+    };
+    Files.writeString(dir.resolve("Part.adoc"), "one");
+    Files.writeString(dir.resolve("Main.adoc"), "Main\ninclude::Part.adoc[]\n");
+
+    try (DocumentWatcher watcher =
+        DocumentWatcher.watching(dir, renderer, Duration.ofMillis(100))) {
+      final Thread thread = new Thread(() -> {
+        try {
+          watcher.run();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      thread.start();
+      awaitContent(dir.resolve("Main.pdf"), "Rendered Main\none\n");
+
+      Files.writeString(dir.resolve("Part.adoc"), "two");
+      awaitContent(dir.resolve("Main.pdf"), "Rendered Main\ntwo\n");
+      assertFalse(Files.exists(dir.resolve("Part.pdf")));
+
+      watcher.close();
+      thread.join(10_000);
+    }
+  }
+}
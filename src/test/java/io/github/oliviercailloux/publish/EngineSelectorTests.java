@@ -0,0 +1,98 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.xml.transform.stream.StreamResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EngineSelectorTests {
+  private static final String DOC =
+      "<article xmlns=\"http://docbook.org/ns/docbook\" xml:id=\"a\"><para>Hi</para></article>";
+
+  @Test
+  void testBuckets() {
+    assertEquals(0, EngineSelector.bucket(0));
+    assertEquals(0, EngineSelector.bucket(65_535));
+    assertEquals(1, EngineSelector.bucket(65_536));
+    assertEquals(2, EngineSelector.bucket(200_000));
+  }
+
+  @Test
+  void testExploresThenPersists(@TempDir Path dir) throws Exception {
+    final URI stylesheet = Resourcer.url("Support from DocBook to Fo/Remove ids.xsl").toURI();
+    final Path statistics = dir.resolve("engines.properties");
+    final ImmutableSet<KnownFactory> candidates =
+        ImmutableSet.of(KnownFactory.XALAN, KnownFactory.SAXON);
+    final EngineSelector selector =
+        EngineSelector.persistedIn(candidates, CachingUriResolver.docBook(), statistics);
+    final EngineSelector.AdaptiveTransformer transformer = selector.forStylesheet(stylesheet, 10);
+
+    final KnownFactory first = transformer.engineFor(DOC.length());
+    transformer.transform(DOC, new StreamResult(new StringWriter()));
+    final KnownFactory second = transformer.engineFor(DOC.length());
+    assertNotEquals(first, second);
+    final StringWriter out = new StringWriter();
+    transformer.transform(DOC, new StreamResult(out));
+    assertTrue(out.toString().contains("Hi"));
+    assertTrue(candidates.contains(transformer.engineFor(DOC.length())));
+
+    selector.close();
+    final String persisted = Files.readString(statistics);
+    assertTrue(persisted.contains("compile.XALAN."), persisted);
+    assertTrue(persisted.contains("transform.SAXON.0."), persisted);
+
+    final EngineSelector reloaded =
+        EngineSelector.persistedIn(candidates, CachingUriResolver.docBook(), statistics);
+    /* Both explored, so the choice is the cheapest one, whatever it is. */
+    assertTrue(candidates
+        .contains(reloaded.forStylesheet(stylesheet, 1).engineFor(DOC.length())));
+  }
+
+  @Test
+  void testSkipsKnownFailures() throws Exception {
+    final EngineSelector selector = EngineSelector.inMemory(
+        ImmutableSet.of(KnownFactory.JDK, KnownFactory.XALAN), DocBookResources.RESOLVER);
+    assertEquals(KnownFactory.XALAN,
+        selector.forStylesheet(DocBookResources.XSLT_1_FO_URI, 1).engineFor(1));
+  }
+
+  @Test
+  void testFallsBackThenGivesUp(@TempDir Path dir) throws Exception {
+    final Path missing = dir.resolve("Missing.xsl");
+    final Path statistics = dir.resolve("engines.properties");
+    final ImmutableSet<KnownFactory> candidates =
+        ImmutableSet.of(KnownFactory.XALAN, KnownFactory.SAXON);
+    try (EngineSelector selector =
+        EngineSelector.persistedIn(candidates, DocBookResources.RESOLVER, statistics)) {
+      final EngineSelector.AdaptiveTransformer transformer =
+          selector.forStylesheet(missing.toUri(), 1);
+      assertThrows(XmlException.class,
+          () -> transformer.transform(DOC, new StreamResult(new StringWriter())));
+      assertThrows(XmlException.class, () -> transformer.engineFor(1));
+    }
+    assertFalse(Files.exists(statistics) && Files.readString(statistics).contains("failed."));
+
+    /* The failure was transient: a new selector tries again. */
+    Files.copy(Path.of(Resourcer.url("Support from DocBook to Fo/Remove ids.xsl").toURI()),
+        missing);
+    try (EngineSelector selector =
+        EngineSelector.persistedIn(candidates, DocBookResources.RESOLVER, statistics)) {
+      final StringWriter out = new StringWriter();
+      selector.forStylesheet(missing.toUri(), 1).transform(DOC, new StreamResult(out));
+      assertTrue(out.toString().contains("Hi"));
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package io.github.oliviercailloux.publish;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -8,7 +9,10 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
 import com.google.common.io.MoreFiles;
 import com.google.common.jimfs.Jimfs;
 import io.github.oliviercailloux.jaris.xml.KnownFactory;
@@ -17,19 +21,33 @@ import io.github.oliviercailloux.jaris.xml.XmlToBytesTransformer;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 import org.apache.fop.apps.FOUserAgent;
 import org.apache.fop.apps.FopFactory;
 import org.apache.fop.render.RendererFactory;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.xmlgraphics.util.MimeConstants;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.slf4j.Logger;
@@ -233,6 +251,19 @@ public class FoToPdfTransformerTests {
     }
   }
 
+  @ParameterizedTest
+  @EnumSource
+  void testOverlyLongLineHyphenatesWithSharedTrees(KnownFactory factoryFoToPdf)
+      throws Exception {
+    final byte[] pdf = FoToPdfTransformer.usingFactory(factoryFoToPdf.factory())
+        .withHyphenationTrees(HyphenationTrees.shared())
+        .bytesToBytes(Resourcer.byteSource("Various Fo/Overly long line.fo"));
+    try (PDDocument document = Loader.loadPDF(pdf)) {
+      assertEquals(1, document.getNumberOfPages());
+      assertTrue(new PDFTextStripper().getText(document).contains("incomprehensibil-\n" + "ities"));
+    }
+  }
+
   @Test
   void testArticleWithPdf() throws Exception {
     final byte[] pdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory())
@@ -260,4 +291,189 @@ public class FoToPdfTransformerTests {
       assertTrue(Files.size(outputPath) > 0);
     }
   }
+
+  @Test
+  void testPath() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+
+    try (FileSystem fs = Jimfs.newFileSystem()) {
+      final Path outputPath = fs.getPath("out.pdf");
+      toPdf.sourceToPath(Resourcer.streamSource("Simple/Simple article.fo"), outputPath);
+      try (PDDocument document = Loader.loadPDF(Files.readAllBytes(outputPath))) {
+        assertEquals(1, document.getNumberOfPages());
+      }
+
+      final Path failing = fs.getPath("failing.pdf");
+      assertThrows(XmlException.class, () -> toPdf.sourceToPath(
+          Resourcer.streamSource("With image/Article with non existing image.fo"), failing));
+      try (Stream<Path> files = Files.list(fs.getPath(""))) {
+        assertEquals(ImmutableSet.of(outputPath), files.collect(ImmutableSet.toImmutableSet()));
+      }
+    }
+  }
+
+  @Test
+  void testSystemIdResult(@TempDir Path dir) throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final Path outputPath = dir.resolve("out.pdf");
+    toPdf.sourceToResult(Resourcer.streamSource("Simple/Simple article.fo"),
+        new StreamResult(outputPath.toFile()));
+    try (PDDocument document = Loader.loadPDF(Files.readAllBytes(outputPath))) {
+      assertEquals(1, document.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void testChannel() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (WritableByteChannel channel = Channels.newChannel(out)) {
+      toPdf.sourceToChannel(Resourcer.streamSource("Simple/Simple article.fo"), channel);
+      try (PDDocument document = Loader.loadPDF(out.toByteArray())) {
+        assertEquals(1, document.getNumberOfPages());
+      }
+    }
+  }
+
+  private static String pages(int count) {
+    return """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="A4" page-width="210mm" page-height="297mm">
+              <fo:region-body margin="2cm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="A4">
+            <fo:flow flow-name="xsl-region-body">
+        """ + "<fo:block break-before=\"page\">Page</fo:block>".repeat(count) + """
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """;
+  }
+
+  @Test
+  void testBudget() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final RenderBudget budget =
+        RenderBudget.unlimited().withTimeout(Duration.ofMinutes(1)).withMaxPages(5);
+    final byte[] pdf = toPdf.withBudget(budget).charsToBytes(CharSource.wrap(pages(5)));
+    try (PDDocument document = Loader.loadPDF(pdf)) {
+      assertEquals(5, document.getNumberOfPages());
+    }
+
+    final RenderBudgetExceededException pages = assertThrows(RenderBudgetExceededException.class,
+        () -> toPdf.withBudget(budget).charsToBytes(CharSource.wrap(pages(6))));
+    assertEquals(RenderBudgetExceededException.Limit.PAGES, pages.limit());
+
+    final RenderBudgetExceededException bytes = assertThrows(RenderBudgetExceededException.class,
+        () -> toPdf.withBudget(RenderBudget.unlimited().withMaxOutputBytes(100))
+            .charsToBytes(CharSource.wrap(pages(1))));
+    assertEquals(RenderBudgetExceededException.Limit.OUTPUT_BYTES, bytes.limit());
+
+    final RenderBudgetExceededException timeout = assertThrows(RenderBudgetExceededException.class,
+        () -> toPdf.withBudget(RenderBudget.unlimited().withTimeout(Duration.ofNanos(1)))
+            .charsToBytes(CharSource.wrap(pages(1))));
+    assertEquals(RenderBudgetExceededException.Limit.TIMEOUT, timeout.limit());
+
+    /* The factory remains usable. */
+    final byte[] after = toPdf.withBudget(budget).charsToBytes(CharSource.wrap(pages(1)));
+    try (PDDocument document = Loader.loadPDF(after)) {
+      assertEquals(1, document.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void testLayout() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final LayoutReport report =
+        toPdf.layout(new StreamSource(new StringReader(pages(3)), "pages.fo"));
+    assertEquals(3, report.pageCount());
+    assertEquals(ImmutableList.of(3), report.sequencePageCounts());
+    assertTrue(report.isClean());
+    assertTrue(report.fits(3));
+    assertFalse(report.fits(2));
+
+    final String overflowing = """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="narrow" page-width="30mm" page-height="100mm">
+              <fo:region-body margin="5mm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="narrow">
+            <fo:flow flow-name="xsl-region-body">
+              <fo:block>Unbreakableeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeee</fo:block>
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """;
+    final LayoutReport overflow =
+        toPdf.layout(new StreamSource(new StringReader(overflowing), "overflowing.fo"));
+    assertEquals(1, overflow.pageCount());
+    assertFalse(overflow.isClean());
+    assertThrows(XmlException.class,
+        () -> toPdf.charsToBytes(CharSource.wrap(overflowing)));
+  }
+
+  @Test
+  void testReproducible() throws Exception {
+    final Instant date = Instant.parse("2024-01-01T00:00:00Z");
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory())
+        .withReproducibleOutput(date);
+    final ByteSource fo = Resourcer.byteSource("Hello world/Hello world A4.fo");
+    final byte[] first = toPdf.bytesToBytes(fo);
+    final byte[] second = toPdf.bytesToBytes(fo);
+    assertArrayEquals(first, second);
+    final byte[] other = toPdf.charsToBytes(CharSource.wrap(pages(1)));
+    assertFalse(Arrays.equals(first, other));
+
+    try (PDDocument document = Loader.loadPDF(first);
+        PDDocument otherDocument = Loader.loadPDF(other)) {
+      assertEquals(1, document.getNumberOfPages());
+      assertEquals(date, document.getDocumentInformation().getCreationDate().toInstant());
+      final COSArray ids = document.getDocument().getDocumentID();
+      assertEquals(2, ids.size());
+      assertEquals(ids.getString(0), ids.getString(1));
+      final COSArray otherIds = otherDocument.getDocument().getDocumentID();
+      assertFalse(ids.getString(0).equals(otherIds.getString(0)));
+    }
+  }
+
+  @Test
+  void testReproducibleLinearized() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory())
+        .withPdfOptions(PdfOptions.builder().linearization(true).build())
+        .withReproducibleOutput(Instant.parse("2024-01-01T00:00:00Z"));
+    final byte[] first = toPdf.charsToBytes(CharSource.wrap(pages(2)));
+    final byte[] second = toPdf.charsToBytes(CharSource.wrap(pages(2)));
+    assertArrayEquals(first, second);
+
+    final Matcher ids = Pattern.compile("/ID\\s*\\[\\s*<([0-9A-F]+)>")
+        .matcher(new String(first, StandardCharsets.ISO_8859_1));
+    final ImmutableSet.Builder<String> found = ImmutableSet.builder();
+    int count = 0;
+    while (ids.find()) {
+      found.add(ids.group(1));
+      ++count;
+    }
+    assertTrue(count >= 2, "Identifiers: " + count);
+    assertEquals(1, found.build().size());
+    try (PDDocument document = Loader.loadPDF(first)) {
+      assertEquals(2, document.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void testLowMemory() throws Exception {
+    final FoToPdfTransformer toPdf =
+        FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory()).withLowMemory(true);
+    final byte[] pdf = toPdf.charsToBytes(CharSource.wrap(LowMemoryBenchmark.fo(3)));
+    try (PDDocument document = Loader.loadPDF(pdf)) {
+      assertEquals(3, document.getNumberOfPages());
+      final String text = new PDFTextStripper().getText(document);
+      assertTrue(text.contains("Page 1 of 3"), text);
+      assertTrue(text.contains("Page 3 of 3"), text);
+    }
+  }
 }
@@ -0,0 +1,43 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.apache.fop.hyphenation.HyphenationTree;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HyphenationTreesTests {
+  @Test
+  void testSharedFromClasspath() throws Exception {
+    final Optional<HyphenationTree> en = HyphenationTrees.shared().get("en", Optional.empty());
+    assertTrue(en.isPresent());
+    assertSame(en.get(), HyphenationTrees.shared().get("en", Optional.of("ZZ")).orElseThrow());
+    assertFalse(HyphenationTrees.shared().get("zz", Optional.empty()).isPresent());
+  }
+
+  @Test
+  void testCompileThenLoad(@TempDir Path dir) throws Exception {
+    final Path patterns = Files.createDirectories(dir.resolve("patterns"));
+    Files.writeString(patterns.resolve("xx.xml"), """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <hyphenation-info>
+          <hyphen-char value="-"/>
+          <hyphen-min before="1" after="1"/>
+          <classes>aA bB</classes>
+          <patterns>a1b</patterns>
+        </hyphenation-info>
+        """);
+    final Path compiled = dir.resolve("compiled");
+    HyphenationTrees.compile(patterns, compiled);
+    assertTrue(Files.exists(compiled.resolve("xx.hyp")));
+
+    assertTrue(HyphenationTrees.fromDirectory(compiled).get("xx", Optional.empty()).isPresent());
+    assertTrue(HyphenationTrees.fromDirectory(patterns).get("xx", Optional.empty()).isPresent());
+    assertFalse(HyphenationTrees.fromDirectory(compiled).get("yy", Optional.empty()).isPresent());
+  }
+}
@@ -0,0 +1,168 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+public class ImagePreprocessorTests {
+  private static Path writeImage(Path dir, int width, int height) throws Exception {
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.ORANGE);
+    graphics.fillOval(0, 0, width, height);
+    graphics.dispose();
+    final Path file = dir.resolve("Big image.png");
+    ImageIO.write(image, "png", file.toFile());
+    return file;
+  }
+
+  private static Element preprocessed(ImagePreprocessor preprocessor, String fo, URI base)
+      throws Exception {
+    final SAXParserFactory parsers = SAXParserFactory.newInstance();
+    parsers.setNamespaceAware(true);
+    final XMLReader reader = parsers.newSAXParser().getXMLReader();
+    final DOMResult result = new DOMResult();
+    final InputSource input = new InputSource(new StringReader(fo));
+    TransformerFactory.newDefaultInstance().newTransformer()
+        .transform(preprocessor.asSource(reader, input, base), result);
+    return (Element) ((Document) result.getNode()).getDocumentElement()
+        .getElementsByTagNameNS(ImagePreprocessor.FO_NS, "external-graphic").item(0);
+  }
+
+  private static long count(Path dir) throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  void testLengths() throws Exception {
+    assertEquals(Optional.of(2d), ImagePreprocessor.inches("2in"));
+    assertEquals(1d, ImagePreprocessor.inches(" 2.54cm ").orElseThrow(), 1e-9);
+    assertEquals(1d, ImagePreprocessor.inches("72pt").orElseThrow(), 1e-9);
+    assertEquals(Optional.empty(), ImagePreprocessor.inches("50%"));
+    assertEquals(Optional.empty(), ImagePreprocessor.inches("scale-to-fit"));
+    assertEquals("a b.png", ImagePreprocessor.unwrapUrl("url('a b.png')"));
+    assertEquals("a.png", ImagePreprocessor.unwrapUrl("url(a.png)"));
+    assertEquals("a.png", ImagePreprocessor.unwrapUrl("a.png"));
+  }
+
+  @Test
+  void testDownsamples(@TempDir Path dir) throws Exception {
+    writeImage(dir, 2000, 1000);
+    final Path cache = dir.resolve("cache");
+    final ImagePreprocessor preprocessor = ImagePreprocessor.using(cache, 150, 0.85f);
+    final String fo = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="url('Big image.png')" content-width="2in"/>
+        </block>""";
+
+    final Element graphic = preprocessed(preprocessor, fo, dir.toUri());
+    final String src = ImagePreprocessor.unwrapUrl(graphic.getAttribute("src"));
+    assertTrue(src.endsWith(".jpg"), src);
+    assertEquals("2in", graphic.getAttribute("content-width"));
+    final BufferedImage downsampled = ImageIO.read(Path.of(URI.create(src)).toFile());
+    assertEquals(300, downsampled.getWidth());
+    assertEquals(150, downsampled.getHeight());
+    assertEquals(1, count(cache));
+
+    final Element again = preprocessed(preprocessor, fo, dir.toUri());
+    assertEquals(graphic.getAttribute("src"), again.getAttribute("src"));
+    assertEquals(1, count(cache));
+  }
+
+  @Test
+  void testKeepsIntrinsicWidth(@TempDir Path dir) throws Exception {
+    writeImage(dir, 1440, 720);
+    final ImagePreprocessor preprocessor = ImagePreprocessor.using(dir.resolve("cache"), 50, 0.85f);
+    final String fo = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="Big%20image.png"/>
+        </block>""";
+
+    final Element graphic = preprocessed(preprocessor, fo, dir.toUri());
+    /* 1440 pixels at 72 dpi is 20 inches, thus 1000 pixels at 50 dpi. */
+    assertEquals("20.0000in", graphic.getAttribute("content-width"));
+    final String src = ImagePreprocessor.unwrapUrl(graphic.getAttribute("src"));
+    assertEquals(1000, ImageIO.read(Path.of(URI.create(src)).toFile()).getWidth());
+  }
+
+  @Test
+  void testLeavesUnknownWidths(@TempDir Path dir) throws Exception {
+    writeImage(dir, 2000, 1000);
+    final ImagePreprocessor preprocessor =
+        ImagePreprocessor.using(dir.resolve("cache"), 150, 0.85f);
+    final String scaled = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="url('Big image.png')" content-width="scale-to-fit"/>
+        </block>""";
+    final Element graphic = preprocessed(preprocessor, scaled, dir.toUri());
+    assertEquals("url('Big image.png')", graphic.getAttribute("src"));
+    assertEquals("scale-to-fit", graphic.getAttribute("content-width"));
+    final String heightOnly = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="url('Big image.png')" content-height="1in"/>
+        </block>""";
+    assertEquals("url('Big image.png')",
+        preprocessed(preprocessor, heightOnly, dir.toUri()).getAttribute("src"));
+    assertFalse(Files.exists(dir.resolve("cache")));
+  }
+
+  @Test
+  void testLeavesUndecodableImages(@TempDir Path dir) throws Exception {
+    final Path image = writeImage(dir, 2000, 1000);
+    final byte[] content = Files.readAllBytes(image);
+    /* Keeps the header, which tells the dimensions, but truncates the pixel data. */
+    Files.write(image, Arrays.copyOf(content, 100));
+    final ImagePreprocessor preprocessor =
+        ImagePreprocessor.using(dir.resolve("cache"), 150, 0.85f);
+    final String fo = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="url('Big image.png')" content-width="2in"/>
+        </block>""";
+    assertEquals("url('Big image.png')",
+        preprocessed(preprocessor, fo, dir.toUri()).getAttribute("src"));
+    assertFalse(Files.exists(dir.resolve("cache")));
+  }
+
+  @Test
+  void testLeavesSmallAndMissingImages(@TempDir Path dir) throws Exception {
+    writeImage(dir, 100, 50);
+    final ImagePreprocessor preprocessor =
+        ImagePreprocessor.using(dir.resolve("cache"), 150, 0.85f);
+    final String small = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="url('Big image.png')" content-width="2in"/>
+        </block>""";
+    assertEquals("url('Big image.png')",
+        preprocessed(preprocessor, small, dir.toUri()).getAttribute("src"));
+    final String missing = """
+        <block xmlns="http://www.w3.org/1999/XSL/Format">
+          <external-graphic src="url('Missing.png')"/>
+        </block>""";
+    assertEquals("url('Missing.png')",
+        preprocessed(preprocessor, missing, dir.toUri()).getAttribute("src"));
+    assertFalse(Files.exists(dir.resolve("cache")));
+  }
+}
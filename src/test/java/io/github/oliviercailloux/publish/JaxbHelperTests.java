@@ -0,0 +1,74 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlType;
+import javax.xml.namespace.QName;
+import org.junit.jupiter.api.Test;
+
+public class JaxbHelperTests {
+  private static final String A = "urn:test:a";
+  private static final String B = "urn:test:b";
+
+  @XmlRootElement(name = "book", namespace = A)
+  @XmlType(namespace = A)
+  @XmlAccessorType(XmlAccessType.FIELD)
+  public static class Book {
+    @XmlElement(namespace = A, required = true)
+    String title;
+  }
+
+  @XmlRootElement(name = "shelf", namespace = A)
+  @XmlType(namespace = A)
+  @XmlAccessorType(XmlAccessType.FIELD)
+  public static class Shelf {
+    @XmlElement(namespace = A, required = true)
+    Author author;
+  }
+
+  /**
+   * In another namespace than the shelf, thus in another generated schema.
+   */
+  @XmlType(namespace = B)
+  @XmlAccessorType(XmlAccessType.FIELD)
+  public static class Author {
+    @XmlElement(namespace = B, required = true)
+    String name;
+  }
+
+  @Test
+  void testValidates() throws Exception {
+    final JaxbHelper helper = JaxbHelper.newContext(Book.class);
+    final Book book = new Book();
+    book.title = "Title";
+    final String xml = helper.toXml(new JAXBElement<>(new QName(A, "book"), Book.class, book));
+    assertTrue(xml.contains(">Title</"), xml);
+
+    final Book untitled = new Book();
+    assertThrows(XmlException.class,
+        () -> helper.toXml(new JAXBElement<>(new QName(A, "book"), Book.class, untitled)));
+  }
+
+  @Test
+  void testValidatesSeveralSchemas() throws Exception {
+    final JaxbHelper helper = JaxbHelper.newContext(Shelf.class);
+    final Shelf shelf = new Shelf();
+    shelf.author = new Author();
+    shelf.author.name = "Name";
+    final String xml = helper.toXml(new JAXBElement<>(new QName(A, "shelf"), Shelf.class, shelf));
+    assertTrue(xml.contains(B), xml);
+    assertTrue(xml.contains(">Name</"), xml);
+
+    final Shelf anonymous = new Shelf();
+    anonymous.author = new Author();
+    assertThrows(XmlException.class,
+        () -> helper.toXml(new JAXBElement<>(new QName(A, "shelf"), Shelf.class, anonymous)));
+  }
+}
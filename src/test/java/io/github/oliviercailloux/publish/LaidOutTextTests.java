@@ -0,0 +1,66 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.StringReader;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LaidOutTextTests {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(LaidOutTextTests.class);
+
+  @Test
+  void testHelloWorld() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final LaidOutText text =
+        toPdf.layoutText(Resourcer.streamSource("Hello world/Hello world A4.fo"));
+    text.assertPageCount(1).assertClean().assertContains("Hello world")
+        .assertContains(1, "Hello").assertNotContains("Hello warld");
+    final LaidOutText.Page page = text.page(1);
+    assertEquals("Hello world", page.text());
+    assertEquals("1", page.label());
+    assertEquals(595.275d, page.width(), 0.01d);
+    assertEquals(841.889d, page.height(), 0.01d);
+    assertThrows(AssertionError.class, () -> text.assertContains("Hello warld"));
+    assertThrows(AssertionError.class, () -> text.assertContains(2, "Hello"));
+    assertThrows(AssertionError.class, () -> text.assertPageCount(2));
+  }
+
+  @Test
+  void testPages() throws Exception {
+    final String fo = """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="A6" page-width="105mm" page-height="148mm">
+              <fo:region-body margin="1cm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="A6" format="i">
+            <fo:flow flow-name="xsl-region-body">
+              <fo:block>First page, with a rather long sentence that spans several lines \
+        on this small page.</fo:block>
+              <fo:block break-before="page">Second page</fo:block>
+              <fo:block break-before="page">Third page</fo:block>
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """;
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    final LaidOutText text = toPdf.layoutText(new StreamSource(new StringReader(fo), "pages.fo"));
+    text.assertPageCount(3).assertContains(1, "spans several lines on this small page")
+        .assertContains(3, "Third");
+    assertTrue(text.page(1).text().contains("\n"));
+    assertEquals("ii", text.page(2).label());
+    assertEquals(ImmutableList.of(2, 3), text.pagesContaining("d page"));
+    assertFalse(text.contains("Second page Third"));
+    assertEquals(ImmutableList.of(3), text.report().sequencePageCounts());
+  }
+}
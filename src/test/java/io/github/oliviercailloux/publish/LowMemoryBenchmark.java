@@ -0,0 +1,99 @@
+package io.github.oliviercailloux.publish;
+
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prints the render time and the peak resident set size (the {@code VmHWM} of
+ * {@code /proc/self/status}, thus on Linux only) of rendering a large FO document, with and without
+ * {@link FoToPdfTransformer#withLowMemory(boolean) low memory mode}.
+ * <p>
+ * Each page of the document refers to the last one (as in “page 1 of 1000”), which forces FOP to
+ * keep all pages until the end of the document unless it conserves memory. Each measure runs in a
+ * fresh JVM, using the class path of this one, as the peak is a property of the process. The first
+ * argument, if any, is the number of pages (default 1000); the second one, the maximal heap size
+ * given to the child JVMs (default {@code 4g}).
+ * </p>
+ */
+public class LowMemoryBenchmark {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(LowMemoryBenchmark.class);
+
+  private static final String CHILD = "child";
+
+  static String fo(int pages) {
+    return """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="A4" page-width="210mm" page-height="297mm">
+              <fo:region-body margin="2cm" />
+              <fo:region-after extent="1cm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="A4">
+            <fo:static-content flow-name="xsl-region-after">
+              <fo:block text-align="center">Page <fo:page-number /> of \
+        <fo:page-number-citation ref-id="last" /></fo:block>
+            </fo:static-content>
+            <fo:flow flow-name="xsl-region-body">
+        """ + IntStream.range(0, pages).mapToObj(i -> "<fo:block break-before=\"page\""
+        + (i == pages - 1 ? " id=\"last\"" : "") + ">" + "Some text on this page. ".repeat(200)
+        + "</fo:block>").collect(Collectors.joining("\n")) + """
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length >= 1 && args[0].equals(CHILD)) {
+      child(Integer.parseInt(args[1]), Boolean.parseBoolean(args[2]));
+      return;
+    }
+    final int pages = args.length >= 1 ? Integer.parseInt(args[0]) : 1000;
+    final String heap = args.length >= 2 ? args[1] : "4g";
+    for (boolean lowMemory : List.of(false, true)) {
+      final Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+      final Process process = new ProcessBuilder(java.toString(), "-Xmx" + heap, "-cp",
+          System.getProperty("java.class.path"), LowMemoryBenchmark.class.getName(), CHILD,
+          String.valueOf(pages), String.valueOf(lowMemory)).inheritIO().start();
+      if (process.waitFor() != 0) {
+        System.out.printf("low memory %-5s failed with exit code %d%n", lowMemory,
+            process.exitValue());
+      }
+    }
+  }
+
+  private static void child(int pages, boolean lowMemory) throws IOException {
+    final String fo = fo(pages);
+    final FoToPdfTransformer toPdf =
+        FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory()).withLowMemory(lowMemory);
+    final long start = System.nanoTime();
+    toPdf.sourceToResult(new StreamSource(new StringReader(fo)),
+        new StreamResult(OutputStream.nullOutputStream()));
+    final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    System.out.printf("low memory %-5s %,6d pages %,8d ms  peak RSS %s%n", lowMemory, pages, millis,
+        peakRss());
+  }
+
+  private static String peakRss() throws IOException {
+    final Path status = Path.of("/proc/self/status");
+    if (!Files.exists(status)) {
+      return "unknown";
+    }
+    return Files.readAllLines(status).stream().filter(l -> l.startsWith("VmHWM:"))
+        .map(l -> l.substring("VmHWM:".length()).strip()).findFirst().orElse("unknown");
+  }
+}
@@ -0,0 +1,68 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PdfFingerprintTests {
+
+  @Test
+  void testFingerprint() throws Exception {
+    final PdfFingerprint world =
+        PdfFingerprint.of(Resourcer.byteSource("Hello world/Hello world A4.pdf"));
+    final PdfFingerprint warld =
+        PdfFingerprint.of(Resourcer.byteSource("Hello world/Hello warld A4.pdf"));
+    final PdfFingerprint small =
+        PdfFingerprint.of(Resourcer.byteSource("Hello world/Hello world A6.pdf"));
+
+    final PdfFingerprint.Page page = Iterables.getOnlyElement(world.pages());
+    assertEquals(595.27f, page.width(), 0.01f);
+    assertEquals(841.89f, page.height(), 0.01f);
+    assertTrue(world.matches(world));
+    assertFalse(world.matches(warld));
+    assertNotEquals(Iterables.getOnlyElement(warld.pages()).text(), page.text());
+    assertFalse(world.matches(small));
+
+    final PdfFingerprint parsed = PdfFingerprint.parse(world.format());
+    assertEquals(world, parsed);
+    assertTrue(parsed.matches(world));
+
+    final byte[] bits = page.hash().asBytes();
+    bits[0] ^= 1;
+    final PdfFingerprint.Page oneBitOff =
+        new PdfFingerprint.Page(page.width(), page.height(), page.text(), HashCode.fromBytes(bits));
+    assertFalse(page.matches(oneBitOff));
+  }
+
+  @Test
+  void testIndex(@TempDir Path dir) throws Exception {
+    final ByteSource world = Resourcer.byteSource("Hello world/Hello world A4.pdf");
+    final ByteSource warld = Resourcer.byteSource("Hello world/Hello warld A4.pdf");
+    final Path file = dir.resolve("fingerprints.properties");
+
+    final PdfFingerprintIndex index = PdfFingerprintIndex.persistedIn(file);
+    assertEquals(0, index.size());
+    assertTrue(index.matches(world, world));
+    assertEquals(1, index.size());
+    assertTrue(Files.exists(file));
+    assertFalse(index.matches(world, warld));
+    assertEquals(1, index.size());
+
+    final PdfFingerprintIndex reloaded = PdfFingerprintIndex.persistedIn(file);
+    assertEquals(1, reloaded.size());
+    assertEquals(PdfFingerprint.of(world), reloaded.fingerprint(world));
+    assertTrue(reloaded.matches(world, world));
+    assertFalse(reloaded.matches(world, warld));
+    assertTrue(reloaded.matches(warld, warld));
+    assertEquals(2, reloaded.size());
+  }
+}
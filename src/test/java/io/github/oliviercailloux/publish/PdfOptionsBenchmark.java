@@ -0,0 +1,61 @@
+package io.github.oliviercailloux.publish;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.TransformerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prints, for a few combinations of PDF options, the size of the output and the median rendering
+ * time of an FO document (by default, the training document converted to FO).
+ */
+public class PdfOptionsBenchmark {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(PdfOptionsBenchmark.class);
+
+  private static final int RUNS = 7;
+
+  public static void main(String[] args) throws Exception {
+    final TransformerFactory factory = KnownFactory.XALAN.factory();
+    factory.setURIResolver(CachingUriResolver.docBook());
+    final ByteSource fo;
+    try (AsciidocToPdf pipeline = AsciidocToPdf.using(factory, DocBookResources.XSLT_1_FO_URI)) {
+      final String adoc = Resourcer.charSource(TrainingRun.TRAINING_DOCUMENT).read();
+      final String docBook = pipeline.toDocBook(adoc, Path.of(""));
+      fo = ByteSource.wrap(XmlTransformerFactory.usingFactory(factory)
+          .usingStylesheet(DocBookResources.XSLT_1_FO_URI).charsToBytes(docBook));
+    }
+
+    final ImmutableMap<String, PdfOptions> variants = ImmutableMap.of("configuration",
+        PdfOptions.unchanged(), "uncompressed",
+        PdfOptions.builder().compression(PdfOptions.Compression.NONE).build(), "object streams",
+        PdfOptions.builder().objectStreams(true).build(), "linearized",
+        PdfOptions.builder().linearization(true).build(), "object streams, referenced fonts",
+        PdfOptions.builder().objectStreams(true)
+            .fontEmbedding(PdfOptions.FontEmbedding.REFERENCED).build());
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(factory);
+    for (Map.Entry<String, PdfOptions> variant : variants.entrySet()) {
+      final FoToPdfTransformer transformer = toPdf.withPdfOptions(variant.getValue());
+      /* Warm up. */
+      transformer.bytesToBytes(fo);
+      final long[] times = new long[RUNS];
+      int size = 0;
+      for (int i = 0; i < RUNS; ++i) {
+        final long start = System.nanoTime();
+        size = transformer.bytesToBytes(fo).length;
+        times[i] = System.nanoTime() - start;
+      }
+      Arrays.sort(times);
+      System.out.printf("%-35s %,10d bytes %,8d ms%n", variant.getKey(), size,
+          TimeUnit.NANOSECONDS.toMillis(times[RUNS / 2]));
+    }
+  }
+}
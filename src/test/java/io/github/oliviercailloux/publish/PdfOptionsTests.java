@@ -0,0 +1,65 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.Resources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.nio.charset.StandardCharsets;
+import org.apache.fop.apps.FopConfParser;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+public class PdfOptionsTests {
+  @Test
+  void testApply() throws Exception {
+    final ByteSource config = Resources.asByteSource(FoToPdfTransformer.CONFIG_URL);
+    assertSame(config, PdfOptions.unchanged().applyTo(config));
+
+    final PdfOptions options = PdfOptions.builder().compression(PdfOptions.Compression.NONE)
+        .objectStreams(true).linearization(true)
+        .fontEmbedding(PdfOptions.FontEmbedding.REFERENCED).build();
+    assertEquals("1.5", options.version().orElseThrow());
+    final String applied = options.applyTo(config).asCharSource(StandardCharsets.UTF_8).read();
+    assertTrue(applied.contains("<renderer mime=\"application/pdf\">"), applied);
+    assertTrue(applied.contains("<filterList><value>null</value></filterList>"), applied);
+    assertTrue(applied.contains("<use-object-streams>true</use-object-streams>"), applied);
+    assertTrue(applied.contains("<linearization>true</linearization>"), applied);
+    assertTrue(applied.contains("<version>1.5</version>"), applied);
+    assertTrue(applied.contains("<referenced-fonts><match font-family=\".*\"/></referenced-fonts>"),
+        applied);
+    assertTrue(applied.contains("<substitutions>"), applied);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> PdfOptions.builder().version("1.4").objectStreams(true).build());
+  }
+
+  @Test
+  void testUncompressedIsLarger() throws Exception {
+    final ByteSource fo = Resourcer.byteSource("Hello world/Hello world A4.fo");
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.JDK.factory());
+    final byte[] compressed = toPdf.bytesToBytes(fo);
+    final byte[] uncompressed = toPdf
+        .withPdfOptions(
+            PdfOptions.builder().compression(PdfOptions.Compression.NONE).version("1.6").build())
+        .bytesToBytes(fo);
+    assertTrue(uncompressed.length > compressed.length);
+    try (PDDocument document = Loader.loadPDF(uncompressed)) {
+      assertEquals(1.6f, document.getVersion());
+      assertEquals(1, document.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void testParserRejectsOptions() throws Exception {
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.JDK.factory())
+        .withConfig(new FopConfParser(FoToPdfTransformer.CONFIG_URL.openStream(),
+            FoToPdfTransformer.BASE_URI));
+    assertThrows(IllegalStateException.class,
+        () -> toPdf.withPdfOptions(PdfOptions.unchanged()));
+  }
+}
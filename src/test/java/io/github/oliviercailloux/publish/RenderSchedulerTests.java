@@ -0,0 +1,131 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.publish.RenderScheduler.Priority;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class RenderSchedulerTests {
+  @Test
+  void testInteractiveFirst() throws Exception {
+    final List<String> order = new CopyOnWriteArrayList<>();
+    final CountDownLatch release = new CountDownLatch(1);
+    try (RenderScheduler scheduler = RenderScheduler.withThreadsAndBudget(1, 1_000_000)) {
+      final CompletableFuture<Void> blocking = scheduler.submit(Priority.BATCH, "book", 10, () -> {
+        release.await();
+        order.add("first batch");
+        return null;
+      });
+      final CompletableFuture<Void> batch = scheduler.submit(Priority.BATCH, "book", 10, () -> {
+        order.add("second batch");
+        return null;
+      });
+      final CompletableFuture<Void> interactive =
+          scheduler.submit(Priority.INTERACTIVE, "preview", 10, () -> {
+            order.add("interactive");
+            return null;
+          });
+      release.countDown();
+      CompletableFuture.allOf(blocking, batch, interactive).get(10, TimeUnit.SECONDS);
+    }
+    assertEquals(ImmutableList.of("first batch", "interactive", "second batch"), order);
+  }
+
+  @Test
+  void testMemoryAdmission() throws Exception {
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    final long size = Math.round(600 / RenderScheduler.DEFAULT_BYTES_PER_INPUT_BYTE);
+    try (RenderScheduler scheduler = RenderScheduler.withThreadsAndBudget(3, 1000)) {
+      assertEquals(600, scheduler.estimate("unmeasured", size));
+      final ImmutableList.Builder<CompletableFuture<Void>> futures = ImmutableList.builder();
+      for (int i = 0; i < 4; ++i) {
+        futures.add(scheduler.submit(Priority.BATCH, "book", size, () -> {
+          maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+          Thread.sleep(50);
+          concurrent.decrementAndGet();
+          return null;
+        }));
+      }
+      CompletableFuture.allOf(futures.build().toArray(new CompletableFuture<?>[0])).get(10,
+          TimeUnit.SECONDS);
+    }
+    assertEquals(1, maxConcurrent.get());
+  }
+
+  @Test
+  void testMeasuredKindAdmission() throws Exception {
+    final long budget = 30 << 20;
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    try (RenderScheduler scheduler = RenderScheduler.withThreadsAndBudget(2, budget)) {
+      assertEquals(Math.round(RenderScheduler.DEFAULT_BYTES_PER_INPUT_BYTE),
+          scheduler.estimate("heavy", 1));
+      /* Runs alone, thus gets measured. */
+      final int allocated = scheduler.submit(Priority.BATCH, "heavy", 1, () -> {
+        final byte[] held = new byte[64 << 20];
+        return held.length;
+      }).get(10, TimeUnit.SECONDS);
+      assertEquals(64 << 20, allocated);
+      final long estimate = scheduler.estimate("heavy", 1);
+      assertTrue(2 * estimate > budget, "Estimate: " + estimate);
+      assertEquals(Math.round(RenderScheduler.DEFAULT_BYTES_PER_INPUT_BYTE),
+          scheduler.estimate("light", 1));
+
+      /* Unmeasured jobs of the same size still run together. */
+      final CountDownLatch together = new CountDownLatch(2);
+      final Callable<Boolean> meet = () -> {
+        together.countDown();
+        return together.await(10, TimeUnit.SECONDS);
+      };
+      final CompletableFuture<Boolean> first =
+          scheduler.submit(Priority.INTERACTIVE, "light", 1, meet);
+      final CompletableFuture<Boolean> second =
+          scheduler.submit(Priority.INTERACTIVE, "light", 1, meet);
+      assertTrue(first.get(10, TimeUnit.SECONDS));
+      assertTrue(second.get(10, TimeUnit.SECONDS));
+
+      /* Measured jobs of the same size do not. */
+
+      final ImmutableList.Builder<CompletableFuture<Void>> futures = ImmutableList.builder();
+      for (int i = 0; i < 2; ++i) {
+        futures.add(scheduler.submit(Priority.INTERACTIVE, "heavy", 1, () -> {
+          maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+          Thread.sleep(50);
+          concurrent.decrementAndGet();
+          return null;
+        }));
+      }
+      CompletableFuture.allOf(futures.build().toArray(new CompletableFuture<?>[0])).get(10,
+          TimeUnit.SECONDS);
+    }
+    assertEquals(1, maxConcurrent.get());
+  }
+
+  @Test
+  void testFailure() throws Exception {
+    try (RenderScheduler scheduler = RenderScheduler.withThreads(2)) {
+      final CompletableFuture<Object> failing =
+          scheduler.submit(Priority.INTERACTIVE, "preview", 1, () -> {
+            throw new IOException("Failed.");
+          });
+      final ExecutionException thrown =
+          assertThrows(ExecutionException.class, () -> failing.get(10, TimeUnit.SECONDS));
+      assertInstanceOf(IOException.class, thrown.getCause());
+      assertEquals(3, scheduler.submit(Priority.BATCH, "book", 1, () -> 3).get());
+    }
+  }
+}
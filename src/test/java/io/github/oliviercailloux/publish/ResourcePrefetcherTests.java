@@ -0,0 +1,120 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharSource;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.xml.transform.TransformerException;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class ResourcePrefetcherTests {
+  private static String fo(String image) {
+    return """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:layout-master-set>
+            <fo:simple-page-master master-name="A4" page-width="210mm" page-height="297mm">
+              <fo:region-body margin="2cm" />
+            </fo:simple-page-master>
+          </fo:layout-master-set>
+          <fo:page-sequence master-reference="A4">
+            <fo:flow flow-name="xsl-region-body">
+              <fo:block>Image: <fo:external-graphic src="url('%s')"/></fo:block>
+            </fo:flow>
+          </fo:page-sequence>
+        </fo:root>
+        """.formatted(image);
+  }
+
+  @Test
+  void testReferences() throws Exception {
+    final String fo = """
+        <fo:root xmlns:fo="http://www.w3.org/1999/XSL/Format">
+          <fo:declarations>
+            <fo:color-profile src="profiles/srgb.icc" color-profile-name="srgb"/>
+          </fo:declarations>
+          <fo:block background-image="url(&quot;back ground.png&quot;)">
+            <fo:external-graphic src="url('images/a.png')"/>
+            <fo:external-graphic src="data:image/png;base64,AAAA"/>
+            <fo:basic-link external-destination="url('http://example.invalid/')">
+              Link
+            </fo:basic-link>
+          </fo:block>
+        </fo:root>
+        """;
+    final ResourcePrefetcher prefetcher = new ResourcePrefetcher();
+    prefetcher.setContentHandler(new DefaultHandler());
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      prefetcher.setParent(lease.reader());
+      prefetcher.parse(new InputSource(new StringReader(fo)));
+    }
+    assertEquals(ImmutableSet.of("profiles/srgb.icc", "back ground.png", "images/a.png",
+        "data:image/png;base64,AAAA"), prefetcher.references());
+    assertEquals(
+        ImmutableSet.of(URI.create("file:/base/profiles/srgb.icc"),
+            URI.create("file:/base/back%20ground.png"), URI.create("file:/base/images/a.png")),
+        prefetcher.resolved(URI.create("file:/base/")));
+  }
+
+  @Test
+  void testPrefetches(@TempDir Path dir) throws Exception {
+    ImageIO.write(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), "png",
+        dir.resolve("logo.png").toFile());
+    final CachingResourceResolver resolver = CachingResourceResolver.cachingDefault(1 << 20);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory())
+          .withDefaultConfig(dir.toUri()).withPrefetching(resolver, executor);
+
+      final byte[] pdf = toPdf.charsToBytes(CharSource.wrap(fo("logo.png")));
+      try (PDDocument document = Loader.loadPDF(pdf)) {
+        assertEquals(1, document.getNumberOfPages());
+      }
+      assertEquals(1, resolver.stats().missCount());
+      assertTrue(resolver.stats().hitCount() >= 1);
+
+      final XmlException e = assertThrows(XmlException.class,
+          () -> toPdf.charsToBytes(CharSource.wrap(fo("missing.png"))));
+      assertEquals(TransformerException.class, e.getCause().getClass());
+      assertEquals(FileNotFoundException.class, e.getCause().getCause().getClass());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testPrefetchTimeout(@TempDir Path dir) throws Exception {
+    ImageIO.write(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), "png",
+        dir.resolve("logo.png").toFile());
+    final CachingResourceResolver resolver = CachingResourceResolver.cachingDefault(1 << 20);
+    /* Fetches that start only after the timeout. */
+    final Executor late = r -> CompletableFuture.delayedExecutor(10, TimeUnit.SECONDS).execute(r);
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory())
+        .withDefaultConfig(dir.toUri()).withPrefetching(resolver, late)
+        .withBudget(RenderBudget.unlimited().withTimeout(Duration.ofMillis(500)));
+
+    final RenderBudgetExceededException e = assertThrows(RenderBudgetExceededException.class,
+        () -> toPdf.charsToBytes(CharSource.wrap(fo("logo.png"))));
+    assertEquals(RenderBudgetExceededException.Limit.TIMEOUT, e.limit());
+  }
+}
@@ -0,0 +1,141 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import io.github.oliviercailloux.jaris.xml.XmlTransformer;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.xml.transform.TransformerFactory;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpoolWorkerTests {
+  private static final Duration LEASE = Duration.ofSeconds(30);
+
+  @Test
+  void testWorkersShareJobs(@TempDir Path spool) throws Exception {
+    final ConcurrentMap<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+    final SpoolWorker.JobRenderer renderer = (name, job, pdf) -> {
+      counts.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+      pdf.write(Files.readAllBytes(job));
+    };
+    for (int i = 0; i < 30; ++i) {
+      SpoolWorker.submit(spool, "Job " + i + ".fo",
+          ByteSource.wrap(("Content " + i).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    final ImmutableList.Builder<Future<Integer>> processed = ImmutableList.builder();
+    for (int w = 0; w < 3; ++w) {
+      processed.add(executor.submit(() -> {
+        int count = 0;
+        try (SpoolWorker worker = SpoolWorker.in(spool, renderer, LEASE, Duration.ZERO)) {
+          while (worker.processOne()) {
+            ++count;
+          }
+        }
+        return count;
+      }));
+    }
+    int total = 0;
+    for (Future<Integer> future : processed.build()) {
+      total += future.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    assertEquals(30, total);
+    assertEquals(30, counts.size());
+    assertTrue(counts.values().stream().allMatch(c -> c.get() == 1));
+    assertEquals("Content 7", Files.readString(spool.resolve("done/Job 7.pdf")));
+    try (Stream<Path> leased = Files.list(spool.resolve("leased"))) {
+      assertEquals(0, leased.count());
+    }
+  }
+
+  @Test
+  void testReclaimsExpiredLease(@TempDir Path spool) throws Exception {
+    final SpoolWorker.JobRenderer renderer =
+        (name, job, pdf) -> pdf.write(Files.readAllBytes(job));
+    try (SpoolWorker worker = SpoolWorker.in(spool, renderer, LEASE, Duration.ZERO)) {
+      final Path abandoned = spool.resolve("leased/Crashed.fo~deadbeef");
+      Files.writeString(abandoned, "Crashed");
+      final Path live = spool.resolve("leased/Running.fo~cafebabe");
+      Files.writeString(live, "Running");
+      Files.setLastModifiedTime(abandoned, FileTime.from(Instant.now().minus(Duration.ofHours(1))));
+
+      assertFalse(worker.processOne());
+      assertTrue(Files.exists(spool.resolve("pending/Crashed.fo")));
+      assertTrue(Files.exists(live));
+      assertTrue(worker.processOne());
+      assertEquals("Crashed", Files.readString(spool.resolve("done/Crashed.pdf")));
+    }
+  }
+
+  @Test
+  void testFailure(@TempDir Path spool) throws Exception {
+    final SpoolWorker.JobRenderer renderer = (name, job, pdf) -> {
+      throw new XmlException("Bad job.");
+    };
+    SpoolWorker.submit(spool, "Bad.fo", ByteSource.wrap(new byte[] {1}));
+    try (SpoolWorker worker = SpoolWorker.in(spool, renderer, LEASE, Duration.ZERO)) {
+      assertTrue(worker.processOne());
+    }
+    assertTrue(Files.exists(spool.resolve("failed/Bad.fo")));
+    assertTrue(Files.readString(spool.resolve("failed/Bad.fo.error")).contains("Bad job."));
+    assertFalse(Files.exists(spool.resolve("done/Bad.pdf")));
+  }
+
+  @Test
+  void testFo(@TempDir Path spool) throws Exception {
+    SpoolWorker.submit(spool, "Hello.fo", Resourcer.byteSource("Hello world/Hello world A4.fo"));
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    try (SpoolWorker worker =
+        SpoolWorker.in(spool, SpoolWorker.using(toPdf), LEASE, Duration.ZERO)) {
+      assertTrue(worker.processOne());
+    }
+    try (PDDocument document =
+        Loader.loadPDF(Files.readAllBytes(spool.resolve("done/Hello.pdf")))) {
+      assertEquals(1, document.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void testDocBook(@TempDir Path spool) throws Exception {
+    SpoolWorker.submit(spool, "Simple.xml", Resourcer.byteSource("Simple/Simple article.dbk"));
+    final TransformerFactory factory = KnownFactory.XALAN.factory();
+    factory.setURIResolver(DocBookResources.RESOLVER);
+    final XmlTransformer toFo = XmlTransformerFactory.usingFactory(factory)
+        .usingStylesheet(DocBookResources.XSLT_1_FO_URI);
+    final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(KnownFactory.XALAN.factory());
+    try (SpoolWorker worker =
+        SpoolWorker.in(spool, SpoolWorker.using(toFo, toPdf), LEASE, Duration.ZERO)) {
+      assertTrue(worker.processOne());
+    }
+    try (PDDocument document =
+        Loader.loadPDF(Files.readAllBytes(spool.resolve("done/Simple.pdf")))) {
+      assertEquals(1, document.getNumberOfPages());
+    }
+  }
+}
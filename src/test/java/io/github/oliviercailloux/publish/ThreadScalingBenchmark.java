@@ -0,0 +1,80 @@
+package io.github.oliviercailloux.publish;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharSource;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prints, for each XSLT factory and for 1, 2, 4… threads up to the number of processors, the
+ * throughput of a single {@link FoToPdfTransformer} shared by all threads, and checks that each
+ * PDF produced under contention has the expected pages and text.
+ * <p>
+ * The first argument, if any, is the number of documents to render per measure (default 64), the
+ * second one is the number of pages per document (default 10).
+ * </p>
+ */
+public class ThreadScalingBenchmark {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(ThreadScalingBenchmark.class);
+
+  public static void main(String[] args) throws Exception {
+    final int documents = args.length >= 1 ? Integer.parseInt(args[0]) : 64;
+    final int pages = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+    final int processors = Runtime.getRuntime().availableProcessors();
+
+    for (KnownFactory factory : KnownFactory.values()) {
+      final FoToPdfTransformer toPdf = FoToPdfTransformer.usingFactory(factory.factory());
+      /* Warm up, which also creates the FOP factory. */
+      render(toPdf, "Warm up", pages);
+      double single = 0d;
+      for (int threads = 1; threads <= processors; threads *= 2) {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+          final ImmutableList<Callable<Void>> tasks =
+              IntStream.range(0, documents).mapToObj(d -> (Callable<Void>) () -> {
+                render(toPdf, "Document " + d, pages);
+                return null;
+              }).collect(ImmutableList.toImmutableList());
+          final long start = System.nanoTime();
+          for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+          }
+          final double seconds = (System.nanoTime() - start) / 1e9d;
+          final double throughput = documents / seconds;
+          if (threads == 1) {
+            single = throughput;
+          }
+          System.out.printf("%-6s %3d threads %8.1f documents/s  speedup %5.2f%n", factory,
+              threads, throughput, throughput / single);
+        } finally {
+          executor.shutdown();
+        }
+      }
+    }
+  }
+
+  private static void render(FoToPdfTransformer toPdf, String label, int pages)
+      throws Exception {
+    final byte[] pdf = toPdf.charsToBytes(CharSource.wrap(ConcurrencyTests.fo(label, pages)));
+    try (PDDocument document = Loader.loadPDF(pdf)) {
+      if (document.getNumberOfPages() != pages) {
+        throw new IllegalStateException(
+            label + ": expected " + pages + " pages, got " + document.getNumberOfPages() + ".");
+      }
+      final String text = new PDFTextStripper().getText(document);
+      if (!text.contains(label + " page " + pages)) {
+        throw new IllegalStateException(label + ": unexpected text " + text);
+      }
+    }
+  }
+}
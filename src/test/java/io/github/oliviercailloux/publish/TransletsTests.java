@@ -0,0 +1,136 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TransletsTests {
+  @Test
+  void testNames() throws Exception {
+    final String canonical = DocBookResources.XSLT_1_FO_URI.toString();
+    final String resolved = DocBookResources.RESOLVER.resolve(canonical, null).getSystemId();
+    assertTrue(Translets.transletName(canonical).startsWith("fo_docbook_"));
+    assertEquals(Translets.transletName(canonical), Translets.transletName(resolved));
+    assertTrue(Translets.transletName(
+        "file:/src/Support%20from%20DocBook%20to%20Fo/DocBook%20to%20Fo%20style.xsl")
+        .startsWith("Support_from_DocBook_to_Fo_DocBook_to_Fo_style_"));
+    assertNotEquals(Translets.transletName("file:/a/fo/docbook.xsl"),
+        Translets.transletName("file:/b/fo/docbook.xsl"));
+  }
+
+  @Test
+  void testLoadSeveral(@TempDir Path dir) throws Exception {
+    final String stylesheet = """
+        <xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+          <xsl:output omit-xml-declaration="yes"/>
+          <xsl:template match="/"><r>%s</r></xsl:template>
+        </xsl:stylesheet>
+        """;
+    final Path a = dir.resolve("a/fo/style.xsl");
+    final Path b = dir.resolve("b/fo/style.xsl");
+    Files.createDirectories(a.getParent());
+    Files.createDirectories(b.getParent());
+    Files.writeString(a, stylesheet.formatted("A"));
+    Files.writeString(b, stylesheet.formatted("B"));
+    final Path destination = dir.resolve("classes");
+    Translets.compile(a.toUri(), destination);
+    Translets.compile(b.toUri(), destination);
+
+    final TransformerFactory factory = Translets.factory();
+    final Thread thread = Thread.currentThread();
+    final ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader =
+        new URLClassLoader(new URL[] {destination.toUri().toURL()}, original)) {
+      thread.setContextClassLoader(loader);
+      for (Path path : ImmutableList.of(a, b, a)) {
+        final Templates templates = factory.newTemplates(new StreamSource(path.toUri().toString()));
+        final StringWriter written = new StringWriter();
+        templates.newTransformer().transform(new StreamSource(new StringReader("<x/>")),
+            new StreamResult(written));
+        final String expected = path.equals(a) ? "<r>A</r>" : "<r>B</r>";
+        assertEquals(expected, written.toString().strip());
+      }
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+  }
+
+  @Test
+  void testCompileThenLoad(@TempDir Path destination) throws Exception {
+    final URI stylesheet = Resourcer.url("Support from DocBook to Fo/Remove ids.xsl").toURI();
+    Translets.compile(stylesheet, destination);
+    assertTrue(Files.exists(destination.resolve(Translets.PACKAGE_NAME.replace('.', '/'))
+        .resolve(Translets.transletName(stylesheet.toString()) + ".class")));
+
+    final TransformerFactory factory = Translets.factory();
+    final Thread thread = Thread.currentThread();
+    final ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader =
+        new URLClassLoader(new URL[] {destination.toUri().toURL()}, original)) {
+      thread.setContextClassLoader(loader);
+      final Templates templates = factory.newTemplates(new StreamSource(stylesheet.toString()));
+      final StringWriter written = new StringWriter();
+      templates.newTransformer().transform(
+          new StreamSource(new StringReader("<a id=\"i\"><b ref-id=\"j\">c</b></a>")),
+          new StreamResult(written));
+      assertTrue(written.toString().contains("<a><b>c</b></a>"), written.toString());
+      assertFalse(written.toString().contains("id="));
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+  }
+
+  @Test
+  void testDocBookFo(@TempDir Path destination) throws Exception {
+    final URI stylesheet = DocBookResources.XSLT_1_FO_URI;
+    Translets.compile(stylesheet, destination);
+    final String name = Translets.transletName(stylesheet.toString());
+    assertTrue(name.startsWith("fo_docbook_"), name);
+    assertTrue(Files.exists(
+        destination.resolve(Translets.PACKAGE_NAME.replace('.', '/')).resolve(name + ".class")));
+
+    final TransformerFactory factory = Translets.factory();
+    final Thread thread = Thread.currentThread();
+    final ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader =
+        new URLClassLoader(new URL[] {destination.toUri().toURL()}, original)) {
+      thread.setContextClassLoader(loader);
+      final Templates templates = factory.newTemplates(new StreamSource(stylesheet.toString()));
+      final StringWriter written = new StringWriter();
+      templates.newTransformer().transform(Resourcer.streamSource("Simple/Simple article.dbk"),
+          new StreamResult(written));
+      final String fo = written.toString();
+      assertTrue(fo.contains("http://www.w3.org/1999/XSL/Format"), fo);
+      assertTrue(fo.contains("Another paragraph"), fo);
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+  }
+
+  @Test
+  void testNotPrecompiledThrows() throws Exception {
+    final TransformerFactory factory = Translets.factory();
+    final URI stylesheet = Resourcer.url("Support from DocBook to Fo/Remove ids.xsl").toURI();
+    assertThrows(TransformerConfigurationException.class,
+        () -> factory.newTemplates(new StreamSource(stylesheet.toString())));
+  }
+}
@@ -0,0 +1,105 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.MoreFiles;
+import com.google.common.jimfs.Jimfs;
+import io.github.oliviercailloux.docbook.DocBookResources;
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.publish.VariantRenderer.Variant;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.transform.TransformerFactory;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class VariantRendererTests {
+  @ParameterizedTest
+  @EnumSource(names = {"XALAN", "SAXON"})
+  void testLetterAndA4(KnownFactory factory) throws Exception {
+    TransformerFactory underlying = factory.factory();
+    underlying.setURIResolver(DocBookResources.RESOLVER);
+    final VariantRenderer renderer = VariantRenderer.using(underlying,
+        DocBookResources.XSLT_1_FO_URI, FoToPdfTransformer.usingFactory(factory.factory()));
+    final ParsedDocBook docBook =
+        renderer.parse(Resourcer.streamSource("Simple/Simple article.dbk"));
+    assertEquals(factory == KnownFactory.SAXON, docBook.isShareable());
+
+    try (FileSystem fs = Jimfs.newFileSystem()) {
+      final Path letter = fs.getPath("letter.pdf");
+      final Path a4 = fs.getPath("a4.pdf");
+      final ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        renderer.renderAll(docBook,
+            ImmutableList.of(Variant.of(ImmutableMap.of(), MoreFiles.asByteSink(letter)),
+                Variant.of(ImmutableMap.of("paper.type", "A4"), MoreFiles.asByteSink(a4))),
+            executor);
+      } finally {
+        executor.shutdown();
+      }
+
+      final byte[] letterPdf = Files.readAllBytes(letter);
+      final byte[] a4Pdf = Files.readAllBytes(a4);
+      try (PDDocument document = Loader.loadPDF(letterPdf)) {
+        assertEquals(1, document.getNumberOfPages());
+        assertEquals(612f, document.getPage(0).getMediaBox().getWidth(), 1f);
+        assertTrue(new PDFTextStripper().getText(document).contains("Another paragraph"));
+      }
+      try (PDDocument document = Loader.loadPDF(a4Pdf)) {
+        assertEquals(1, document.getNumberOfPages());
+        assertEquals(595f, document.getPage(0).getMediaBox().getWidth(), 1f);
+        assertTrue(new PDFTextStripper().getText(document).contains("Another paragraph"));
+      }
+      assertFalse(PdfCompar.compare(ByteSource.wrap(letterPdf), ByteSource.wrap(a4Pdf)).isEqual());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(names = {"XALAN", "SAXON"})
+  void testRendersOthersAfterUncheckedFailure(KnownFactory factory) throws Exception {
+    TransformerFactory underlying = factory.factory();
+    underlying.setURIResolver(DocBookResources.RESOLVER);
+    final VariantRenderer renderer = VariantRenderer.using(underlying,
+        DocBookResources.XSLT_1_FO_URI, FoToPdfTransformer.usingFactory(factory.factory()));
+    final ParsedDocBook docBook =
+        renderer.parse(Resourcer.streamSource("Simple/Simple article.dbk"));
+
+    final ByteSink broken = new ByteSink() {
+      @Override
+      public OutputStream openStream() {
+        throw new IllegalStateException("Broken destination.");
+      }
+    };
+    try (FileSystem fs = Jimfs.newFileSystem()) {
+      final Path a4 = fs.getPath("a4.pdf");
+      final ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        assertThrows(IllegalStateException.class,
+            () -> renderer.renderAll(docBook,
+                ImmutableList.of(Variant.of(ImmutableMap.of(), broken),
+                    Variant.of(ImmutableMap.of("paper.type", "A4"), MoreFiles.asByteSink(a4))),
+                executor));
+      } finally {
+        executor.shutdown();
+      }
+
+      try (PDDocument document = Loader.loadPDF(Files.readAllBytes(a4))) {
+        assertEquals(1, document.getNumberOfPages());
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.oliviercailloux.jaris.xml.KnownFactory;
+import io.github.oliviercailloux.jaris.xml.XmlException;
+import io.github.oliviercailloux.jaris.xml.XmlTransformerFactory;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class XIncludeResolverTests {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(XIncludeResolverTests.class);
+
+  private static String book(String title, String... chapters) {
+    final StringBuilder includes = new StringBuilder();
+    for (String chapter : chapters) {
+      includes.append("<xi:include href=\"").append(chapter).append("\" />\n");
+    }
+    return """
+        <book xmlns="http://docbook.org/ns/docbook" xmlns:xi="http://www.w3.org/2001/XInclude" \
+        version="5.0">
+          <info><title>%s</title></info>
+          %s
+        </book>
+        """.formatted(title, includes);
+  }
+
+  private static String chapter(String title) {
+    return """
+        <chapter xmlns="http://docbook.org/ns/docbook" version="5.0">
+          <title>%s</title>
+          <simpara>Content of %s.</simpara>
+        </chapter>
+        """.formatted(title, title);
+  }
+
+  private static String serialize(Source source) throws Exception {
+    final StringWriter writer = new StringWriter();
+    XmlTransformerFactory.usingFactory(KnownFactory.SAXON.factory()).usingEmptyStylesheet()
+        .sourceToResult(source, new StreamResult(writer));
+    return writer.toString();
+  }
+
+  @Test
+  void testShared(@TempDir Path dir) throws Exception {
+    Files.createDirectories(dir.resolve("chapters"));
+    Files.writeString(dir.resolve("chapters/one.xml"), chapter("One"));
+    Files.writeString(dir.resolve("chapters/two.xml"), chapter("Two"));
+    Files.writeString(dir.resolve("first.xml"),
+        book("First", "chapters/one.xml", "chapters/two.xml"));
+    Files.writeString(dir.resolve("second.xml"), book("Second", "chapters/two.xml"));
+
+    final XIncludeResolver resolver = XIncludeResolver.withMaxFragments(100);
+    final String first = serialize(resolver.resolving(dir.resolve("first.xml").toUri()));
+    assertTrue(first.contains("Content of One."), first);
+    assertTrue(first.contains("Content of Two."), first);
+    assertTrue(first.contains("xml:base=\"" + dir.resolve("chapters/one.xml").toUri()), first);
+    assertFalse(first.contains("xi:include"), first);
+    assertEquals(2, resolver.stats().loadCount());
+
+    final String second = serialize(resolver.resolving(dir.resolve("second.xml").toUri()));
+    assertTrue(second.contains("Content of Two."), second);
+    assertEquals(2, resolver.stats().loadCount());
+    assertEquals(1, resolver.stats().hitCount());
+
+    DocBookConformityChecker.usingEmbeddedSchema()
+        .verifyValid(resolver.resolving(dir.resolve("first.xml").toUri()));
+    assertEquals(2, resolver.stats().loadCount());
+
+    final Path two = dir.resolve("chapters/two.xml");
+    Files.writeString(two, chapter("Deux"));
+    Files.setLastModifiedTime(two, FileTime.from(Instant.now().plusSeconds(10)));
+    final String changed = serialize(resolver.resolving(dir.resolve("second.xml").toUri()));
+    assertTrue(changed.contains("Content of Deux."), changed);
+    assertEquals(3, resolver.stats().loadCount());
+  }
+
+  @Test
+  void testNestedAndText(@TempDir Path dir) throws Exception {
+    Files.writeString(dir.resolve("part.xml"), """
+        <part xmlns:xi="http://www.w3.org/2001/XInclude">
+          <xi:include href="sub/leaf.xml" />
+          <xi:include href="sub/notes.txt" parse="text" />
+        </part>
+        """);
+    Files.createDirectories(dir.resolve("sub"));
+    Files.writeString(dir.resolve("sub/leaf.xml"), """
+        <leaf xmlns:xi="http://www.w3.org/2001/XInclude">Leaf \
+        <xi:include href="notes.txt" parse="text" /></leaf>
+        """);
+    Files.writeString(dir.resolve("sub/notes.txt"), "Some <notes> & more");
+    Files.writeString(dir.resolve("root.xml"), """
+        <root xmlns:xi="http://www.w3.org/2001/XInclude"><xi:include href="part.xml" /></root>
+        """);
+
+    final XIncludeResolver resolver = XIncludeResolver.withMaxFragments(100);
+    final String resolved = serialize(resolver.resolving(dir.resolve("root.xml").toUri()));
+    assertTrue(resolved.contains("<leaf"), resolved);
+    assertTrue(resolved.contains("Leaf Some &lt;notes&gt; &amp; more</leaf>"), resolved);
+    assertTrue(resolved.contains("xml:base=\"" + dir.resolve("sub/leaf.xml").toUri() + "\""),
+        resolved);
+  }
+
+  @Test
+  void testFallback(@TempDir Path dir) throws Exception {
+    Files.writeString(dir.resolve("fallback.xml"), """
+        <root xmlns:xi="http://www.w3.org/2001/XInclude"><xi:include href="missing.xml">\
+        <xi:fallback><replacement /></xi:fallback></xi:include></root>
+        """);
+    Files.writeString(dir.resolve("nofallback.xml"), """
+        <root xmlns:xi="http://www.w3.org/2001/XInclude"><xi:include href="missing.xml" /></root>
+        """);
+
+    final XIncludeResolver resolver = XIncludeResolver.withMaxFragments(100);
+    final String resolved = serialize(resolver.resolving(dir.resolve("fallback.xml").toUri()));
+    assertTrue(resolved.contains("><replacement/></root>"), resolved);
+    assertFalse(resolved.contains("fallback"), resolved);
+    assertThrows(XmlException.class,
+        () -> serialize(resolver.resolving(dir.resolve("nofallback.xml").toUri())));
+  }
+
+  @Test
+  void testLoop(@TempDir Path dir) throws Exception {
+    Files.writeString(dir.resolve("a.xml"), """
+        <a xmlns:xi="http://www.w3.org/2001/XInclude"><xi:include href="b.xml" /></a>
+        """);
+    Files.writeString(dir.resolve("b.xml"), """
+        <b xmlns:xi="http://www.w3.org/2001/XInclude"><xi:include href="a.xml" /></b>
+        """);
+
+    final XIncludeResolver resolver = XIncludeResolver.withMaxFragments(100);
+    final XmlException thrown = assertThrows(XmlException.class,
+        () -> serialize(resolver.resolving(dir.resolve("a.xml").toUri())));
+    LOGGER.debug("Thrown.", thrown);
+  }
+}
@@ -0,0 +1,76 @@
+package io.github.oliviercailloux.publish;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+
+public class XmlReadersTests {
+  @Test
+  void testReuse() throws Exception {
+    final XMLReader first;
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      first = lease.reader();
+      try (XmlReaders.Lease nested = XmlReaders.borrow()) {
+        assertNotSame(first, nested.reader());
+      }
+    }
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      assertSame(first, lease.reader());
+      assertSame(CachingEntityResolver.shared(), lease.reader().getEntityResolver());
+    }
+    final XMLReader other = CompletableFuture.supplyAsync(() -> {
+      try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+        return lease.reader();
+      }
+    }).get();
+    assertNotSame(first, other);
+  }
+
+  @Test
+  void testSource() throws Exception {
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      final Source source = lease.source(new StreamSource(new StringReader("<a><b/></a>")));
+      assertTrue(source instanceof SAXSource);
+      assertSame(lease.reader(), ((SAXSource) source).getXMLReader());
+      final DOMResult result = new DOMResult();
+      TransformerFactory.newDefaultInstance().newTransformer().transform(source, result);
+      assertEquals("b",
+          ((Document) result.getNode()).getDocumentElement().getFirstChild().getNodeName());
+
+      final DOMSource dom = new DOMSource(result.getNode());
+      assertSame(dom, lease.source(dom));
+    }
+  }
+
+  @Test
+  void testResetsFeatures() throws Exception {
+    final XMLReader first;
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      first = lease.reader();
+      first.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+      first.setProperty("http://xml.org/sax/properties/lexical-handler", new DefaultHandler2());
+    }
+    try (XmlReaders.Lease lease = XmlReaders.borrow()) {
+      assertSame(first, lease.reader());
+      assertTrue(lease.reader().getFeature("http://xml.org/sax/features/namespaces"));
+      assertFalse(lease.reader().getFeature("http://xml.org/sax/features/namespace-prefixes"));
+      assertNull(lease.reader().getProperty("http://xml.org/sax/properties/lexical-handler"));
+    }
+  }
+}